@@ -0,0 +1,198 @@
+package cn.weeg.exp.databaseDesign.impl2.bench;
+
+import cn.weeg.exp.databaseDesign.impl2.BPlusTree;
+import cn.weeg.exp.databaseDesign.impl2.BPlusTreeImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * insert / get / delete 的JMH基准测试
+ * <p>
+ * 运行方式：
+ * <pre>
+ * mvn -B package -pl benchmarks -am
+ * java -jar benchmarks/target/benchmarks.jar BPlusTreeBenchmark -p distribution=zipfian
+ * </pre>
+ *
+ * @author weeGiam
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class BPlusTreeBenchmark {
+
+    @Param({"sequential", "random", "zipfian"})
+    public String distribution;
+
+    @Param({"4096", "8192", "16384"})
+    public int pageSize;
+
+    @Param({"64", "1024"})
+    public int bufferPoolSize;
+
+    @Param({"false", "true"})
+    public boolean compressPages;
+
+    // 键值分离模式，按需通过 -p separateValues=true 开启
+    @Param({"false"})
+    public boolean separateValues;
+
+    // 预加载的key数量
+    @Param({"20000"})
+    public int preload;
+
+    // insert和delete每轮测量调用的次数，每轮开始时树重新加载，这些调用的key互不重复
+    private static final int MUTATION_BATCH = 5000;
+
+    private BPlusTree tree;
+    private Path file;
+    // get按分布从已加载的key中选取，总能命中；getMiss只查询没有加载过的奇数序号。
+    // key预先格式化，测量中不包含String.format的开销
+    private String[] loadedKeys;
+    private String[] missingKeys;
+    private KeyGenerator hitPositions;
+    private KeyGenerator missPositions;
+    private PrintStream originalOut;
+    // 本轮insert使用的新key和delete使用的已有key，按分布生成，每个只用一次
+    private String[] insertKeys;
+    private String[] deleteKeys;
+    private int insertPos;
+    private int deletePos;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        // 树的实现会输出大量调试日志，测量期间将其丢弃，避免控制台I/O主导结果
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        file = Files.createTempFile("bptree-bench", ".db");
+        Files.delete(file);
+        tree = new BPlusTreeImpl(bufferPoolSize, compressPages, separateValues);
+        tree.create(file.toString(), pageSize);
+
+        // 以固定顺序预加载偶数序号的key，使insert可以命中新key，get和delete可以命中已有key
+        KeyGenerator loader = KeyGenerator.create("random", preload, 42L);
+        Set<Integer> loaded = new LinkedHashSet<>();
+        for (int i = 0; i < preload; i++) {
+            int index = loader.nextIndex() * 2;
+            tree.insert(KeyGenerator.formatKey(index), row(index), "row_" + index);
+            loaded.add(index);
+        }
+
+        List<Integer> loadedIndexes = new ArrayList<>(loaded);
+        loadedIndexes.sort(null);
+        loadedKeys = new String[loadedIndexes.size()];
+        for (int i = 0; i < loadedKeys.length; i++) {
+            loadedKeys[i] = KeyGenerator.formatKey(loadedIndexes.get(i));
+        }
+        hitPositions = KeyGenerator.create(distribution, loadedKeys.length, 7L);
+        missingKeys = new String[preload];
+        for (int i = 0; i < preload; i++) {
+            missingKeys[i] = KeyGenerator.formatKey(i * 2 + 1);
+        }
+        missPositions = KeyGenerator.create(distribution, preload, 17L);
+        prepareMutationKeys(loadedIndexes);
+    }
+
+    // 按分布生成本轮的insert和delete key：insert的key总是新key，delete的key总能命中且不重复；loaded已排序
+    private void prepareMutationKeys(List<Integer> loaded) {
+        if (loaded.size() < MUTATION_BATCH) {
+            throw new IllegalStateException("预加载的不同key只有 " + loaded.size() + " 个，至少需要 " + MUTATION_BATCH);
+        }
+
+        KeyGenerator mutations = KeyGenerator.create(distribution, preload * 2, 11L);
+        insertKeys = new String[MUTATION_BATCH];
+        for (int i = 0; i < MUTATION_BATCH; i++) {
+            // 奇数序号没有预加载，加上调用序号保证同一热点位置的多次插入也是不同的key
+            insertKeys[i] = KeyGenerator.formatKey(mutations.nextIndex() | 1) + "_" + i;
+        }
+
+        // 按分布的热点顺序选出不重复的已有key，抽样次数用尽后按顺序补齐
+        Set<Integer> chosen = new LinkedHashSet<>();
+        KeyGenerator positions = KeyGenerator.create(distribution, loaded.size(), 13L);
+        for (long draws = 0; chosen.size() < MUTATION_BATCH && draws < 100L * MUTATION_BATCH; draws++) {
+            chosen.add(loaded.get(positions.nextIndex()));
+        }
+        for (int i = 0; chosen.size() < MUTATION_BATCH; i++) {
+            chosen.add(loaded.get(i));
+        }
+        deleteKeys = new String[MUTATION_BATCH];
+        int n = 0;
+        for (int index : chosen) {
+            deleteKeys[n++] = KeyGenerator.formatKey(index);
+        }
+        insertPos = 0;
+        deletePos = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        tree.close(file.toString());
+        Files.deleteIfExists(file);
+        String prefix = file.getFileName().toString();
+        try (DirectoryStream<Path> sidecars = Files.newDirectoryStream(file.getParent(), prefix + ".*")) {
+            for (Path sidecar : sidecars) {
+                Files.deleteIfExists(sidecar);
+            }
+        }
+        System.setOut(originalOut);
+    }
+
+    private static String[] row(int index) {
+        return new String[]{"value_" + index + "_1", "value_" + index + "_2", "value_" + index + "_3"};
+    }
+
+    /**
+     * 每轮固定调用MUTATION_BATCH次，结果为一轮的总时间；按时间测量时树会在一轮内不断变化，
+     * 后面的插入变成覆盖，删除只能命中不存在的key
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = MUTATION_BATCH)
+    @Measurement(iterations = 5, batchSize = MUTATION_BATCH)
+    public void insert() {
+        String key = insertKeys[insertPos++];
+        tree.insert(key, row(insertPos), "row_" + key);
+    }
+
+    /**
+     * 查询已有的key，热点按分布落在已加载key的排名上
+     */
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        blackhole.consume(tree.get(loadedKeys[hitPositions.nextIndex()]));
+    }
+
+    /**
+     * 查询不存在的key，大多在Bloom过滤器处直接返回
+     */
+    @Benchmark
+    public void getMiss(Blackhole blackhole) {
+        blackhole.consume(tree.get(missingKeys[missPositions.nextIndex()]));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = MUTATION_BATCH)
+    @Measurement(iterations = 5, batchSize = MUTATION_BATCH)
+    public void delete() {
+        tree.delete(deleteKeys[deletePos++]);
+    }
+}
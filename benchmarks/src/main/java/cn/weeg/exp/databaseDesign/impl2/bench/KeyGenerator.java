@@ -0,0 +1,131 @@
+package cn.weeg.exp.databaseDesign.impl2.bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * 基准测试的key生成器，支持顺序、均匀随机和Zipfian三种分布
+ *
+ * @author weeGiam
+ */
+public abstract class KeyGenerator {
+    protected final int keySpace;
+
+    protected KeyGenerator(int keySpace) {
+        if (keySpace <= 0) {
+            throw new IllegalArgumentException("Invalid key space: " + keySpace);
+        }
+        this.keySpace = keySpace;
+    }
+
+    /**
+     * 返回下一个key的序号，范围为[0, keySpace)
+     */
+    public abstract int nextIndex();
+
+    public String nextKey() {
+        return formatKey(nextIndex());
+    }
+
+    public static String formatKey(int index) {
+        return String.format("key_%08d", index);
+    }
+
+    public static KeyGenerator create(String distribution, int keySpace, long seed) {
+        switch (distribution) {
+            case "sequential":
+                return new Sequential(keySpace);
+            case "random":
+                return new Uniform(keySpace, seed);
+            case "zipfian":
+                return new Zipfian(keySpace, 0.99, seed);
+            default:
+                throw new IllegalArgumentException("Unknown key distribution: " + distribution);
+        }
+    }
+
+    // 顺序递增，到达keySpace后回绕
+    static final class Sequential extends KeyGenerator {
+        private int next;
+
+        Sequential(int keySpace) {
+            super(keySpace);
+        }
+
+        @Override
+        public int nextIndex() {
+            int index = next;
+            next = (next + 1) % keySpace;
+            return index;
+        }
+    }
+
+    static final class Uniform extends KeyGenerator {
+        private final SplittableRandom random;
+
+        Uniform(int keySpace, long seed) {
+            super(keySpace);
+            this.random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public int nextIndex() {
+            return random.nextInt(keySpace);
+        }
+    }
+
+    /**
+     * Zipfian分布（Gray等人的算法，与YCSB一致），热点key集中在小序号上，
+     * 再经过散列打散，避免热点全部落在同一个叶子节点
+     */
+    static final class Zipfian extends KeyGenerator {
+        private final SplittableRandom random;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        Zipfian(int keySpace, double theta, long seed) {
+            super(keySpace);
+            this.random = new SplittableRandom(seed);
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetaN = zeta(keySpace, theta);
+            double zeta2 = zeta(2, theta);
+            this.eta = (1 - Math.pow(2.0 / keySpace, 1 - theta)) / (1 - zeta2 / zetaN);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        @Override
+        public int nextIndex() {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            int rank;
+            if (uz < 1.0) {
+                rank = 0;
+            } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = (int) (keySpace * Math.pow(eta * u - eta + 1, alpha));
+            }
+            rank = Math.min(rank, keySpace - 1);
+            return (int) Long.remainderUnsigned(fnvHash(rank), keySpace);
+        }
+
+        private static long fnvHash(long value) {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < 8; i++) {
+                hash ^= value & 0xFF;
+                hash *= 0x100000001B3L;
+                value >>>= 8;
+            }
+            return hash;
+        }
+    }
+}
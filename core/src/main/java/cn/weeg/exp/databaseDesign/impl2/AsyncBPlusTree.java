@@ -0,0 +1,155 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * B+树的异步接口：操作在后台线程池中执行，缓冲池未命中时的磁盘读取不阻塞调用线程
+ * <p>
+ * 未完成的操作数有上限，达到上限后提交操作的线程会等待，直到有操作完成。后台线程中
+ * （例如future的回调里）提交的操作不等待，即使超出上限也直接排队，否则所有后台线程都可能在等待彼此释放名额。
+ * 操作执行完后先释放名额再完成future，回调中提交的下一个操作可以使用这个名额。
+ * 项目以Java 17为目标，没有虚拟线程，使用固定大小的守护线程池；
+ * 树本身的公开方法是同步的，线程数不需要很多。关闭本对象不会关闭底层的树。
+ *
+ * @author weeGiam
+ */
+
+public class AsyncBPlusTree implements AutoCloseable {
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    private final BPlusTree tree;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    // 当前线程是否是本对象的后台线程
+    private final ThreadLocal<Boolean> onWorker = ThreadLocal.withInitial(() -> false);
+
+    public AsyncBPlusTree(BPlusTree tree) {
+        this(tree, DEFAULT_THREADS, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public AsyncBPlusTree(BPlusTree tree, int threads, int maxInFlight) {
+        if (tree == null) {
+            throw new IllegalArgumentException("B+树不能为空");
+        }
+        if (threads <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("无效的线程数或并发上限: threads=" + threads + ", maxInFlight=" + maxInFlight);
+        }
+        this.tree = tree;
+        this.inFlight = new Semaphore(maxInFlight);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(() -> {
+                onWorker.set(true);
+                r.run();
+            }, "bplustree-async-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<String[][]> getAsync(String key) {
+        return submit(() -> tree.get(key));
+    }
+
+    public CompletableFuture<Void> insertAsync(String key, String[] value, String rowId) {
+        return submit(() -> {
+            tree.insert(key, value, rowId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteAsync(String key) {
+        return submit(() -> {
+            tree.delete(key);
+            return null;
+        });
+    }
+
+    /**
+     * 在提交时刻之后打开的快照上按key顺序遍历所有记录，回调在后台线程中执行
+     *
+     * @return 遍历的记录数
+     */
+    public CompletableFuture<Long> scanAsync(Snapshot.EntryVisitor visitor) {
+        return submit(() -> {
+            long[] count = new long[1];
+            try (Snapshot snapshot = tree.snapshot()) {
+                snapshot.forEach((key, value, rowId) -> {
+                    visitor.visit(key, value, rowId);
+                    count[0]++;
+                });
+            }
+            return count[0];
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (executor.isShutdown()) {
+            future.completeExceptionally(new IllegalStateException("异步接口已关闭"));
+            return future;
+        }
+        boolean acquired;
+        if (onWorker.get()) {
+            acquired = inFlight.tryAcquire();
+        } else {
+            try {
+                inFlight.acquire();
+                acquired = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+
+        try {
+            executor.execute(() -> {
+                T result = null;
+                Throwable failure = null;
+                try {
+                    result = task.call();
+                } catch (Throwable t) {
+                    failure = t;
+                }
+                // 完成future会在当前线程中执行回调，必须在此之前释放名额
+                if (acquired) {
+                    inFlight.release();
+                }
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (acquired) {
+                inFlight.release();
+            }
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // 已提交的操作执行完毕后再返回
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.util.function.BiFunction;
+
+/**
+ * @author weeGiam
+ */
+public interface BPlusTree {
+    /**
+     * 创建或打开B+树文件
+     *
+     * @param filename 文件名
+     * @param pageSize 页面大小
+     */
+    void create(String filename, int pageSize);
+
+    /**
+     * 关闭B+树文件
+     *
+     * @param filename 文件名
+     */
+    void close(String filename);
+
+    /**
+     * 插入键值对
+     *
+     * @param key   键
+     * @param value 值数组
+     * @param rowId 行ID
+     */
+    void insert(String key, String[] value, String rowId);
+
+    /**
+     * 根据键查询值
+     *
+     * @param key 键
+     * @return 值的二维数组
+     */
+    String[][] get(String key);
+
+    /**
+     * 删除键
+     *
+     * @param key 键
+     */
+    void delete(String key);
+
+    /**
+     * 对key的当前行（不存在时为null）应用function，结果写回该行，结果为null时删除该行。
+     * 新增的行rowId为null，更新已有行时保留原来的rowId
+     *
+     * @param key      键
+     * @param function 由key和当前行计算新行
+     * @return 新的行，删除或行不存在时返回null
+     */
+    String[] compute(String key, BiFunction<String, String[], String[]> function);
+
+    /**
+     * key不存在时插入，已存在时不修改
+     *
+     * @param key   键
+     * @param value 值数组
+     * @param rowId 行ID
+     * @return 已有的行，插入成功时返回null
+     */
+    String[] putIfAbsent(String key, String[] value, String rowId);
+
+    /**
+     * key不存在时插入value，已存在时写入remapping(旧行, value)的结果，结果为null时删除该行
+     *
+     * @param key       键
+     * @param value     值数组
+     * @param rowId     新增行的行ID
+     * @param remapping 合并旧行和value
+     * @return 新的行，删除时返回null
+     */
+    String[] merge(String key, String[] value, String rowId, BiFunction<String[], String[], String[]> remapping);
+
+    /**
+     * 原子地应用一批插入和删除，同一个key以批次中最后一次操作为准
+     *
+     * @param batch 写批次
+     */
+    void write(WriteBatch batch);
+
+    /**
+     * 获取统计信息
+     *
+     * @return 统计信息对象
+     */
+    Statistics getStat();
+
+    /**
+     * 打开一个一致性快照，使用完毕后需要关闭
+     *
+     * @return 快照句柄
+     */
+    Snapshot snapshot();
+}
\ No newline at end of file
@@ -0,0 +1,3541 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * @author weeGiam
+ */
+
+public class BPlusTreeImpl implements BPlusTree {
+    private DiskManager diskManager;
+    private BufferPoolManager bufferPool;
+    private int rootPageId;
+    private int nextPageId;
+    // 空闲页链表头，-1表示没有可复用的页面
+    private int freeListHead;
+    private int pageSize;
+    private String currentFilename;
+    private int maxLeafKeys;
+    private int maxInternalKeys;
+
+    // 统计信息
+    private int splitCount;
+    private int mergeCount;
+
+    // 增量维护的树结构统计，避免getStat遍历整棵树
+    private int treeHeight;
+    private int nodeCount;
+    private int leafCount;
+    private int usedSlots;
+
+    // 递归深度限制
+    private static final int MAX_RECURSION_DEPTH = 50;
+
+    // 默认缓冲池页面数
+    private static final int DEFAULT_BUFFER_POOL_SIZE = 100;
+    // 导出和导入时流的缓冲区大小
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    // 在线备份每次持锁读取的页面数，限制备份对并发读写的影响
+    private static final int BACKUP_BATCH_PAGES = 64;
+    private final int bufferPoolSize;
+    // 新建文件时是否使用压缩页面存储，已有文件以元数据中的记录为准
+    private final boolean compressPages;
+    private boolean compressed;
+
+    // 键值分离模式：行数据追加到value log，叶子节点只保存定长指针
+    private final boolean separateValues;
+    private boolean valueLogEnabled;
+    private ValueLog valueLog;
+    private long valueLogSegmentSize = ValueLog.DEFAULT_SEGMENT_SIZE;
+    // value log中已失效记录的字节数，用于决定何时回收
+    private long valueLogGarbageBytes;
+    // 进行中的在线备份数，备份在锁外复制value log段，此时不能删除旧段
+    private int runningBackups;
+    private ScheduledExecutorService valueLogGc;
+    private static final long VALUE_LOG_GC_INTERVAL_SECONDS = 10;
+    private static final double VALUE_LOG_GC_THRESHOLD = 0.5;
+
+    // 快照需要的旧页面映像
+    private final PageVersionStore versionStore = new PageVersionStore();
+
+    // 二级索引：列下标 -> 索引树，索引树与主树共用同一个文件和缓冲池
+    private final TreeMap<Integer, SecondaryIndex> indexes = new TreeMap<>();
+    // 目录：同一文件中按名字登记的其他树，保存在元数据区域CATALOG_OFFSET处
+    private final TreeMap<String, TreeRoot> namedTrees = new TreeMap<>();
+    private static final int MAX_INDEXES = 32;
+    // 索引树key中列值部分最多占用的字节数，其余空间留给主键
+    private static final int INDEX_VALUE_BYTES = 30;
+    // 转义后的列值之后的结束标记，完整列值和截断的列值使用不同的标记
+    private static final String INDEX_VALUE_END = "\u0000";
+    private static final String INDEX_VALUE_TRUNCATED = "\u0001\u0003";
+    // 目录布局：树的数量(4) + 每棵树 根节点页面ID(4) + 名字长度(4) + 名字(最多60字节)
+    private static final int CATALOG_OFFSET = 1024;
+    private static final int CATALOG_ENTRY_SIZE = 8 + LeafNode.MAX_INLINE_STRING_BYTES;
+    private static final int MAX_NAMED_TREES = 128;
+
+    // 主键的Bloom过滤器，正常关闭时保存到"文件名.bloom"，否则打开时遍历叶子重建
+    private BloomFilter keyFilter;
+    private static final long MIN_BLOOM_CAPACITY = 1024;
+
+    // 已解析行的缓存，容量为0时关闭
+    private static final long DEFAULT_ROW_CACHE_BYTES = 4L << 20;
+    private long rowCacheCapacity = DEFAULT_ROW_CACHE_BYTES;
+    private RowCache rowCache;
+
+    // 所有叶子节点的前驱指针都有效时才支持反向遍历，旧版本文件打开时补齐
+    private boolean prevLinksValid;
+    // 内部节点中的子树记录数都有效时，rank和select只需一次下降，否则沿叶子链表计数
+    private boolean subtreeCountsValid;
+    // 应用写批次期间元数据和value log不逐次落盘，批次结束时统一检查点
+    private boolean applyingBatch;
+    // 写批次的重做日志"文件名.batch"，落盘即为批次的提交点，检查点完成后删除
+    private static final String BATCH_LOG_SUFFIX = ".batch";
+    // 检查点写页面之前先把所有脏页和元数据的映像写入"文件名.batch.pages"，写页面时退出可以整体重做
+    private static final String BATCH_PAGES_SUFFIX = ".batch.pages";
+    private static final int BATCH_PAGES_MAGIC = 0x57425047;
+    // 每次打开或关闭文件时递增，游标据此判断所属的文件是否仍打开
+    private long fileGeneration;
+    // 每次释放叶子页面时递增，游标记住的叶子ID在此之后可能已回到空闲链表甚至被复用
+    private long freedLeafGeneration;
+
+    // 缓冲池页面上挂着解码后的节点，只有页面首次读入时才解码
+    private long nodeDecodeCount;
+
+    public BPlusTreeImpl() {
+        this(DEFAULT_BUFFER_POOL_SIZE);
+    }
+
+    public BPlusTreeImpl(int bufferPoolSize) {
+        this(bufferPoolSize, false);
+    }
+
+    public BPlusTreeImpl(int bufferPoolSize, boolean compressPages) {
+        this(bufferPoolSize, compressPages, false);
+    }
+
+    public BPlusTreeImpl(int bufferPoolSize, boolean compressPages, boolean separateValues) {
+        if (bufferPoolSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer pool size: " + bufferPoolSize);
+        }
+        this.bufferPoolSize = bufferPoolSize;
+        this.compressPages = compressPages;
+        this.separateValues = separateValues;
+        this.diskManager = new DiskManager();
+        this.rootPageId = -1;
+        this.nextPageId = 0;
+        this.freeListHead = -1;
+        this.splitCount = 0;
+        this.mergeCount = 0;
+        this.treeHeight = 0;
+        this.nodeCount = 0;
+        this.leafCount = 0;
+        this.usedSlots = 0;
+    }
+
+    /**
+     * 设置行缓存容量（估算字节数），0表示关闭，在create之前调用生效
+     */
+    public void setRowCacheCapacity(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Invalid row cache capacity: " + bytes);
+        }
+        this.rowCacheCapacity = bytes;
+    }
+
+    // 仅供测试使用，需要在create之前调用
+    void setValueLogSegmentSize(long segmentSize) {
+        this.valueLogSegmentSize = segmentSize;
+    }
+
+    @Override
+    public synchronized void create(String filename, int pageSize) {
+        if (!Page.isValidPageSize(pageSize)) {
+            throw new IllegalArgumentException(String.format(
+                    "页面大小必须是%d到%d之间的2的幂: %d", Page.MIN_PAGE_SIZE, Page.MAX_PAGE_SIZE, pageSize));
+        }
+
+        try {
+            this.currentFilename = filename;
+            fileGeneration++;
+            versionStore.clear();
+            rowCache = rowCacheCapacity > 0 ? new RowCache(rowCacheCapacity) : null;
+
+            diskManager = new DiskManager();
+            diskManager.openFile(filename, pageSize);
+
+            // 读取或创建元数据
+            byte[] metadata = diskManager.readMetadata();
+            ByteBuffer metaBuffer = ByteBuffer.wrap(metadata);
+
+            int magic = metaBuffer.getInt(0);
+            if (magic == CopyOnWriteBPlusTree.MAGIC || metaBuffer.getInt(8192) == CopyOnWriteBPlusTree.MAGIC) {
+                diskManager.closeFile();
+                throw new IllegalStateException("文件 " + filename + " 是写时复制格式，请使用CopyOnWriteBPlusTree打开");
+            }
+            compressed = magic == 0x12345678 ? metaBuffer.getInt(60) == 1 : compressPages;
+            valueLogEnabled = magic == 0x12345678 ? metaBuffer.getInt(64) == 1 : separateValues;
+            if (compressed) {
+                // 元数据区域格式相同，切换到压缩页面存储重新打开
+                diskManager.closeFile();
+                diskManager = new CompressedDiskManager();
+                diskManager.openFile(filename, pageSize);
+            }
+            if (magic == 0x12345678 && restoreBatchPages()) {
+                metadata = diskManager.readMetadata();
+                metaBuffer = ByteBuffer.wrap(metadata);
+            }
+
+            if (magic == 0x12345678) {
+                // 文件已存在，页面大小和扇出以文件中记录的为准
+                int storedPageSize = metaBuffer.getInt(32);
+                if (storedPageSize == 0) {
+                    // 旧版本文件没有记录页面大小，沿用调用方传入的值和旧的扇出上限
+                    this.pageSize = pageSize;
+                    this.maxLeafKeys = legacyMaxKeys(pageSize);
+                    this.maxInternalKeys = maxLeafKeys;
+                    this.freeListHead = -1;
+                } else {
+                    if (storedPageSize != pageSize) {
+                        System.err.println("警告：文件 " + filename + " 的页面大小为 " + storedPageSize
+                                + "，忽略传入的页面大小 " + pageSize);
+                    }
+                    this.pageSize = storedPageSize;
+                    this.maxLeafKeys = metaBuffer.getInt(36);
+                    this.maxInternalKeys = metaBuffer.getInt(40);
+                    this.freeListHead = metaBuffer.getInt(48);
+                }
+                bufferPool = new BufferPoolManager(bufferPoolSize, this.pageSize, diskManager);
+
+                rootPageId = metaBuffer.getInt(4);
+                nextPageId = metaBuffer.getInt(8);
+                splitCount = metaBuffer.getInt(12);
+                mergeCount = metaBuffer.getInt(16);
+                treeHeight = metaBuffer.getInt(20);
+                nodeCount = metaBuffer.getInt(24);
+                usedSlots = metaBuffer.getInt(28);
+                leafCount = metaBuffer.getInt(44);
+                valueLogGarbageBytes = metaBuffer.getLong(68);
+                indexes.clear();
+                int indexCount = metaBuffer.getInt(76);
+                for (int i = 0; i < indexCount; i++) {
+                    SecondaryIndex index = new SecondaryIndex(metaBuffer.getInt(80 + i * 8));
+                    index.rootPageId = metaBuffer.getInt(84 + i * 8);
+                    indexes.put(index.column, index);
+                }
+                namedTrees.clear();
+                int treeCount = metaBuffer.getInt(CATALOG_OFFSET);
+                for (int i = 0; i < treeCount; i++) {
+                    int entryOffset = CATALOG_OFFSET + 4 + i * CATALOG_ENTRY_SIZE;
+                    byte[] name = new byte[metaBuffer.getInt(entryOffset + 4)];
+                    metaBuffer.get(entryOffset + 8, name);
+                    TreeRoot tree = new TreeRoot();
+                    tree.rootPageId = metaBuffer.getInt(entryOffset);
+                    namedTrees.put(new String(name, StandardCharsets.UTF_8), tree);
+                }
+
+                // 只有正常关闭且元数据校验和正确时才跳过全树验证，页面校验和在首次读取时检查
+                boolean cleanShutdown = metaBuffer.getInt(52) == 1
+                        && metaBuffer.getInt(56) == metadataChecksum(metadata);
+                if (!cleanShutdown) {
+                    recoverAfterUncleanShutdown();
+                } else if (rootPageId >= 0 && leafCount == 0 && extraTrees().isEmpty()) {
+                    // 旧版本文件没有持久化结构统计，遍历一次重建
+                    rebuildTreeStats();
+                }
+
+                // 旧版本文件的叶子节点没有前驱指针，异常退出时前驱指针可能只写了一半，沿叶子链表补齐
+                prevLinksValid = metaBuffer.getInt(80 + MAX_INDEXES * 8) == 1;
+                if (!prevLinksValid || !cleanShutdown) {
+                    rebuildPrevLinks();
+                }
+                subtreeCountsValid = metaBuffer.getInt(84 + MAX_INDEXES * 8) == 1;
+                if (!subtreeCountsValid || !cleanShutdown) {
+                    rebuildSubtreeCounts();
+                }
+
+                // 清除正常关闭标记，进程异常退出后下次打开会进行全量验证
+                saveMetadata();
+
+                keyFilter = cleanShutdown ? loadKeyFilter() : null;
+                if (keyFilter == null) {
+                    rebuildKeyFilter();
+                }
+            } else {
+                // 新文件，初始化元数据
+                this.pageSize = pageSize;
+                this.maxLeafKeys = LeafNode.calculateMaxKeys(pageSize, valueLogEnabled);
+                this.maxInternalKeys = InternalNode.calculateMaxKeys(pageSize);
+                bufferPool = new BufferPoolManager(bufferPoolSize, pageSize, diskManager);
+                System.out.println("页面大小: " + pageSize + ", 叶子节点maxKeys: " + maxLeafKeys
+                        + ", 内部节点maxKeys: " + maxInternalKeys);
+
+                rootPageId = -1;
+                nextPageId = 0;
+                freeListHead = -1;
+                splitCount = 0;
+                mergeCount = 0;
+                treeHeight = 0;
+                nodeCount = 0;
+                leafCount = 0;
+                usedSlots = 0;
+                valueLogGarbageBytes = 0;
+                indexes.clear();
+                namedTrees.clear();
+                prevLinksValid = true;
+                subtreeCountsValid = true;
+                keyFilter = new BloomFilter(MIN_BLOOM_CAPACITY);
+                saveMetadata();
+                // 同名旧文件留下的批次日志不属于这个新文件
+                Files.deleteIfExists(Paths.get(filename + BATCH_LOG_SUFFIX));
+                Files.deleteIfExists(Paths.get(filename + BATCH_PAGES_SUFFIX));
+            }
+
+            if (valueLogEnabled) {
+                valueLog = new ValueLog(filename, valueLogSegmentSize);
+                valueLog.open();
+                startValueLogGc();
+            }
+
+            replayBatchLog();
+
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create/open B+ tree file: " + filename, e);
+        }
+    }
+
+    // 上次未正常关闭：内存中的计数器和空闲链表可能没有持久化，需要验证树结构并重建
+    private void recoverAfterUncleanShutdown() throws IOException {
+        System.err.println("警告：文件 " + currentFilename + " 上次未正常关闭，进行全量验证");
+
+        // 已写入文件的页面不能再分配出去；未持久化的空闲链表可能指向正在使用的页面，直接丢弃
+        nextPageId = Math.max(nextPageId, diskManager.getPageCount(pageSize));
+        freeListHead = -1;
+
+        if (rootPageId >= 0 || !extraTrees().isEmpty()) {
+            validateTreeStructure();
+            rebuildTreeStats();
+        }
+    }
+
+    /**
+     * 按需对整棵树做一次完整性验证
+     */
+    public synchronized void validate() {
+        validateTreeStructure();
+    }
+
+    @Override
+    public void close(String filename) {
+        // 先停止后台回收线程，它需要获取树的锁
+        stopValueLogGc();
+
+        synchronized (this) {
+            if (bufferPool != null) {
+                bufferPool.flushAllPages();
+                saveKeyFilter();
+                saveMetadata(true);
+            }
+            // 文件关闭后未释放的快照和游标不再可用
+            versionStore.clear();
+            fileGeneration++;
+            if (rowCache != null) {
+                rowCache.clear();
+            }
+            try {
+                diskManager.closeFile();
+                if (valueLog != null) {
+                    valueLog.close();
+                    valueLog = null;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close file: " + filename, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void insert(String key, String[] value, String rowId) {
+        checkKeyAndRowId(key, rowId);
+
+        if (rowCache != null) {
+            rowCache.invalidate(key);
+        }
+
+        // 覆盖已有key时需要旧行来移除旧的索引项
+        String[] oldRow = indexes.isEmpty() ? null : currentRow(key);
+
+        // 节点在写回前一直引用这个数组，复制一份避免调用方之后修改
+        value = value != null ? value.clone() : null;
+        PendingRow row = prepareRow(key, value, rowId, valueLogEnabled);
+
+        insertRow(null, row);
+        addToKeyFilter(key);
+
+        updatePostings(key, oldRow, value);
+    }
+
+    private void addToKeyFilter(String key) {
+        keyFilter.add(key);
+        if (keyFilter.isSaturated()) {
+            rebuildKeyFilter();
+        }
+    }
+
+    // 主树中一行从oldRow变为newRow（删除时为null）后更新各个二级索引
+    private void updatePostings(String key, String[] oldRow, String[] newRow) {
+        for (SecondaryIndex index : indexes.values()) {
+            String oldValue = columnValue(oldRow, index.column);
+            String newValue = columnValue(newRow, index.column);
+            if (oldValue != null && oldValue.equals(newValue)) continue;
+            if (oldValue != null) {
+                removePosting(index, oldValue, key);
+            }
+            if (newValue != null) {
+                addPosting(index, newValue, key);
+            }
+        }
+    }
+
+    static void checkKeyAndRowId(String key, String rowId) {
+        if (key == null || Page.utf8Length(key) > LeafNode.MAX_INLINE_STRING_BYTES) {
+            throw new IllegalArgumentException("key为空或超过" + LeafNode.MAX_INLINE_STRING_BYTES + "字节: " + key);
+        }
+        if (rowId != null && Page.utf8Length(rowId) > LeafNode.MAX_INLINE_STRING_BYTES) {
+            throw new IllegalArgumentException("rowId超过" + LeafNode.MAX_INLINE_STRING_BYTES + "字节: " + rowId);
+        }
+    }
+
+    // 按存储方式准备一行：键值分离时追加到value log，大行写入溢出页链
+    private PendingRow prepareRow(String key, String[] value, String rowId, boolean separateValues) {
+        PendingRow row = new PendingRow(key, value, rowId);
+        if (separateValues) {
+            // 键值分离模式下整行追加到value log
+            byte[] encoded = OverflowPage.encodeRow(value != null ? value : new String[0]);
+            try {
+                row.valueLogOffset = valueLog.append(key, encoded, !applyingBatch);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to append to value log", e);
+            }
+            row.valueLogLength = ValueLog.RECORD_HEADER_SIZE + Page.utf8Length(key) + encoded.length;
+        } else if (LeafNode.needsOverflow(value, pageSize)) {
+            // 大行先写入溢出页链，叶子节点中只保存指针
+            byte[] encoded = OverflowPage.encodeRow(value);
+            row.overflowPageId = writeOverflowChain(encoded);
+            row.overflowLength = encoded.length;
+        }
+        return row;
+    }
+
+    // 将一行写入主树（index为null）、二级索引树或命名树
+    private void insertRow(TreeRoot index, PendingRow row) {
+        int treeRootPageId = index == null ? rootPageId : index.rootPageId;
+        if (treeRootPageId == -1) {
+            // 创建根节点 - 初始时应该是叶子节点
+            int newRootPageId = allocateNewPage();
+            LeafNode root = new LeafNode(newRootPageId, maxLeafKeys);
+            row.insertInto(root);
+            if (index == null) {
+                rootPageId = newRootPageId;
+                treeHeight = 1;
+            } else {
+                index.rootPageId = newRootPageId;
+            }
+            nodeCount++;
+            leafCount++;
+            usedSlots++;
+
+            Page page = bufferPool.fetchPage(newRootPageId);
+            writeNode(page, root);
+            bufferPool.unpinPage(newRootPageId, true);
+            saveMetadata();
+            return;
+        }
+
+        // 使用访问过的页面集合来检测循环
+        Set<Integer> visitedPages = new HashSet<>();
+        insertHelper(treeRootPageId, null, row, 0, visitedPages, index);
+    }
+
+    // 待写入叶子节点的一行，大行和键值分离模式下只携带外部存储指针
+    private static final class PendingRow {
+        final String key;
+        final String[] value;
+        final String rowId;
+        int overflowPageId = -1;
+        int overflowLength;
+        long valueLogOffset = -1;
+        int valueLogLength;
+
+        PendingRow(String key, String[] value, String rowId) {
+            this.key = key;
+            this.value = value;
+            this.rowId = rowId;
+        }
+
+        boolean fitsIn(LeafNode leaf, int pageSize) {
+            if (valueLogOffset != -1) {
+                return leaf.canFitValueLogEntry(pageSize);
+            }
+            return leaf.canFit(value, overflowPageId != -1, pageSize);
+        }
+
+        // 新增key返回true，更新已有key返回false
+        boolean insertInto(LeafNode leaf) {
+            if (valueLogOffset != -1) {
+                return leaf.insertValueLogPointer(key, rowId, valueLogOffset, valueLogLength);
+            }
+            return leaf.insertKeyValue(key, value, rowId, overflowPageId, overflowLength);
+        }
+    }
+
+    // page为已pin的节点页面，由父节点下降时传入，为null时按nodePageId读取
+    private void insertHelper(int nodePageId, Page page, PendingRow row, int depth, Set<Integer> visitedPages,
+                              TreeRoot index) {
+        String key = row.key;
+        if (depth > MAX_RECURSION_DEPTH) {
+            throw new RuntimeException("最大递归深度超出：B+树结构可能存在循环，深度: " + depth);
+        }
+
+        if (nodePageId < 0) {
+            throw new IllegalStateException("无效的节点页面ID: " + nodePageId);
+        }
+
+        if (visitedPages.contains(nodePageId)) {
+            throw new RuntimeException("检测到循环引用：页面 " + nodePageId + " 已被访问过");
+        }
+
+        visitedPages.add(nodePageId);
+
+        try {
+            if (page == null) {
+                page = bufferPool.fetchPage(nodePageId);
+            }
+
+            // 判断节点类型
+            int nodeType = page.getNodeType();
+
+            if (nodeType == 1) { // 叶子节点
+                insertIntoLeaf(nodePageId, page, row, index);
+            } else if (nodeType == 0) { // 内部节点
+                InternalNode internal = internalNode(page);
+
+                // 调试输出
+                System.out.println("处理内部节点 " + nodePageId + ", keyCount: " + internal.getKeyCount());
+
+                Page childPage = fetchChild(internal, key);
+                bufferPool.unpinPage(page, false);
+
+                // 递归插入到子节点
+                insertHelper(childPage.getPageId(), childPage, row, depth + 1, visitedPages, index);
+            } else {
+                throw new IllegalStateException("未知的节点类型: " + nodeType + " 在页面: " + nodePageId);
+            }
+        } finally {
+            // 从访问集合中移除当前页面，允许其他路径访问
+            visitedPages.remove(nodePageId);
+        }
+    }
+
+    // 在已pin的叶子上插入一行，叶子放不下时分裂并向上插入；发生分裂时返回true，页面在返回前已unpin
+    private boolean insertIntoLeaf(int nodePageId, Page page, PendingRow row, TreeRoot index) {
+        String key = row.key;
+        LeafNode leaf = leafNode(page);
+
+        // 更新已有key时，旧行占用的溢出页需要释放，value log中的旧记录变为垃圾
+        int existing = leaf.indexOf(key);
+        int oldOverflowPageId = existing >= 0 ? leaf.getOverflowPageIds()[existing] : -1;
+        int oldValueLogLength = existing >= 0 && leaf.getValueLogOffsets()[existing] != -1
+                ? leaf.getValueLogLengths()[existing] : 0;
+
+        // 缓存的节点会被原地修改，修改前先为快照保存页面映像
+        preserveVersion(page);
+        if (existing < 0) {
+            adjustAncestorCounts(leaf, 1);
+        }
+
+        // 修正：无论是否满都先尝试插入
+        boolean split = !row.fitsIn(leaf, pageSize);
+        if (!split) {
+            // 节点未满，直接插入
+            if (row.insertInto(leaf)) {
+                usedSlots++;
+            }
+            writeNode(page, leaf);
+            bufferPool.unpinPage(nodePageId, true);
+            System.out.println("直接插入到未满的叶子节点");
+        } else {
+            // 节点已满，需要分裂
+            System.out.println("叶子节点已满，开始分裂过程...");
+
+            // 先分裂节点
+            LeafNode newLeaf = leaf.split();
+            int newLeafPageId = allocateNewPage();
+            newLeaf.setPageId(newLeafPageId);
+
+            // 更新叶子节点链表
+            newLeaf.setNextLeafPageId(leaf.getNextLeafPageId());
+            newLeaf.setPrevLeafPageId(nodePageId);
+            leaf.setNextLeafPageId(newLeafPageId);
+
+            // 决定将新key插入到哪个节点
+            String firstKeyOfNewLeaf = newLeaf.getKeys()[0];
+            boolean inserted;
+            if (key.compareTo(firstKeyOfNewLeaf) < 0) {
+                // 插入到原节点
+                inserted = row.insertInto(leaf);
+                System.out.println("新key插入到原叶子节点");
+            } else {
+                // 插入到新节点
+                inserted = row.insertInto(newLeaf);
+                System.out.println("新key插入到新叶子节点");
+            }
+            if (inserted) {
+                usedSlots++;
+            }
+
+            // 序列化两个节点
+            writeNode(page, leaf);
+            Page newPage = bufferPool.fetchPage(newLeafPageId);
+            writeNode(newPage, newLeaf);
+
+            bufferPool.unpinPage(nodePageId, true);
+            bufferPool.unpinPage(newLeafPageId, true);
+            if (newLeaf.getNextLeafPageId() != -1) {
+                setPrevLeafPageId(newLeaf.getNextLeafPageId(), newLeafPageId);
+            }
+
+            splitCount++;
+            nodeCount++;
+            leafCount++;
+
+            // 向父节点插入新的key（使用新叶子节点的第一个key）
+            String newKey = newLeaf.getKeys()[0];
+            System.out.println("向父节点插入key: " + newKey);
+            insertToParent(leaf, newKey, newLeaf, index);
+        }
+
+        if (oldOverflowPageId != -1) {
+            freeOverflowChain(oldOverflowPageId);
+        }
+        valueLogGarbageBytes += oldValueLogLength;
+        return split;
+    }
+
+    private void insertToParent(BPlusTreeNode leftNode, String key, BPlusTreeNode rightNode,
+                                TreeRoot index) {
+        if (leftNode.getParentPageId() == -1) {
+            // 创建新的根节点
+            int newRootPageId = allocateNewPage();
+            InternalNode newRoot = new InternalNode(newRootPageId, maxInternalKeys);
+
+            // 正确设置子节点指针 - 确保不会自引用
+            if (leftNode.getPageId() == newRootPageId || rightNode.getPageId() == newRootPageId) {
+                throw new IllegalStateException("新根节点ID与子节点ID冲突");
+            }
+
+            newRoot.insertKeyChild(key, leftNode.getPageId(), rightNode.getPageId());
+            newRoot.setChildCount(0, subtreeCount(leftNode));
+            newRoot.setChildCount(1, subtreeCount(rightNode));
+
+            // 更新父子关系
+            leftNode.setParentPageId(newRootPageId);
+            rightNode.setParentPageId(newRootPageId);
+
+            // 序列化新根节点
+            Page rootPage = bufferPool.fetchPage(newRootPageId);
+            writeNode(rootPage, newRoot);
+            bufferPool.unpinPage(newRootPageId, true);
+
+            // 更新子节点的父节点信息
+            updateNodeParent(leftNode);
+            updateNodeParent(rightNode);
+
+            if (index == null) {
+                rootPageId = newRootPageId;
+                treeHeight++;
+            } else {
+                index.rootPageId = newRootPageId;
+            }
+            nodeCount++;
+            usedSlots++;
+            saveMetadata();
+
+            System.out.println("创建新根节点: " + newRootPageId + ", 子节点: " + leftNode.getPageId() + ", " + rightNode.getPageId());
+        } else {
+            // 向现有父节点插入
+            Page parentPage = bufferPool.fetchPage(leftNode.getParentPageId());
+            InternalNode parent = internalNode(parentPage);
+            preserveVersion(parentPage);
+
+            if (!parent.isFull()) {
+                // 父节点未满，直接插入
+                parent.insertKeyChild(key, leftNode.getPageId(), rightNode.getPageId());
+                setSplitCounts(parent, leftNode, rightNode);
+                usedSlots++;
+                rightNode.setParentPageId(parent.getPageId());
+                writeNode(parentPage, parent);
+                bufferPool.unpinPage(parent.getPageId(), true);
+                updateNodeParent(rightNode);
+                System.out.println("向未满的父节点插入key: " + key);
+            } else {
+                // 父节点也已满，需要分裂
+                System.out.println("父节点已满，开始分裂父节点...");
+
+                // 先将新的key-child插入到父节点（临时超过容量）
+                parent.insertKeyChildForSplit(key, leftNode.getPageId(), rightNode.getPageId());
+                setSplitCounts(parent, leftNode, rightNode);
+                rightNode.setParentPageId(parent.getPageId());
+
+                // 分裂父节点
+                InternalNode newParent = parent.split();
+                int newParentPageId = allocateNewPage();
+                newParent.setPageId(newParentPageId);
+
+                // 获取提升到上层的中间key
+                String midKey = parent.getSplitMiddleKey();
+
+                // 更新分裂后的父子关系
+                updateChildrenParent(parent);
+                updateChildrenParent(newParent);
+
+                // 序列化两个内部节点
+                writeNode(parentPage, parent);
+                Page newParentPage = bufferPool.fetchPage(newParentPageId);
+                writeNode(newParentPage, newParent);
+
+                bufferPool.unpinPage(parent.getPageId(), true);
+                bufferPool.unpinPage(newParentPageId, true);
+
+                splitCount++;
+                nodeCount++;
+                // 新key进入父节点（+1），中间key被提升出去（-1），本层槽位数不变
+                System.out.println("父节点分裂完成，中间key: " + midKey);
+
+                // 递归向上插入中间key
+                insertToParent(parent, midKey, newParent, index);
+            }
+        }
+    }
+    @Override
+    public synchronized String[][] get(String key) {
+        // 行缓存命中时不访问任何页面，缓存返回的是副本
+        if (rowCache != null) {
+            String[][] cached = rowCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (rootPageId == -1 || !keyFilter.mightContain(key)) {
+            // 过滤器判定不存在的key不访问任何页面
+            return new String[0][];
+        }
+
+        Set<Integer> visitedPages = new HashSet<>();
+        String[][] result = searchHelper(rootPageId, null, key, 0, visitedPages);
+        if (rowCache != null && result.length > 0) {
+            rowCache.put(key, result);
+        }
+        return result;
+    }
+
+    private String[][] searchHelper(int nodePageId, Page page, String key, int depth, Set<Integer> visitedPages) {
+        if (depth > MAX_RECURSION_DEPTH) {
+            throw new RuntimeException("查询时最大递归深度超出：B+树结构可能存在循环，深度: " + depth);
+        }
+
+        if (nodePageId < 0) {
+            return new String[0][];
+        }
+
+        if (visitedPages.contains(nodePageId)) {
+            throw new RuntimeException("查询时检测到循环引用：页面 " + nodePageId + " 已被访问过");
+        }
+
+        visitedPages.add(nodePageId);
+
+        try {
+            if (page == null) {
+                page = bufferPool.fetchPage(nodePageId);
+            }
+            int nodeType = page.getNodeType();
+
+            if (nodeType == 1) { // 叶子节点
+                LeafNode leaf = leafNode(page);
+                bufferPool.unpinPage(page, false);
+
+                int pos = leaf.indexOf(key);
+                if (pos < 0) {
+                    return new String[0][];
+                }
+                return new String[][]{resolveRow(leaf, pos)};
+            } else if (nodeType == 0) { // 内部节点
+                InternalNode internal = internalNode(page);
+                Page childPage = fetchChild(internal, key);
+                bufferPool.unpinPage(page, false);
+
+                return searchHelper(childPage.getPageId(), childPage, key, depth + 1, visitedPages);
+            } else {
+                throw new IllegalStateException("未知的节点类型: " + nodeType + " 在页面: " + nodePageId);
+            }
+        } finally {
+            visitedPages.remove(nodePageId);
+        }
+    }
+
+    @Override
+    public synchronized void delete(String key) {
+        if (rootPageId == -1) return;
+        if (rowCache != null) {
+            rowCache.invalidate(key);
+        }
+        String[] oldRow = indexes.isEmpty() ? null : currentRow(key);
+        Set<Integer> visitedPages = new HashSet<>();
+        if (deleteHelper(rootPageId, null, key, 0, visitedPages)) {
+            updatePostings(key, oldRow, null);
+        }
+    }
+
+    private boolean deleteHelper(int nodePageId, Page page, String key, int depth, Set<Integer> visitedPages) {
+        if (depth > MAX_RECURSION_DEPTH) {
+            throw new RuntimeException("删除时最大递归深度超出：B+树结构可能存在循环，深度: " + depth);
+        }
+
+        if (nodePageId < 0) return false;
+
+        if (visitedPages.contains(nodePageId)) {
+            throw new RuntimeException("删除时检测到循环引用：页面 " + nodePageId + " 已被访问过");
+        }
+
+        visitedPages.add(nodePageId);
+
+        try {
+            if (page == null) {
+                page = bufferPool.fetchPage(nodePageId);
+            }
+            int nodeType = page.getNodeType();
+
+            if (nodeType == 1) { // 叶子节点
+                return deleteFromLeaf(nodePageId, page, key);
+            } else if (nodeType == 0) { // 内部节点
+                InternalNode internal = internalNode(page);
+                Page childPage = fetchChild(internal, key);
+                bufferPool.unpinPage(page, false);
+
+                return deleteHelper(childPage.getPageId(), childPage, key, depth + 1, visitedPages);
+            } else {
+                throw new IllegalStateException("未知的节点类型: " + nodeType + " 在页面: " + nodePageId);
+            }
+        } finally {
+            visitedPages.remove(nodePageId);
+        }
+    }
+
+    // 从已pin的叶子中删除key，页面在返回前已unpin
+    private boolean deleteFromLeaf(int nodePageId, Page page, String key) {
+        LeafNode leaf = leafNode(page);
+
+        int pos = leaf.indexOf(key);
+        int overflowPageId = pos >= 0 ? leaf.getOverflowPageIds()[pos] : -1;
+        int valueLogLength = pos >= 0 && leaf.getValueLogOffsets()[pos] != -1
+                ? leaf.getValueLogLengths()[pos] : 0;
+
+        if (pos >= 0) {
+            preserveVersion(page);
+            adjustAncestorCounts(leaf, -1);
+        }
+        boolean deleted = leaf.removeKey(key);
+        if (deleted) {
+            usedSlots--;
+            valueLogGarbageBytes += valueLogLength;
+            writeNode(page, leaf);
+            bufferPool.unpinPage(nodePageId, true);
+            if (overflowPageId != -1) {
+                freeOverflowChain(overflowPageId);
+            }
+            return true;
+        } else {
+            bufferPool.unpinPage(nodePageId, false);
+            return false;
+        }
+    }
+
+    /**
+     * 删除主树中key在[from, to)之间的所有记录，from或to为null时表示该侧不限，返回删除的记录数
+     * <p>
+     * 从根下降时，范围完全落在区间内的子树整体释放，不再逐个删除其中的key；只有两端部分重叠的叶子
+     * 按区间一次移除entry。每个内部节点在处理完子节点后一次性删除被释放子树的分隔key，
+     * 被释放的叶子在链表中是连续的一段，最后把两侧的叶子连起来。有二级索引时仍需读出每一行来移除索引项。
+     */
+    public synchronized long deleteRange(String from, String to) {
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        if (from != null && to != null && from.compareTo(to) >= 0) return 0;
+        if (rootPageId == -1) return 0;
+        if (rowCache != null) {
+            rowCache.clear();
+        }
+
+        RangeDeletion deletion = new RangeDeletion(from, to);
+        long deleted;
+        if (from == null && to == null) {
+            deleted = freeSubtree(rootPageId, deletion, 0);
+            rootPageId = -1;
+            treeHeight = 0;
+        } else {
+            deleted = deleteRangeIn(bufferPool.fetchPage(rootPageId), null, null, -1, deletion, 0);
+            linkAroundFreedLeaves(deletion);
+            collapseRoot();
+        }
+        saveMetadata();
+        return deleted;
+    }
+
+    // 一次范围删除的区间，以及被释放的那段连续叶子两侧的邻居
+    // 左侧邻居在下降路径上确定，不读被释放叶子的前驱指针，文件中前驱指针无效时同样适用
+    private static final class RangeDeletion {
+        final String from;
+        final String to;
+        int freedLeaves;
+        int prevLeafPageId = -1;
+        int nextLeafPageId = -1;
+
+        RangeDeletion(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        // 子树范围[lo, hi)完全落在区间内，lo或hi为null表示该侧不限
+        boolean covers(String lo, String hi) {
+            return (from == null || (lo != null && from.compareTo(lo) <= 0))
+                    && (to == null || (hi != null && hi.compareTo(to) <= 0));
+        }
+
+        boolean overlaps(String lo, String hi) {
+            return (to == null || lo == null || lo.compareTo(to) < 0)
+                    && (from == null || hi == null || from.compareTo(hi) < 0);
+        }
+    }
+
+    // 处理与区间部分重叠、已pin的节点，范围为[lo, hi)，leftPageId是紧挨在它左侧的子树（没有时为-1），
+    // 返回删除的记录数，页面在返回前已unpin
+    private long deleteRangeIn(Page page, String lo, String hi, int leftPageId, RangeDeletion deletion, int depth) {
+        if (depth > MAX_RECURSION_DEPTH) {
+            bufferPool.unpinPage(page, false);
+            throw new RuntimeException("范围删除时最大递归深度超出，深度: " + depth);
+        }
+
+        if (page.getNodeType() == 1) {
+            LeafNode leaf = leafNode(page);
+            if (deletion.freedLeaves == 0) {
+                // 部分重叠且在被释放叶子之前的叶子会保留下来，就是它们的左侧邻居
+                deletion.prevLeafPageId = page.getPageId();
+            }
+            int start = leaf.binarySearch(deletion.from);
+            int end = deletion.to == null ? leaf.getKeyCount() : leaf.binarySearch(deletion.to);
+            if (start >= end) {
+                bufferPool.unpinPage(page, false);
+                return 0;
+            }
+            preserveVersion(page);
+            List<Integer> overflowPageIds = releaseRows(leaf, start, end);
+            leaf.removeRange(start, end);
+            writeNode(page, leaf);
+            bufferPool.unpinPage(page, true);
+            for (int overflowPageId : overflowPageIds) {
+                freeOverflowChain(overflowPageId);
+            }
+            return end - start;
+        }
+
+        InternalNode internal = internalNode(page);
+        preserveVersion(page);
+        long deleted = 0;
+        int firstCovered = -1;
+        int lastCovered = -1;
+        for (int i = 0; i <= internal.getKeyCount(); i++) {
+            String childLo = i == 0 ? lo : internal.getKeys()[i - 1];
+            String childHi = i == internal.getKeyCount() ? hi : internal.getKeys()[i];
+            if (deletion.covers(childLo, childHi)) {
+                // 被整体覆盖的子节点是连续的一段，处理完所有子节点后一起移除
+                if (firstCovered == -1) {
+                    firstCovered = i;
+                }
+                lastCovered = i;
+                if (deletion.freedLeaves == 0 && deletion.prevLeafPageId == -1) {
+                    // 前面没有部分重叠的叶子，左侧邻居是左边相邻子树的最后一个叶子
+                    deletion.prevLeafPageId = findLastLeafPageId(i > 0 ? internal.getChildPageIds()[i - 1] : leftPageId);
+                }
+                deleted += freeSubtree(internal.getChildPageIds()[i], deletion, depth + 1);
+            } else if (deletion.overlaps(childLo, childHi)) {
+                int childLeftPageId = i > 0 ? internal.getChildPageIds()[i - 1] : leftPageId;
+                long childDeleted = deleteRangeIn(fetchChildAt(internal, i), childLo, childHi, childLeftPageId,
+                        deletion, depth + 1);
+                internal.setChildCount(i, (int) (internal.getChildCounts()[i] - childDeleted));
+                deleted += childDeleted;
+            }
+        }
+        if (firstCovered != -1) {
+            usedSlots -= internal.removeChildren(firstCovered, lastCovered);
+        }
+        writeNode(page, internal);
+        bufferPool.unpinPage(page, true);
+        return deleted;
+    }
+
+    // 释放整个子树的所有页面，返回其中的记录数
+    private long freeSubtree(int nodePageId, RangeDeletion deletion, int depth) {
+        if (depth > MAX_RECURSION_DEPTH) {
+            throw new RuntimeException("释放子树时最大递归深度超出，深度: " + depth);
+        }
+        if (nodePageId < 0) return 0;
+
+        Page page = bufferPool.fetchPage(nodePageId);
+        long deleted = 0;
+        if (page.getNodeType() == 1) {
+            LeafNode leaf = leafNode(page);
+            deletion.nextLeafPageId = leaf.getNextLeafPageId();
+            deletion.freedLeaves++;
+            deleted = leaf.getKeyCount();
+            List<Integer> overflowPageIds = releaseRows(leaf, 0, leaf.getKeyCount());
+            bufferPool.unpinPage(page, false);
+            for (int overflowPageId : overflowPageIds) {
+                freeOverflowChain(overflowPageId);
+            }
+            leafCount--;
+        } else {
+            InternalNode internal = internalNode(page);
+            int[] childPageIds = Arrays.copyOf(internal.getChildPageIds(), internal.getKeyCount() + 1);
+            usedSlots -= internal.getKeyCount();
+            bufferPool.unpinPage(page, false);
+            for (int childPageId : childPageIds) {
+                deleted += freeSubtree(childPageId, deletion, depth + 1);
+            }
+        }
+        nodeCount--;
+        freePage(nodePageId);
+        return deleted;
+    }
+
+    // 叶子中[start, end)的行即将删除：移除索引项，累计value log垃圾，返回需要释放的溢出页链
+    private List<Integer> releaseRows(LeafNode leaf, int start, int end) {
+        List<Integer> overflowPageIds = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            if (!indexes.isEmpty()) {
+                updatePostings(leaf.getKeys()[i], resolveRow(leaf, i), null);
+            }
+            if (leaf.getOverflowPageIds()[i] != -1) {
+                overflowPageIds.add(leaf.getOverflowPageIds()[i]);
+            }
+            if (leaf.getValueLogOffsets()[i] != -1) {
+                valueLogGarbageBytes += leaf.getValueLogLengths()[i];
+            }
+        }
+        usedSlots -= end - start;
+        return overflowPageIds;
+    }
+
+    // 被释放的叶子在链表中是连续的一段，把它两侧的叶子连起来
+    private void linkAroundFreedLeaves(RangeDeletion deletion) {
+        if (deletion.freedLeaves == 0) return;
+        if (deletion.prevLeafPageId != -1) {
+            Page page = bufferPool.fetchPage(deletion.prevLeafPageId);
+            LeafNode leaf = leafNode(page);
+            preserveVersion(page);
+            leaf.setNextLeafPageId(deletion.nextLeafPageId);
+            writeNode(page, leaf);
+            bufferPool.unpinPage(page, true);
+        }
+        if (deletion.nextLeafPageId != -1 && prevLinksValid) {
+            setPrevLeafPageId(deletion.nextLeafPageId, deletion.prevLeafPageId);
+        }
+    }
+
+    // 范围删除后根节点可能只剩一个子节点，逐层把唯一的子节点提升为根
+    private void collapseRoot() {
+        while (rootPageId != -1) {
+            Page page = bufferPool.fetchPage(rootPageId);
+            if (page.getNodeType() != 0 || internalNode(page).getKeyCount() > 0) {
+                bufferPool.unpinPage(page, false);
+                return;
+            }
+            int childPageId = internalNode(page).getChildPageIds()[0];
+            bufferPool.unpinPage(page, false);
+
+            Page childPage = bufferPool.fetchPage(childPageId);
+            BPlusTreeNode child = childPage.getNodeType() == 0 ? internalNode(childPage) : leafNode(childPage);
+            preserveVersion(childPage);
+            child.setParentPageId(-1);
+            writeNode(childPage, child);
+            bufferPool.unpinPage(childPage, true);
+
+            freePage(rootPageId);
+            rootPageId = childPageId;
+            treeHeight--;
+            nodeCount--;
+        }
+    }
+
+    /**
+     * 对key的当前行（不存在时为null）应用function，返回值写回该行，返回null时删除该行
+     * <p>
+     * 只下降一次：在key所在的叶子上读出当前行、计算并原地写回，叶子放不下时才分裂。
+     * 新增的行rowId为null，更新已有行时保留原来的rowId。
+     *
+     * @return 新的行，删除或行不存在时返回null
+     */
+    @Override
+    public synchronized String[] compute(String key, BiFunction<String, String[], String[]> function) {
+        checkKeyAndRowId(key, null);
+        return computeInLeaf(key, null, function);
+    }
+
+    /**
+     * key不存在时插入，已存在时不修改
+     *
+     * @return 已有的行，插入成功时返回null
+     */
+    @Override
+    public synchronized String[] putIfAbsent(String key, String[] value, String rowId) {
+        checkKeyAndRowId(key, rowId);
+        String[][] existing = new String[1][];
+        computeInLeaf(key, rowId, (k, old) -> {
+            existing[0] = old;
+            return old != null ? UNCHANGED_ROW : value;
+        });
+        return existing[0];
+    }
+
+    /**
+     * key不存在时插入value，已存在时写入remapping(旧行, value)的结果，结果为null时删除该行
+     *
+     * @return 新的行，删除时返回null
+     */
+    @Override
+    public synchronized String[] merge(String key, String[] value, String rowId,
+                                       BiFunction<String[], String[], String[]> remapping) {
+        checkKeyAndRowId(key, rowId);
+        return computeInLeaf(key, rowId, (k, old) -> old == null ? value : remapping.apply(old, value));
+    }
+
+    // computeInLeaf的function返回它时保持当前行不变，不修改叶子
+    private static final String[] UNCHANGED_ROW = new String[0];
+
+    // 读-改-写只下降一次，rowId用于新增的行
+    private String[] computeInLeaf(String key, String rowId, BiFunction<String, String[], String[]> function) {
+        if (rowCache != null) {
+            rowCache.invalidate(key);
+        }
+        if (rootPageId == -1) {
+            String[] value = function.apply(key, null);
+            if (value != null) {
+                value = value.clone();
+                insertRow(null, prepareRow(key, value, rowId, valueLogEnabled));
+                addToKeyFilter(key);
+                updatePostings(key, null, value);
+            }
+            return value;
+        }
+
+        Page page = fetchLeaf(key, null);
+        int leafPageId = page.getPageId();
+        LeafNode leaf = leafNode(page);
+        int pos = leaf.indexOf(key);
+        String[] oldRow;
+        String[] value;
+        try {
+            oldRow = pos >= 0 ? resolveRow(leaf, pos) : null;
+            value = function.apply(key, oldRow);
+        } catch (RuntimeException e) {
+            bufferPool.unpinPage(leafPageId, false);
+            throw e;
+        }
+
+        if (value == UNCHANGED_ROW) {
+            bufferPool.unpinPage(leafPageId, false);
+            return oldRow;
+        }
+        if (value == null) {
+            if (pos >= 0 && deleteFromLeaf(leafPageId, page, key)) {
+                updatePostings(key, oldRow, null);
+            } else {
+                bufferPool.unpinPage(leafPageId, false);
+            }
+            return null;
+        }
+
+        // 节点在写回前一直引用这个数组，复制一份避免function的调用方之后修改
+        value = value.clone();
+        if (pos >= 0) {
+            rowId = leaf.getRowIds()[pos];
+        }
+        PendingRow row;
+        try {
+            row = prepareRow(key, value, rowId, valueLogEnabled);
+        } catch (RuntimeException e) {
+            bufferPool.unpinPage(leafPageId, false);
+            throw e;
+        }
+        insertIntoLeaf(leafPageId, page, row, null);
+        addToKeyFilter(key);
+        updatePostings(key, oldRow, value);
+        return value;
+    }
+
+    /**
+     * 原子地应用一个写批次
+     * <p>
+     * 批次先编码写入重做日志并落盘，这是批次唯一的提交点：日志落盘前进程退出时批次没有生效，
+     * 之后退出时下次打开会重放整个批次。应用时按key排序，落在同一个叶子上的key共用一次下降，
+     * 元数据和value log不再逐次落盘，全部应用后一次写出所有脏页并保存元数据，然后删除日志。
+     * <p>
+     * 应用期间缓冲池不驱逐脏页，文件中始终是批次之前的页面，重放时在完整的旧树上重新应用；
+     * 检查点先把脏页映像写入单独的文件，写页面时退出则在打开时用映像整体重做。
+     * <p>
+     * 应用中途出错时丢弃缓冲池中的所有页面并恢复批次之前的计数器，删除日志，树回到批次开始前的状态。
+     * 上一个批次的日志仍在（检查点失败）时拒绝新的批次，需要重新打开文件完成恢复。
+     */
+    @Override
+    public synchronized void write(WriteBatch batch) {
+        if (batch.isEmpty()) return;
+        Path logPath = Paths.get(currentFilename + BATCH_LOG_SUFFIX);
+        if (Files.exists(logPath)) {
+            throw new IllegalStateException("上一个写批次未完成检查点，请重新打开文件: " + logPath);
+        }
+
+        // 先写出批次之前的脏页，出错时缓冲池中的页面可以全部丢弃，从文件重新读取
+        bufferPool.flushAllPages();
+        saveMetadata();
+        int savedRoot = rootPageId;
+        int savedNextPageId = nextPageId;
+        int savedFreeListHead = freeListHead;
+        int savedSplitCount = splitCount;
+        int savedMergeCount = mergeCount;
+        int savedTreeHeight = treeHeight;
+        int savedNodeCount = nodeCount;
+        int savedLeafCount = leafCount;
+        int savedUsedSlots = usedSlots;
+        long savedGarbageBytes = valueLogGarbageBytes;
+        // 过滤器饱和时会按应用了一半的树重建，恢复原来的对象；批次中加入的key只会增加误判
+        BloomFilter savedFilter = keyFilter;
+        Map<TreeRoot, Integer> savedRoots = new HashMap<>();
+        for (TreeRoot tree : extraTrees()) {
+            savedRoots.put(tree, tree.rootPageId);
+        }
+
+        try (FileChannel log = FileChannel.open(logPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(batch.encode());
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write batch log: " + logPath, e);
+        }
+
+        try {
+            applyBatch(batch);
+        } catch (RuntimeException e) {
+            discardBatchPages();
+            rootPageId = savedRoot;
+            nextPageId = savedNextPageId;
+            freeListHead = savedFreeListHead;
+            splitCount = savedSplitCount;
+            mergeCount = savedMergeCount;
+            treeHeight = savedTreeHeight;
+            nodeCount = savedNodeCount;
+            leafCount = savedLeafCount;
+            usedSlots = savedUsedSlots;
+            valueLogGarbageBytes = savedGarbageBytes;
+            keyFilter = savedFilter;
+            for (Map.Entry<TreeRoot, Integer> entry : savedRoots.entrySet()) {
+                entry.getKey().rootPageId = entry.getValue();
+            }
+            try {
+                Files.delete(logPath);
+            } catch (IOException deleteError) {
+                e.addSuppressed(deleteError);
+            }
+            throw e;
+        }
+        checkpointBatch(logPath);
+    }
+
+    // 打开文件时重放上次未完成检查点的批次，日志不完整说明批次没有提交，直接丢弃
+    private void replayBatchLog() throws IOException {
+        Path logPath = Paths.get(currentFilename + BATCH_LOG_SUFFIX);
+        if (!Files.exists(logPath)) return;
+
+        WriteBatch batch = WriteBatch.decode(Files.readAllBytes(logPath));
+        if (batch == null) {
+            System.err.println("警告：写批次日志 " + logPath + " 不完整，批次未提交，丢弃");
+            Files.delete(logPath);
+            return;
+        }
+        try {
+            applyBatch(batch);
+        } catch (RuntimeException e) {
+            // 保留日志，修复问题后再次打开时重放
+            discardBatchPages();
+            throw e;
+        }
+        checkpointBatch(logPath);
+    }
+
+    // 丢弃应用了一半的批次：no-steal期间这些页面都没有写入文件，全部丢弃后从文件重新读取批次之前的页面
+    private void discardBatchPages() {
+        bufferPool.discardAllPages();
+        bufferPool.setNoSteal(false);
+        // 游标记住的叶子可能是批次中新分配后又被丢弃的页面，让它们重新定位
+        freedLeafGeneration++;
+        if (rowCache != null) {
+            rowCache.clear();
+        }
+    }
+
+    private void checkpointBatch(Path logPath) {
+        Path pagesPath = Paths.get(currentFilename + BATCH_PAGES_SUFFIX);
+        try {
+            if (valueLog != null) {
+                valueLog.sync();
+            }
+            writeBatchPages(pagesPath, bufferPool.getDirtyPages(), encodeMetadata(false));
+            bufferPool.flushAllPages();
+            saveMetadata();
+            Files.deleteIfExists(logPath);
+            Files.deleteIfExists(pagesPath);
+        } catch (IOException e) {
+            // 日志仍在，保持no-steal，避免批次的页面在映像写完之前零散地写入文件
+            throw new RuntimeException("Failed to checkpoint batch: " + logPath, e);
+        }
+        bufferPool.setNoSteal(false);
+    }
+
+    // 页面映像文件：魔数(4) + 页面大小(4) + 页面数(4) + 每页 页面ID(4) + 内容 + 元数据 + 校验和(4)
+    private void writeBatchPages(Path pagesPath, List<Page> pages, byte[] metadata) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + pages.size() * (4 + pageSize) + metadata.length + 4);
+        buffer.putInt(BATCH_PAGES_MAGIC);
+        buffer.putInt(pageSize);
+        buffer.putInt(pages.size());
+        for (Page page : pages) {
+            buffer.putInt(page.getPageId());
+            buffer.put(page.getData().array(), 0, pageSize);
+        }
+        buffer.put(metadata);
+        buffer.putInt(DiskManager.checksum(buffer.array(), buffer.position()));
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(pagesPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    // 上次检查点写页面时退出：把映像中的页面和元数据重新写入文件，之后不再重放批次日志。
+    // 映像文件不完整说明检查点还没开始写页面，文件中仍是批次之前的页面，丢弃映像后照常重放日志
+    private boolean restoreBatchPages() throws IOException {
+        Path pagesPath = Paths.get(currentFilename + BATCH_PAGES_SUFFIX);
+        if (!Files.exists(pagesPath)) return false;
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(pagesPath));
+        int length = buffer.capacity();
+        boolean valid = length >= 16 && buffer.getInt(0) == BATCH_PAGES_MAGIC
+                && buffer.getInt(length - 4) == DiskManager.checksum(buffer.array(), length - 4);
+        if (!valid) {
+            System.err.println("警告：检查点页面映像 " + pagesPath + " 不完整，丢弃");
+            Files.delete(pagesPath);
+            return false;
+        }
+
+        buffer.position(4);
+        int imagePageSize = buffer.getInt();
+        int count = buffer.getInt();
+        List<Page> pages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int pageId = buffer.getInt();
+            byte[] data = new byte[imagePageSize];
+            buffer.get(data);
+            pages.add(new Page(pageId, data));
+        }
+        byte[] metadata = new byte[length - 4 - buffer.position()];
+        buffer.get(metadata);
+
+        System.err.println("警告：上次检查点未完成，用页面映像重做 " + count + " 个页面");
+        diskManager.writePages(pages, imagePageSize);
+        diskManager.writeMetadata(metadata);
+        Files.deleteIfExists(Paths.get(currentFilename + BATCH_LOG_SUFFIX));
+        Files.delete(pagesPath);
+        return true;
+    }
+
+    // 按key顺序应用批次，每个key只取最后一次操作；重放时再次应用同一批次结果不变
+    private void applyBatch(WriteBatch batch) {
+        applyingBatch = true;
+        bufferPool.setNoSteal(true);
+        try {
+            int leafPageId = -1;
+            // 当前叶子覆盖的key上界（不含），null表示直到最右
+            String[] upperBound = new String[1];
+            for (WriteBatch.Op op : batch.latestByKey().values()) {
+                String key = op.key;
+                if (rowCache != null) {
+                    rowCache.invalidate(key);
+                }
+                if (rootPageId == -1) {
+                    if (!op.delete) {
+                        insertRow(null, prepareRow(key, op.value, op.rowId, valueLogEnabled));
+                        addToKeyFilter(key);
+                        updatePostings(key, null, op.value);
+                    }
+                    continue;
+                }
+
+                PendingRow row = op.delete ? null : prepareRow(key, op.value, op.rowId, valueLogEnabled);
+                Page page;
+                if (leafPageId == -1 || (upperBound[0] != null && key.compareTo(upperBound[0]) >= 0)) {
+                    page = fetchLeaf(key, upperBound);
+                    leafPageId = page.getPageId();
+                } else {
+                    page = bufferPool.fetchPage(leafPageId);
+                }
+                LeafNode leaf = leafNode(page);
+                int pos = leaf.indexOf(key);
+                String[] oldRow = indexes.isEmpty() || pos < 0 ? null : resolveRow(leaf, pos);
+
+                if (op.delete) {
+                    if (deleteFromLeaf(leafPageId, page, key)) {
+                        updatePostings(key, oldRow, null);
+                    }
+                } else {
+                    if (insertIntoLeaf(leafPageId, page, row, null)) {
+                        // 叶子分裂后下一个key重新下降
+                        leafPageId = -1;
+                    }
+                    addToKeyFilter(key);
+                    updatePostings(key, oldRow, op.value);
+                }
+            }
+        } finally {
+            // no-steal在检查点完成或丢弃页面后才关闭
+            applyingBatch = false;
+        }
+    }
+
+    // 从主树的根下降到key所在的叶子，返回已pin的叶子页面；upperBound不为null时记录该叶子覆盖范围的上界
+    private Page fetchLeaf(String key, String[] upperBound) {
+        if (upperBound != null) {
+            upperBound[0] = null;
+        }
+        Page page = bufferPool.fetchPage(rootPageId);
+        for (int depth = 0; ; depth++) {
+            if (depth > MAX_RECURSION_DEPTH) {
+                bufferPool.unpinPage(page, false);
+                throw new RuntimeException("查找叶子节点时最大递归深度超出，深度: " + depth);
+            }
+            if (page.getNodeType() == 1) {
+                return page;
+            }
+            InternalNode internal = internalNode(page);
+            int childIndex = internal.findChildIndex(key);
+            if (upperBound != null && childIndex < internal.getKeyCount()) {
+                upperBound[0] = internal.getKeys()[childIndex];
+            }
+            Page childPage = fetchChild(internal, key);
+            bufferPool.unpinPage(page, false);
+            page = childPage;
+        }
+    }
+
+    @Override
+    public synchronized Statistics getStat() {
+        // 只读取增量维护的计数器，不访问任何页面，避免干扰缓冲池
+        long totalSlots = (long) leafCount * maxLeafKeys + (long) (nodeCount - leafCount) * maxInternalKeys;
+        double fillRate = totalSlots > 0 ? (double) usedSlots / totalSlots : 0.0;
+
+        return new Statistics(fillRate, treeHeight, nodeCount, splitCount, mergeCount,
+                bufferPool.getPageAccessCount(), usedSlots, totalSlots,
+                bufferPool.getHitCount(), bufferPool.getMissCount(),
+                bufferPool.getEvictionCount(), bufferPool.getDirtyFlushCount(),
+                rowCache != null ? rowCache.getHitCount() : 0,
+                rowCache != null ? rowCache.getMissCount() : 0);
+    }
+
+    /**
+     * 在value的第column列上建立二级索引，已有数据会被回填
+     */
+    public synchronized void createIndex(int column) {
+        if (column < 0) {
+            throw new IllegalArgumentException("无效的列下标: " + column);
+        }
+        if (indexes.containsKey(column)) return;
+        if (indexes.size() >= MAX_INDEXES) {
+            throw new IllegalStateException("二级索引数量超过上限: " + MAX_INDEXES);
+        }
+
+        SecondaryIndex index = new SecondaryIndex(column);
+        indexes.put(column, index);
+
+        // 沿叶子链表遍历主树回填
+        int leafPageId = findLeafPageId(rootPageId, null);
+        Set<Integer> visitedPages = new HashSet<>();
+        while (leafPageId != -1) {
+            if (!visitedPages.add(leafPageId)) {
+                throw new RuntimeException("回填索引时检测到叶子链表循环：页面 " + leafPageId);
+            }
+            Page page = bufferPool.fetchPage(leafPageId);
+            LeafNode leaf = leafNode(page);
+            bufferPool.unpinPage(leafPageId, false);
+
+            for (int i = 0; i < leaf.getKeyCount(); i++) {
+                String value = columnValue(resolveRow(leaf, i), column);
+                if (value != null) {
+                    addPosting(index, value, leaf.getKeys()[i]);
+                }
+            }
+            leafPageId = leaf.getNextLeafPageId();
+        }
+        saveMetadata();
+    }
+
+    /**
+     * 删除二级索引并释放索引树占用的页面
+     */
+    public synchronized void dropIndex(int column) {
+        SecondaryIndex index = indexes.remove(column);
+        if (index == null) return;
+        if (index.rootPageId != -1) {
+            int[] stats = calculateTreeStats(index.rootPageId, 0, new HashSet<>());
+            nodeCount -= stats[1];
+            usedSlots -= stats[3];
+            leafCount -= stats[4];
+            freeSubtree(index.rootPageId, 0);
+        }
+        saveMetadata();
+    }
+
+    /**
+     * 通过二级索引查询第column列等于value的所有主键，按主键顺序返回
+     * <p>
+     * 该列值的所有entry在索引树中是连续的一段，一次下降后沿叶子链表读取
+     */
+    public synchronized String[] getKeysByIndex(int column, String value) {
+        SecondaryIndex index = requireIndex(column);
+        List<String> keys = postingKeys(index, value);
+        if (!postingPrefix(value).endsWith(INDEX_VALUE_TRUNCATED)) {
+            return keys.toArray(new String[0]);
+        }
+
+        // 超长的列值只按前缀建索引，需要回表过滤
+        List<String> matched = new ArrayList<>();
+        for (String key : keys) {
+            if (value.equals(columnValue(currentRow(key), column))) {
+                matched.add(key);
+            }
+        }
+        return matched.toArray(new String[0]);
+    }
+
+    /**
+     * 通过二级索引查询第column列等于value的所有行，按主键顺序返回
+     */
+    public synchronized String[][] getByIndex(int column, String value) {
+        SecondaryIndex index = requireIndex(column);
+        List<String[]> rows = new ArrayList<>();
+        for (String key : postingKeys(index, value)) {
+            String[] row = currentRow(key);
+            if (row != null && value.equals(columnValue(row, column))) {
+                rows.add(row);
+            }
+        }
+        return rows.toArray(new String[0][]);
+    }
+
+    private SecondaryIndex requireIndex(int column) {
+        SecondaryIndex index = indexes.get(column);
+        if (index == null) {
+            throw new IllegalArgumentException("第" + column + "列没有二级索引");
+        }
+        return index;
+    }
+
+    /**
+     * 打开文件中名为name的树，不存在时创建并登记到目录中
+     * <p>
+     * 命名树与主树共用文件、缓冲池和页面分配，节点按访问进出同一个缓冲池，
+     * 内存自然集中到访问多的树上。
+     */
+    public synchronized NamedTree openTree(String name) {
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        if (name == null || name.isEmpty() || Page.utf8Length(name) > LeafNode.MAX_INLINE_STRING_BYTES) {
+            throw new IllegalArgumentException("树名为空或超过" + LeafNode.MAX_INLINE_STRING_BYTES + "字节: " + name);
+        }
+        TreeRoot tree = namedTrees.get(name);
+        if (tree == null) {
+            if (namedTrees.size() >= MAX_NAMED_TREES) {
+                throw new IllegalStateException("命名树数量超过上限: " + MAX_NAMED_TREES);
+            }
+            tree = new TreeRoot();
+            namedTrees.put(name, tree);
+            saveMetadata();
+        }
+        return new NamedTree(name, tree);
+    }
+
+    /**
+     * 删除命名树并释放它占用的页面，已打开的句柄随之失效
+     */
+    public synchronized void dropTree(String name) {
+        TreeRoot tree = namedTrees.remove(name);
+        if (tree == null) return;
+        if (tree.rootPageId != -1) {
+            int[] stats = calculateTreeStats(tree.rootPageId, 0, new HashSet<>());
+            nodeCount -= stats[1];
+            usedSlots -= stats[3];
+            leafCount -= stats[4];
+            freeSubtree(tree.rootPageId, 0);
+        }
+        saveMetadata();
+    }
+
+    // 目录中所有命名树的名字，按名字排序
+    public synchronized List<String> listTrees() {
+        return new ArrayList<>(namedTrees.keySet());
+    }
+
+    /**
+     * 文件中一棵命名树的句柄，操作在所属BPlusTreeImpl的锁内执行
+     * <p>
+     * 命名树的行不经过行缓存和Bloom过滤器；value log的垃圾回收只按主树的key搬移记录，
+     * 因此命名树的大行总是写入溢出页，不放入value log
+     */
+    public final class NamedTree {
+        private final String name;
+        private final TreeRoot tree;
+        private final long generation = fileGeneration;
+
+        private NamedTree(String name, TreeRoot tree) {
+            this.name = name;
+            this.tree = tree;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void insert(String key, String[] value, String rowId) {
+            checkKeyAndRowId(key, rowId);
+            synchronized (BPlusTreeImpl.this) {
+                checkOpen();
+                // 节点在写回前一直引用这个数组，复制一份避免调用方之后修改
+                insertRow(tree, prepareRow(key, value != null ? value.clone() : null, rowId, false));
+            }
+        }
+
+        public String[][] get(String key) {
+            synchronized (BPlusTreeImpl.this) {
+                checkOpen();
+                if (tree.rootPageId == -1) {
+                    return new String[0][];
+                }
+                return searchHelper(tree.rootPageId, null, key, 0, new HashSet<>());
+            }
+        }
+
+        public boolean delete(String key) {
+            synchronized (BPlusTreeImpl.this) {
+                checkOpen();
+                if (tree.rootPageId == -1) return false;
+                return deleteHelper(tree.rootPageId, null, key, 0, new HashSet<>());
+            }
+        }
+
+        // key在[from, to)之间的记录数，from或to为null时表示该侧不限
+        public long count(String from, String to) {
+            synchronized (BPlusTreeImpl.this) {
+                checkOpen();
+                if (from != null && to != null && from.compareTo(to) >= 0) return 0;
+                return rankOf(tree.rootPageId, to) - (from == null ? 0 : rankOf(tree.rootPageId, from));
+            }
+        }
+
+        private void checkOpen() {
+            if (bufferPool == null || generation != fileGeneration) {
+                throw new IllegalStateException("命名树所属的B+树文件已关闭: " + name);
+            }
+            if (namedTrees.get(name) != tree) {
+                throw new IllegalStateException("命名树已删除: " + name);
+            }
+        }
+    }
+
+    // 主树以外的树的根节点，根节点分裂或新建时由插入路径更新
+    private static class TreeRoot {
+        int rootPageId = -1;
+    }
+
+    // 二级索引树：每个(列值, 主键)一个entry，key的格式见postingKey，行数据为映射到该key的完整主键
+    private static final class SecondaryIndex extends TreeRoot {
+        final int column;
+
+        SecondaryIndex(int column) {
+            this.column = column;
+        }
+    }
+
+    // 主树以外的所有树：二级索引树和目录中的命名树
+    private List<TreeRoot> extraTrees() {
+        List<TreeRoot> trees = new ArrayList<>(indexes.values());
+        trees.addAll(namedTrees.values());
+        return trees;
+    }
+
+    private static String columnValue(String[] row, int column) {
+        return row != null && column < row.length ? row[column] : null;
+    }
+
+    // 同一列值所有entry的公共前缀：\0和\1转义为\1\1和\1\2，完整的列值以\0结尾，
+    // 超过INDEX_VALUE_BYTES字节时截断并以\1\3结尾，因此一个列值的前缀不会是另一个列值前缀的前缀
+    private static String postingPrefix(String value) {
+        StringBuilder prefix = new StringBuilder();
+        int bytes = 0;
+        for (int i = 0; i < value.length(); ) {
+            int c = value.codePointAt(i);
+            String escaped = c <= 1 ? "\u0001" + (char) (c + 1) : new String(Character.toChars(c));
+            bytes += Page.utf8Length(escaped);
+            if (bytes > INDEX_VALUE_BYTES) {
+                return prefix.append(INDEX_VALUE_TRUNCATED).toString();
+            }
+            prefix.append(escaped);
+            i += Character.charCount(c);
+        }
+        return prefix.append(INDEX_VALUE_END).toString();
+    }
+
+    // 索引树中(value, key)的entry的key：列值前缀加主键，主键放不下时截断并附加主键的哈希，
+    // 此时多个主键可能映射到同一个entry，因此entry的行数据保存完整的主键列表
+    private static String postingKey(String value, String key) {
+        String prefix = postingPrefix(value);
+        int room = LeafNode.MAX_INLINE_STRING_BYTES - Page.utf8Length(prefix);
+        if (Page.utf8Length(key) <= room) {
+            return prefix + key;
+        }
+        return prefix + truncateUtf8(key, room - 8) + String.format("%08x", key.hashCode());
+    }
+
+    // 不超过maxBytes字节的最长前缀，不拆开代理对
+    private static String truncateUtf8(String str, int maxBytes) {
+        int end = 0;
+        int bytes = 0;
+        while (end < str.length()) {
+            int c = str.codePointAt(end);
+            bytes += Page.utf8Length(new String(Character.toChars(c)));
+            if (bytes > maxBytes) break;
+            end += Character.charCount(c);
+        }
+        return str.substring(0, end);
+    }
+
+    private String[] currentRow(String key) {
+        if (rootPageId == -1) return null;
+        String[][] result = searchHelper(rootPageId, null, key, 0, new HashSet<>());
+        return result.length > 0 ? result[0] : null;
+    }
+
+    // 从列值前缀处下降一次，沿叶子链表读出该列值所有entry中的主键，按主键排序返回
+    private List<String> postingKeys(SecondaryIndex index, String value) {
+        String prefix = postingPrefix(value);
+        List<String> keys = new ArrayList<>();
+        int leafPageId = findLeafPageId(index.rootPageId, prefix);
+        Set<Integer> visitedPages = new HashSet<>();
+        while (leafPageId != -1) {
+            if (!visitedPages.add(leafPageId)) {
+                throw new RuntimeException("读取二级索引时检测到叶子链表循环：页面 " + leafPageId);
+            }
+            Page page = bufferPool.fetchPage(leafPageId);
+            LeafNode leaf = leafNode(page);
+            int i = leaf.binarySearch(prefix);
+            while (i < leaf.getKeyCount() && leaf.getKeys()[i].startsWith(prefix)) {
+                keys.addAll(Arrays.asList(resolveRow(leaf, i)));
+                i++;
+            }
+            // 叶子中出现不匹配的key后，后面的叶子都不会再匹配
+            leafPageId = i < leaf.getKeyCount() ? -1 : leaf.getNextLeafPageId();
+            bufferPool.unpinPage(page, false);
+        }
+        // 截断的主键带有哈希后缀，entry的顺序不一定是主键顺序
+        keys.sort(null);
+        return keys;
+    }
+
+    // 索引树中一个entry保存的主键，不存在时为空数组
+    private String[] postingEntry(SecondaryIndex index, String entryKey) {
+        if (index.rootPageId == -1) return new String[0];
+        String[][] result = searchHelper(index.rootPageId, null, entryKey, 0, new HashSet<>());
+        return result.length > 0 && result[0] != null ? result[0] : new String[0];
+    }
+
+    private void addPosting(SecondaryIndex index, String value, String key) {
+        String entryKey = postingKey(value, key);
+        String[] keys = postingEntry(index, entryKey);
+        int pos = Arrays.binarySearch(keys, key);
+        if (pos >= 0) return;
+
+        pos = -pos - 1;
+        String[] updated = new String[keys.length + 1];
+        System.arraycopy(keys, 0, updated, 0, pos);
+        updated[pos] = key;
+        System.arraycopy(keys, pos, updated, pos + 1, keys.length - pos);
+        writePosting(index, entryKey, updated);
+    }
+
+    private void removePosting(SecondaryIndex index, String value, String key) {
+        String entryKey = postingKey(value, key);
+        String[] keys = postingEntry(index, entryKey);
+        int pos = Arrays.binarySearch(keys, key);
+        if (pos < 0) return;
+
+        if (keys.length == 1) {
+            deleteHelper(index.rootPageId, null, entryKey, 0, new HashSet<>());
+            return;
+        }
+        String[] updated = new String[keys.length - 1];
+        System.arraycopy(keys, 0, updated, 0, pos);
+        System.arraycopy(keys, pos + 1, updated, pos, keys.length - pos - 1);
+        writePosting(index, entryKey, updated);
+    }
+
+    // 主键列表不写入value log，较长时和大行一样存入溢出页链
+    private void writePosting(SecondaryIndex index, String entryKey, String[] keys) {
+        PendingRow row = new PendingRow(entryKey, keys, null);
+        if (LeafNode.needsOverflow(keys, pageSize)) {
+            byte[] encoded = OverflowPage.encodeRow(keys);
+            row.overflowPageId = writeOverflowChain(encoded);
+            row.overflowLength = encoded.length;
+        }
+        insertRow(index, row);
+    }
+
+    // 释放整棵子树的页面，包括叶子引用的溢出页链
+    private void freeSubtree(int nodePageId, int depth) {
+        if (depth > MAX_RECURSION_DEPTH) {
+            throw new RuntimeException("释放子树时最大递归深度超出，深度: " + depth);
+        }
+        Page page = bufferPool.fetchPage(nodePageId);
+        int nodeType = page.getNodeType();
+        if (nodeType == 1) {
+            LeafNode leaf = leafNode(page);
+            bufferPool.unpinPage(nodePageId, false);
+            for (int i = 0; i < leaf.getKeyCount(); i++) {
+                if (leaf.getOverflowPageIds()[i] != -1) {
+                    freeOverflowChain(leaf.getOverflowPageIds()[i]);
+                }
+            }
+        } else if (nodeType == 0) {
+            InternalNode internal = internalNode(page);
+            bufferPool.unpinPage(nodePageId, false);
+            for (int i = 0; i <= internal.getKeyCount(); i++) {
+                freeSubtree(internal.getChildPageIds()[i], depth + 1);
+            }
+        } else {
+            bufferPool.unpinPage(nodePageId, false);
+        }
+        freePage(nodePageId);
+    }
+
+    private BloomFilter loadKeyFilter() {
+        try {
+            Path path = Paths.get(currentFilename + ".bloom");
+            return Files.exists(path) ? BloomFilter.fromBytes(Files.readAllBytes(path)) : null;
+        } catch (IOException e) {
+            System.err.println("警告：读取Bloom过滤器失败，将重建: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void saveKeyFilter() {
+        try {
+            Files.write(Paths.get(currentFilename + ".bloom"), keyFilter.toBytes());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save bloom filter", e);
+        }
+    }
+
+    // 沿叶子链表重写主树和索引树所有叶子的前驱指针，旧版本文件中有叶子没有空间保存前驱指针时不支持反向遍历
+    private void rebuildPrevLinks() {
+        List<Integer> treeRoots = new ArrayList<>();
+        treeRoots.add(rootPageId);
+        for (TreeRoot tree : extraTrees()) {
+            treeRoots.add(tree.rootPageId);
+        }
+
+        // 先确认所有叶子都有空间，再写入
+        for (int pass = 0; pass < 2; pass++) {
+            for (int treeRootPageId : treeRoots) {
+                int prevLeafPageId = -1;
+                int leafPageId = findLeafPageId(treeRootPageId, null);
+                Set<Integer> visitedPages = new HashSet<>();
+                while (leafPageId != -1) {
+                    if (!visitedPages.add(leafPageId)) {
+                        throw new RuntimeException("重建前驱指针时检测到叶子链表循环：页面 " + leafPageId);
+                    }
+                    Page page = bufferPool.fetchPage(leafPageId);
+                    LeafNode leaf = leafNode(page);
+                    if (pass == 0 && !leaf.hasRoomForPrevLink(pageSize)) {
+                        bufferPool.unpinPage(page, false);
+                        System.err.println("警告：叶子节点 " + leafPageId + " 没有空间保存前驱指针，不支持反向遍历");
+                        prevLinksValid = false;
+                        return;
+                    }
+                    boolean changed = pass == 1 && leaf.getPrevLeafPageId() != prevLeafPageId;
+                    if (changed) {
+                        leaf.setPrevLeafPageId(prevLeafPageId);
+                        writeNode(page, leaf);
+                    }
+                    bufferPool.unpinPage(page, changed);
+                    prevLeafPageId = leafPageId;
+                    leafPageId = leaf.getNextLeafPageId();
+                }
+            }
+        }
+        prevLinksValid = true;
+    }
+
+    // 沿叶子链表重新添加所有主键，容量按当前槽位数的两倍估算，同时清除已删除key留下的位
+    private void rebuildKeyFilter() {
+        BloomFilter filter = new BloomFilter(Math.max(MIN_BLOOM_CAPACITY, 2L * usedSlots));
+        int leafPageId = findLeafPageId(rootPageId, null);
+        Set<Integer> visitedPages = new HashSet<>();
+        while (leafPageId != -1) {
+            if (!visitedPages.add(leafPageId)) {
+                throw new RuntimeException("重建Bloom过滤器时检测到叶子链表循环：页面 " + leafPageId);
+            }
+            Page page = bufferPool.fetchPage(leafPageId);
+            LeafNode leaf = leafNode(page);
+            bufferPool.unpinPage(leafPageId, false);
+            for (int i = 0; i < leaf.getKeyCount(); i++) {
+                filter.add(leaf.getKeys()[i]);
+            }
+            leafPageId = leaf.getNextLeafPageId();
+        }
+        keyFilter = filter;
+    }
+
+    // 读取叶子节点中一行的完整数据，外部存储的行按指针读取
+    private String[] resolveRow(LeafNode leaf, int pos) {
+        if (leaf.getValueLogOffsets()[pos] != -1) {
+            return readValueLogRow(leaf.getValueLogOffsets()[pos], leaf.getValueLogLengths()[pos]);
+        }
+        if (leaf.getOverflowPageIds()[pos] != -1) {
+            return readOverflowRow(leaf.getOverflowPageIds()[pos], leaf.getOverflowLengths()[pos]);
+        }
+        // 节点缓存在缓冲池中，返回副本避免调用方修改到缓存的节点
+        String[] value = leaf.getValues()[pos];
+        return value != null ? value.clone() : null;
+    }
+
+    @Override
+    public synchronized Snapshot snapshot() {
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        return new TreeSnapshot(versionStore.open(), rootPageId);
+    }
+
+    // 仅供测试使用：版本库中保留的旧页面数
+    synchronized int getRetainedVersionCount() {
+        return versionStore.getRetainedPageCount();
+    }
+
+    // 仅供测试使用：通过直接引用访问子页面的次数
+    synchronized long getSwizzledAccessCount() {
+        return bufferPool.getSwizzledHitCount();
+    }
+
+    // 仅供测试使用：从页面字节解码节点的次数
+    synchronized long getNodeDecodeCount() {
+        return nodeDecodeCount;
+    }
+
+    // 页面上的节点即将被修改，为仍打开的快照保存修改前的映像，必须在修改缓存的节点之前调用
+    private void preserveVersion(Page page) {
+        if (!versionStore.hasOpenSnapshots()) return;
+        page.serializeNode();
+        versionStore.preserve(page);
+    }
+
+    // 取得缓冲池页面上缓存的叶子节点，首次访问时解码并挂到页面上
+    private LeafNode leafNode(Page page) {
+        if (page.getNode() instanceof LeafNode) {
+            return (LeafNode) page.getNode();
+        }
+        LeafNode leaf = new LeafNode(page.getPageId(), maxLeafKeys);
+        leaf.deserialize(page);
+        nodeDecodeCount++;
+        page.setNode(leaf, false);
+        return leaf;
+    }
+
+    private InternalNode internalNode(Page page) {
+        if (page.getNode() instanceof InternalNode) {
+            return (InternalNode) page.getNode();
+        }
+        InternalNode internal = new InternalNode(page.getPageId(), maxInternalKeys);
+        internal.deserialize(page);
+        nodeDecodeCount++;
+        page.setNode(internal, false);
+        return internal;
+    }
+
+    // 节点已修改：挂到页面上并标记为脏，写回磁盘时才序列化
+    private void writeNode(Page page, BPlusTreeNode node) {
+        page.setNode(node, true);
+    }
+
+    // 读取快照看到的页面：优先使用版本库中的旧映像，否则复制当前页面
+    private Page readSnapshotPage(int pageId, long epoch) {
+        byte[] image = versionStore.find(pageId, epoch);
+        if (image == null) {
+            Page page = bufferPool.fetchPage(pageId);
+            page.serializeNode();
+            image = page.getData().array().clone();
+            bufferPool.unpinPage(pageId, false);
+        }
+        return new Page(pageId, image);
+    }
+
+    /**
+     * 按key降序遍历，从不大于startKey的最大key开始，startKey为null时从最大的key开始
+     * <p>
+     * 一次下降找到起始叶子，之后沿前驱指针向前读取
+     */
+    public synchronized Cursor reverseCursor(String startKey) {
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        if (!prevLinksValid) {
+            throw new IllegalStateException("文件中有旧版本叶子节点没有保存前驱指针，不支持反向遍历");
+        }
+        int leafPageId = startKey == null ? findLastLeafPageId(rootPageId) : findLeafPageId(rootPageId, startKey);
+        return new ReverseCursor(leafPageId, startKey);
+    }
+
+    /**
+     * 按key升序遍历以prefix开头的所有key
+     * <p>
+     * 一次下降定位到第一个不小于prefix的key，内部节点的分隔key会跳过不可能包含该前缀的子树；
+     * 之后沿叶子链表读取，遇到第一个不以prefix开头的key即停止
+     */
+    public synchronized Cursor scanPrefix(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("前缀不能为空");
+        }
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        return new PrefixCursor(findLeafPageId(rootPageId, prefix), prefix);
+    }
+
+    /**
+     * 将主树的全部记录按key升序写入out，格式见ExportFormat，不包含页面布局和空闲空间
+     * <p>
+     * 在快照上沿叶子链表读取，导出期间不阻塞写入，导出的是开始时刻的一致视图。out由调用方关闭
+     *
+     * @return 导出的记录数
+     */
+    public long exportTo(OutputStream out) {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, STREAM_BUFFER_SIZE));
+        long[] count = new long[1];
+        try (Snapshot snapshot = snapshot()) {
+            ExportFormat.writeHeader(data);
+            snapshot.forEach((key, value, rowId) -> {
+                try {
+                    ExportFormat.writeRecord(data, key, value, rowId);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+            ExportFormat.writeTrailer(data, count[0]);
+            data.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to export", e);
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException("Failed to export", e.getCause());
+        }
+        return count[0];
+    }
+
+    /**
+     * 从exportTo写出的流重建主树，只能导入到没有记录的树中
+     * <p>
+     * 流中的记录已按key排好序，叶子和内部节点自下而上依次填满后写出，不经过逐条插入时的查找和分裂，
+     * 页面按顺序分配。除每层最右侧的节点外，节点的填充率接近100%。
+     * 导入失败时已分配的页面全部释放，树保持为空。in由调用方关闭
+     *
+     * @return 导入的记录数
+     */
+    public synchronized long importFrom(InputStream in) {
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        long existing = rankOf(rootPageId, null);
+        if (existing != 0) {
+            throw new IllegalStateException("只能导入到空树，当前有 " + existing + " 条记录");
+        }
+        if (rootPageId != -1) {
+            // 记录全部删除后留下的空节点，先释放
+            if (versionStore.hasOpenSnapshots()) {
+                throw new IllegalStateException("有未关闭的快照时不能导入");
+            }
+            int[] stats = calculateTreeStats(rootPageId, 0, new HashSet<>());
+            nodeCount -= stats[1];
+            usedSlots -= stats[3];
+            leafCount -= stats[4];
+            freeSubtree(rootPageId, 0);
+            rootPageId = -1;
+            treeHeight = 0;
+        }
+
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+        BulkLoader loader = new BulkLoader();
+        try {
+            ExportFormat.readHeader(data);
+            String lastKey = null;
+            ExportFormat.Record record;
+            while ((record = ExportFormat.readRecord(data)) != null) {
+                if (Page.utf8Length(record.key) > LeafNode.MAX_INLINE_STRING_BYTES
+                        || (record.rowId != null && Page.utf8Length(record.rowId) > LeafNode.MAX_INLINE_STRING_BYTES)) {
+                    throw new IllegalArgumentException("key或rowId超过" + LeafNode.MAX_INLINE_STRING_BYTES + "字节: " + record.key);
+                }
+                if (lastKey != null && record.key.compareTo(lastKey) <= 0) {
+                    throw new IllegalArgumentException("导出流中的key不是严格升序: " + lastKey + " 之后是 " + record.key);
+                }
+                loader.add(prepareRow(record.key, record.value, record.rowId, valueLogEnabled));
+                lastKey = record.key;
+            }
+            long expected = ExportFormat.readTrailer(data);
+            if (expected != loader.records) {
+                throw new IllegalArgumentException("导出流记录数不符: 应为 " + expected + "，实际读到 " + loader.records);
+            }
+            loader.finish();
+        } catch (IOException | RuntimeException e) {
+            loader.abort();
+            saveMetadata();
+            if (e instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e;
+            }
+            throw new RuntimeException("Failed to import", e);
+        }
+
+        if (rowCache != null) {
+            rowCache.clear();
+        }
+        rebuildKeyFilter();
+        if (!indexes.isEmpty()) {
+            addImportedPostings();
+        }
+        saveMetadata();
+        return loader.records;
+    }
+
+    // 导入的记录按叶子顺序加入各个二级索引
+    private void addImportedPostings() {
+        Set<Integer> visitedPages = new HashSet<>();
+        int leafPageId = findLeafPageId(rootPageId, null);
+        while (leafPageId != -1 && visitedPages.add(leafPageId)) {
+            Page page = bufferPool.fetchPage(leafPageId);
+            LeafNode leaf = leafNode(page);
+            int count = leaf.getKeyCount();
+            String[] keys = Arrays.copyOf(leaf.getKeys(), count);
+            String[][] rows = new String[count][];
+            for (int i = 0; i < count; i++) {
+                rows[i] = resolveRow(leaf, i);
+            }
+            leafPageId = leaf.getNextLeafPageId();
+            bufferPool.unpinPage(page, false);
+
+            for (int i = 0; i < count; i++) {
+                for (SecondaryIndex index : indexes.values()) {
+                    String value = columnValue(rows[i], index.column);
+                    if (value != null) {
+                        addPosting(index, value, keys[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 自下而上构建主树：叶子按key顺序填满后写出，每层只在内存中保留最右侧尚未写满的内部节点
+     * <p>
+     * 节点在写满、下一个子节点到来时写出，此时上一层的父节点已确定，写出时即带有正确的父指针
+     */
+    private final class BulkLoader {
+        private final List<InternalNode> open = new ArrayList<>();
+        // open中每个节点子树的最小key，即它在父节点中的分隔key
+        private final List<String> openFirstKeys = new ArrayList<>();
+        // 每层最近写出的节点，最右侧节点的子节点过少时与它平均分配
+        private final List<InternalNode> finished = new ArrayList<>();
+        private final List<Integer> allocatedPages = new ArrayList<>();
+        private final List<Integer> writtenLeaves = new ArrayList<>();
+        private LeafNode leaf;
+        private int internalNodes;
+        long records;
+
+        void add(PendingRow row) {
+            if (leaf == null) {
+                leaf = new LeafNode(allocate(), maxLeafKeys);
+            } else if (!row.fitsIn(leaf, pageSize)) {
+                LeafNode next = new LeafNode(allocate(), maxLeafKeys);
+                leaf.setNextLeafPageId(next.getPageId());
+                next.setPrevLeafPageId(leaf.getPageId());
+                finishLeaf();
+                leaf = next;
+            }
+            row.insertInto(leaf);
+            records++;
+        }
+
+        void finish() {
+            if (leaf == null) return;
+            if (open.isEmpty()) {
+                // 只有一个叶子，它就是根
+                write(leaf);
+                writtenLeaves.add(leaf.getPageId());
+            } else {
+                finishLeaf();
+            }
+            int root = leaf.getPageId();
+            int height = 1;
+            for (int level = 0; level < open.size(); level++) {
+                balanceLast(level);
+                InternalNode node = open.get(level);
+                if (level == open.size() - 1 && finished.get(level) == null) {
+                    write(node);
+                    root = node.getPageId();
+                    height = level + 2;
+                    break;
+                }
+                finishInternal(level);
+            }
+
+            int nodes = allocatedPages.size();
+            rootPageId = root;
+            treeHeight = height;
+            nodeCount += nodes;
+            leafCount += nodes - internalNodes;
+            // 除根以外每个节点在父节点中占一个子节点位置，内部节点的key数比子节点数少一
+            usedSlots += records + (nodes - 1) - internalNodes;
+        }
+
+        // 失败时释放已分配的页面和叶子引用的溢出页链
+        void abort() {
+            try {
+                for (int pageId : writtenLeaves) {
+                    Page page = bufferPool.fetchPage(pageId);
+                    LeafNode written = leafNode(page);
+                    bufferPool.unpinPage(page, false);
+                    releaseRowStorage(written);
+                }
+                if (leaf != null && !writtenLeaves.contains(leaf.getPageId())) {
+                    releaseRowStorage(leaf);
+                }
+                for (int pageId : allocatedPages) {
+                    freePage(pageId);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("警告：导入失败后释放页面时出错: " + e.getMessage());
+            }
+        }
+
+        private void releaseRowStorage(LeafNode node) {
+            for (int i = 0; i < node.getKeyCount(); i++) {
+                if (node.getOverflowPageIds()[i] != -1) {
+                    freeOverflowChain(node.getOverflowPageIds()[i]);
+                }
+                if (node.getValueLogOffsets()[i] != -1) {
+                    valueLogGarbageBytes += node.getValueLogLengths()[i];
+                }
+            }
+        }
+
+        private int allocate() {
+            int pageId = allocateNewPage();
+            allocatedPages.add(pageId);
+            return pageId;
+        }
+
+        private void finishLeaf() {
+            leaf.setParentPageId(addChild(0, leaf.getKeys()[0], leaf.getPageId(), leaf.getKeyCount()));
+            write(leaf);
+            writtenLeaves.add(leaf.getPageId());
+        }
+
+        // 在第level层内部节点的最右侧加入子节点，返回接收它的节点页面ID
+        private int addChild(int level, String firstKey, int childPageId, int count) {
+            if (level == open.size()) {
+                open.add(null);
+                openFirstKeys.add(null);
+                finished.add(null);
+            }
+            InternalNode node = open.get(level);
+            if (node != null && node.isFull()) {
+                finishInternal(level);
+                node = null;
+            }
+            if (node == null) {
+                node = new InternalNode(allocate(), maxInternalKeys);
+                internalNodes++;
+                open.set(level, node);
+                openFirstKeys.set(level, firstKey);
+            }
+            node.appendChild(firstKey, childPageId, count);
+            return node.getPageId();
+        }
+
+        private void finishInternal(int level) {
+            InternalNode node = open.get(level);
+            node.setParentPageId(addChild(level + 1, openFirstKeys.get(level), node.getPageId(),
+                    (int) node.getSubtreeCount()));
+            write(node);
+            finished.set(level, node);
+            open.set(level, null);
+        }
+
+        // 最右侧节点的key少于一半时，与左侧兄弟节点平均分配子节点，避免出现只有一个子节点的内部节点
+        private void balanceLast(int level) {
+            InternalNode left = finished.get(level);
+            InternalNode right = open.get(level);
+            if (left == null || right.getKeyCount() >= maxInternalKeys / 2) return;
+
+            int total = left.getKeyCount() + right.getKeyCount() + 2;
+            int[] children = new int[total];
+            int[] counts = new int[total];
+            // firstKeys[i]为第i个子树的最小key，作为追加时的分隔key
+            String[] firstKeys = new String[total];
+            int n = 0;
+            for (InternalNode node : new InternalNode[]{left, right}) {
+                for (int i = 0; i <= node.getKeyCount(); i++, n++) {
+                    children[n] = node.getChildPageIds()[i];
+                    counts[n] = node.getChildCounts()[i];
+                    firstKeys[n] = i > 0 ? node.getKeys()[i - 1] : node == right ? openFirstKeys.get(level) : null;
+                }
+            }
+
+            int leftChildren = total - total / 2;
+            InternalNode newLeft = new InternalNode(left.getPageId(), maxInternalKeys);
+            InternalNode newRight = new InternalNode(right.getPageId(), maxInternalKeys);
+            newLeft.setParentPageId(left.getParentPageId());
+            for (int i = 0; i < total; i++) {
+                (i < leftChildren ? newLeft : newRight).appendChild(firstKeys[i], children[i], counts[i]);
+            }
+            write(newLeft);
+            finished.set(level, newLeft);
+            open.set(level, newRight);
+            openFirstKeys.set(level, firstKeys[leftChildren]);
+
+            // 左侧节点是上一层最右侧节点的最后一个子节点
+            InternalNode parent = open.get(level + 1);
+            parent.setChildCount(parent.indexOfChild(newLeft.getPageId()), (int) newLeft.getSubtreeCount());
+            updateChildrenParent(newRight);
+        }
+
+        private void write(BPlusTreeNode node) {
+            Page page = bufferPool.fetchPage(node.getPageId());
+            writeNode(page, node);
+            bufferPool.unpinPage(page, true);
+        }
+    }
+
+    /**
+     * 在线备份：将当前时刻的一致映像写入targetFilename，备份期间插入和查询照常进行
+     * <p>
+     * 开始时在锁内打开一个快照，同时记录元数据和Bloom过滤器；此后被修改、释放或复用的页面
+     * 由快照保留修改前的映像（写时复制），复制的始终是开始时刻的页面。每次只在锁内读取一小批页面，
+     * 不在缓冲池中的页面直接从磁盘读取，不挤占缓冲池；写入备份文件在锁外进行。
+     * 键值分离模式下同时复制各日志段在开始时刻的内容，备份期间不进行垃圾回收。
+     * 备份文件标记为正常关闭，可以直接用create打开
+     */
+    public void backup(String targetFilename) {
+        TreeSnapshot snapshot;
+        byte[] metadata;
+        byte[] filter;
+        int pageCount;
+        TreeMap<Integer, Long> segmentSizes = null;
+        DiskManager target;
+        synchronized (this) {
+            if (bufferPool == null) {
+                throw new IllegalStateException("B+树文件未打开");
+            }
+            if (Paths.get(targetFilename).toAbsolutePath().normalize()
+                    .equals(Paths.get(currentFilename).toAbsolutePath().normalize())) {
+                throw new IllegalArgumentException("备份文件不能是当前文件: " + targetFilename);
+            }
+            try {
+                if (valueLog != null) {
+                    segmentSizes = valueLog.getSegmentSizes();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to back up to " + targetFilename, e);
+            }
+            snapshot = new TreeSnapshot(versionStore.open(), rootPageId);
+            metadata = encodeMetadata(true);
+            filter = keyFilter.toBytes();
+            pageCount = nextPageId;
+            target = compressed ? new CompressedDiskManager() : new DiskManager();
+            runningBackups++;
+        }
+
+        try {
+            deleteWithSidecars(targetFilename);
+            target.openFile(targetFilename, pageSize);
+            List<Page> batch = new ArrayList<>(BACKUP_BATCH_PAGES);
+            for (int start = 0; start < pageCount; start += BACKUP_BATCH_PAGES) {
+                batch.clear();
+                synchronized (this) {
+                    snapshot.checkOpen();
+                    for (int pageId = start; pageId < Math.min(pageCount, start + BACKUP_BATCH_PAGES); pageId++) {
+                        batch.add(readBackupPage(pageId, snapshot.epoch));
+                    }
+                }
+                target.writePages(batch, pageSize);
+            }
+            target.writeMetadata(metadata);
+            target.closeFile();
+            Files.write(Paths.get(targetFilename + ".bloom"), filter);
+
+            if (segmentSizes != null) {
+                for (Map.Entry<Integer, Long> segment : segmentSizes.entrySet()) {
+                    valueLog.copySegment(segment.getKey(), segment.getValue(), targetFilename);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to back up to " + targetFilename, e);
+        } finally {
+            synchronized (this) {
+                runningBackups--;
+            }
+            snapshot.close();
+        }
+    }
+
+    // 备份读取页面：优先取快照保留的映像，其次是缓冲池中的页面，都没有时直接读磁盘
+    private Page readBackupPage(int pageId, long epoch) throws IOException {
+        byte[] image = versionStore.find(pageId, epoch);
+        if (image != null) {
+            return new Page(pageId, image.clone());
+        }
+        Page resident = bufferPool.peekPage(pageId);
+        if (resident != null) {
+            resident.serializeNode();
+            return new Page(pageId, resident.getData().array().clone());
+        }
+        return diskManager.readPage(pageId, pageSize);
+    }
+
+    // 删除备份目标上已有的数据文件和附属文件
+    private static void deleteWithSidecars(String filename) throws IOException {
+        Files.deleteIfExists(Paths.get(filename));
+        Files.deleteIfExists(Paths.get(filename + ".pmap"));
+        Files.deleteIfExists(Paths.get(filename + ".bloom"));
+        Files.deleteIfExists(Paths.get(filename + BATCH_LOG_SUFFIX));
+        Files.deleteIfExists(Paths.get(filename + BATCH_PAGES_SUFFIX));
+        Path base = Paths.get(filename + ".vlog.").toAbsolutePath();
+        String prefix = base.getFileName().toString();
+        File[] segments = base.getParent().toFile().listFiles((dir, name) -> name.startsWith(prefix));
+        if (segments != null) {
+            for (File segment : segments) {
+                Files.deleteIfExists(segment.toPath());
+            }
+        }
+    }
+
+    /**
+     * 主树中key在[from, to)之间的记录数，from或to为null时表示该侧不限
+     * <p>
+     * 内部节点保存了每个子树的记录数，两次从根到叶子的下降即可得到结果，不需要扫描叶子
+     */
+    public synchronized long count(String from, String to) {
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        if (from != null && to != null && from.compareTo(to) >= 0) return 0;
+        return rankOf(rootPageId, to) - (from == null ? 0 : rankOf(rootPageId, from));
+    }
+
+    /**
+     * 主树中小于key的记录数，即key按升序排列时的位置（从0开始）
+     */
+    public synchronized long rank(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key不能为空");
+        }
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        return rankOf(rootPageId, key);
+    }
+
+    /**
+     * 按key升序的第n条记录的key（从0开始），超出范围时返回null
+     */
+    public synchronized String select(long n) {
+        if (bufferPool == null) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+        if (n < 0 || rootPageId < 0) return null;
+        if (!subtreeCountsValid) return scanSelect(n);
+
+        Page page = bufferPool.fetchPage(rootPageId);
+        for (int depth = 0; ; depth++) {
+            if (depth > MAX_RECURSION_DEPTH) {
+                bufferPool.unpinPage(page, false);
+                throw new RuntimeException("按位置查找时最大递归深度超出，深度: " + depth);
+            }
+            if (page.getNodeType() == 1) {
+                LeafNode leaf = leafNode(page);
+                String key = n < leaf.getKeyCount() ? leaf.getKeys()[(int) n] : null;
+                bufferPool.unpinPage(page, false);
+                return key;
+            }
+            InternalNode internal = internalNode(page);
+            int childIndex = 0;
+            while (childIndex <= internal.getKeyCount() && n >= internal.getChildCounts()[childIndex]) {
+                n -= internal.getChildCounts()[childIndex];
+                childIndex++;
+            }
+            if (childIndex > internal.getKeyCount()) {
+                bufferPool.unpinPage(page, false);
+                return null;
+            }
+            Page childPage = fetchChildAt(internal, childIndex);
+            bufferPool.unpinPage(page, false);
+            page = childPage;
+        }
+    }
+
+    // 树中小于key的记录数，key为null时返回记录总数
+    private long rankOf(int treeRootPageId, String key) {
+        if (treeRootPageId < 0) return 0;
+        if (!subtreeCountsValid) return scanRank(treeRootPageId, key);
+
+        long rank = 0;
+        Page page = bufferPool.fetchPage(treeRootPageId);
+        for (int depth = 0; ; depth++) {
+            if (depth > MAX_RECURSION_DEPTH) {
+                bufferPool.unpinPage(page, false);
+                throw new RuntimeException("计算排名时最大递归深度超出，深度: " + depth);
+            }
+            if (page.getNodeType() == 1) {
+                LeafNode leaf = leafNode(page);
+                rank += key == null ? leaf.getKeyCount() : leaf.binarySearch(key);
+                bufferPool.unpinPage(page, false);
+                return rank;
+            }
+            InternalNode internal = internalNode(page);
+            if (key == null) {
+                rank += internal.getSubtreeCount();
+                bufferPool.unpinPage(page, false);
+                return rank;
+            }
+            int childIndex = internal.findChildIndex(key);
+            for (int i = 0; i < childIndex; i++) {
+                rank += internal.getChildCounts()[i];
+            }
+            Page childPage = fetchChildAt(internal, childIndex);
+            bufferPool.unpinPage(page, false);
+            page = childPage;
+        }
+    }
+
+    // 子树记录数不可用时（旧版本文件的内部节点没有空间保存），沿叶子链表计数
+    private long scanRank(int treeRootPageId, String key) {
+        long rank = 0;
+        Set<Integer> visitedPages = new HashSet<>();
+        int leafPageId = findLeafPageId(treeRootPageId, null);
+        while (leafPageId != -1 && visitedPages.add(leafPageId)) {
+            Page page = bufferPool.fetchPage(leafPageId);
+            LeafNode leaf = leafNode(page);
+            int pos = key == null ? leaf.getKeyCount() : leaf.binarySearch(key);
+            leafPageId = leaf.getNextLeafPageId();
+            bufferPool.unpinPage(page, false);
+            rank += pos;
+            if (pos < leaf.getKeyCount()) break;
+        }
+        return rank;
+    }
+
+    private String scanSelect(long n) {
+        Set<Integer> visitedPages = new HashSet<>();
+        int leafPageId = findLeafPageId(rootPageId, null);
+        while (leafPageId != -1 && visitedPages.add(leafPageId)) {
+            Page page = bufferPool.fetchPage(leafPageId);
+            LeafNode leaf = leafNode(page);
+            String key = n < leaf.getKeyCount() ? leaf.getKeys()[(int) n] : null;
+            n -= leaf.getKeyCount();
+            leafPageId = leaf.getNextLeafPageId();
+            bufferPool.unpinPage(page, false);
+            if (key != null) return key;
+        }
+        return null;
+    }
+
+    // 每次在锁内读取一个叶子节点中符合条件的记录，缓冲区读完后再读取相邻叶子
+    private abstract class LeafCursor implements Cursor {
+        private final long generation = fileGeneration;
+        private long leafGeneration = freedLeafGeneration;
+        protected int leafPageId = -1;
+        // 下一个要读取的叶子，-1表示已经没有更多记录
+        protected int nextPageId = -1;
+        // 已读取的key都在bound的同一侧，读到第一条记录之前允许等于bound
+        protected String bound;
+        protected boolean boundConsumed;
+        protected String[] keys = new String[0];
+        protected String[][] rows = new String[0][];
+        protected String[] rowIds = new String[0];
+        protected int remaining;
+        protected int current = -1;
+
+        @Override
+        public boolean next() {
+            synchronized (BPlusTreeImpl.this) {
+                if (generation != fileGeneration) {
+                    throw new IllegalStateException("游标所属的B+树文件已关闭");
+                }
+                while (remaining == 0) {
+                    if (nextPageId == -1) {
+                        current = -1;
+                        return false;
+                    }
+                    if (leafGeneration != freedLeafGeneration) {
+                        // 上次读取之后有叶子被释放（如范围删除），记住的页面ID不再可靠，按bound重新下降
+                        leafGeneration = freedLeafGeneration;
+                        relocate();
+                    } else {
+                        loadNext();
+                    }
+                }
+                current = advance();
+                remaining--;
+                return true;
+            }
+        }
+
+        // 读取缓冲区中的下一条记录，返回其下标
+        protected abstract int advance();
+
+        protected abstract void loadNext();
+
+        // 从根重新找到bound所在的叶子并读取，树已为空时结束遍历
+        protected abstract void relocate();
+
+        @Override
+        public String key() {
+            return keys[checkCurrent()];
+        }
+
+        @Override
+        public String[] value() {
+            return rows[checkCurrent()];
+        }
+
+        @Override
+        public String rowId() {
+            return rowIds[checkCurrent()];
+        }
+
+        private int checkCurrent() {
+            if (current < 0) {
+                throw new IllegalStateException("游标没有指向任何记录");
+            }
+            return current;
+        }
+
+        // 将叶子节点中[from, to)的记录读入缓冲区
+        protected void fill(LeafNode leaf, int from, int to) {
+            keys = Arrays.copyOfRange(leaf.getKeys(), from, to);
+            rowIds = Arrays.copyOfRange(leaf.getRowIds(), from, to);
+            rows = new String[to - from][];
+            for (int i = from; i < to; i++) {
+                rows[i - from] = resolveRow(leaf, i);
+            }
+            leafPageId = leaf.getPageId();
+            remaining = to - from;
+        }
+    }
+
+    private final class ReverseCursor extends LeafCursor {
+        ReverseCursor(int leafPageId, String startKey) {
+            this.bound = startKey;
+            if (leafPageId != -1) {
+                load(leafPageId);
+            }
+        }
+
+        @Override
+        protected int advance() {
+            return remaining - 1;
+        }
+
+        // 读取叶子节点中小于bound的记录，读到第一条记录之前包括等于bound的记录
+        private void load(int pageId) {
+            Page page = bufferPool.fetchPage(pageId);
+            LeafNode leaf = leafNode(page);
+            int end = leaf.getKeyCount();
+            if (bound != null) {
+                end = leaf.binarySearch(bound);
+                if (!boundConsumed && end < leaf.getKeyCount() && bound.equals(leaf.getKeys()[end])) {
+                    end++;
+                }
+            }
+            fill(leaf, 0, end);
+            nextPageId = leaf.getPrevLeafPageId();
+            bufferPool.unpinPage(page, false);
+            if (end > 0) {
+                bound = keys[0];
+                boundConsumed = true;
+            }
+        }
+
+        @Override
+        protected void loadNext() {
+            // 读取当前叶子之后，前驱叶子可能已经分裂，沿next链找到紧挨着当前叶子的那一个
+            int pageId = nextPageId;
+            Set<Integer> visitedPages = new HashSet<>();
+            while (true) {
+                if (!visitedPages.add(pageId)) {
+                    throw new RuntimeException("反向遍历时检测到叶子链表循环：页面 " + pageId);
+                }
+                Page page = bufferPool.fetchPage(pageId);
+                int next = leafNode(page).getNextLeafPageId();
+                bufferPool.unpinPage(page, false);
+                if (next == leafPageId || next == -1) break;
+                pageId = next;
+            }
+            load(pageId);
+        }
+
+        @Override
+        protected void relocate() {
+            int pageId = bound == null ? findLastLeafPageId(rootPageId) : findLeafPageId(rootPageId, bound);
+            if (pageId == -1) {
+                nextPageId = -1;
+            } else {
+                load(pageId);
+            }
+        }
+    }
+
+    private final class PrefixCursor extends LeafCursor {
+        private final String prefix;
+
+        PrefixCursor(int leafPageId, String prefix) {
+            this.prefix = prefix;
+            this.bound = prefix;
+            if (leafPageId != -1) {
+                load(leafPageId);
+            }
+        }
+
+        @Override
+        protected int advance() {
+            return keys.length - remaining;
+        }
+
+        // 读取叶子节点中大于bound且以prefix开头的记录，读到第一条记录之前包括等于bound的记录
+        private void load(int pageId) {
+            Page page = bufferPool.fetchPage(pageId);
+            LeafNode leaf = leafNode(page);
+            int count = leaf.getKeyCount();
+            int start = leaf.binarySearch(bound);
+            if (boundConsumed && start < count && bound.equals(leaf.getKeys()[start])) {
+                start++;
+            }
+            int end = start;
+            while (end < count && leaf.getKeys()[end].startsWith(prefix)) {
+                end++;
+            }
+            fill(leaf, start, end);
+            // 叶子中出现不匹配的key后，后面的叶子都不会再匹配
+            nextPageId = end < count ? -1 : leaf.getNextLeafPageId();
+            bufferPool.unpinPage(page, false);
+            if (end > start) {
+                bound = keys[keys.length - 1];
+                boundConsumed = true;
+            }
+        }
+
+        @Override
+        protected void loadNext() {
+            load(nextPageId);
+        }
+
+        @Override
+        protected void relocate() {
+            int pageId = findLeafPageId(rootPageId, bound);
+            if (pageId == -1) {
+                nextPageId = -1;
+            } else {
+                load(pageId);
+            }
+        }
+    }
+
+    private final class TreeSnapshot implements Snapshot {
+        private final long epoch;
+        private final int snapshotRootPageId;
+        private boolean closed;
+
+        TreeSnapshot(long epoch, int rootPageId) {
+            this.epoch = epoch;
+            this.snapshotRootPageId = rootPageId;
+        }
+
+        @Override
+        public String[][] get(String key) {
+            synchronized (BPlusTreeImpl.this) {
+                checkOpen();
+                if (snapshotRootPageId == -1) {
+                    return new String[0][];
+                }
+                LeafNode leaf = findLeaf(key);
+                int pos = leaf.indexOf(key);
+                if (pos < 0) {
+                    return new String[0][];
+                }
+                return new String[][]{resolveRow(leaf, pos)};
+            }
+        }
+
+        @Override
+        public void forEach(EntryVisitor visitor) {
+            int leafPageId;
+            synchronized (BPlusTreeImpl.this) {
+                checkOpen();
+                if (snapshotRootPageId == -1) return;
+                leafPageId = findLeaf(null).getPageId();
+            }
+
+            // 每次只在锁内读取一个叶子节点，回调在锁外执行，长时间遍历不阻塞写入
+            Set<Integer> visitedPages = new HashSet<>();
+            while (leafPageId != -1) {
+                if (!visitedPages.add(leafPageId)) {
+                    throw new RuntimeException("快照遍历时检测到叶子链表循环：页面 " + leafPageId);
+                }
+                String[] keys;
+                String[][] rows;
+                String[] rowIds;
+                int count;
+                synchronized (BPlusTreeImpl.this) {
+                    checkOpen();
+                    LeafNode leaf = new LeafNode(leafPageId, maxLeafKeys);
+                    leaf.deserialize(readSnapshotPage(leafPageId, epoch));
+                    count = leaf.getKeyCount();
+                    keys = leaf.getKeys();
+                    rowIds = leaf.getRowIds();
+                    rows = new String[count][];
+                    for (int i = 0; i < count; i++) {
+                        rows[i] = resolveRow(leaf, i);
+                    }
+                    leafPageId = leaf.getNextLeafPageId();
+                }
+                for (int i = 0; i < count; i++) {
+                    visitor.visit(keys[i], rows[i], rowIds[i]);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (BPlusTreeImpl.this) {
+                if (closed) return;
+                closed = true;
+                versionStore.release(epoch);
+            }
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("快照已关闭");
+            }
+            if (bufferPool == null || !versionStore.isOpen(epoch)) {
+                throw new IllegalStateException("快照所属的B+树文件已关闭");
+            }
+        }
+
+        // 自上而下找到key所在的叶子节点，key为null时返回最左侧叶子
+        private LeafNode findLeaf(String key) {
+            int nodePageId = snapshotRootPageId;
+            for (int depth = 0; depth <= MAX_RECURSION_DEPTH; depth++) {
+                Page page = readSnapshotPage(nodePageId, epoch);
+                int nodeType = page.getNodeType();
+                if (nodeType == 1) {
+                    LeafNode leaf = leafNode(page);
+                    return leaf;
+                }
+                if (nodeType != 0) {
+                    throw new IllegalStateException("未知的节点类型: " + nodeType + " 在页面: " + nodePageId);
+                }
+                InternalNode internal = internalNode(page);
+                nodePageId = key == null ? internal.getChildPageIds()[0] : internal.findChild(key);
+            }
+            throw new RuntimeException("快照查找叶子节点时最大递归深度超出");
+        }
+
+        private String[] resolveRow(LeafNode leaf, int pos) {
+            if (leaf.getValueLogOffsets()[pos] != -1) {
+                return readValueLogRow(leaf.getValueLogOffsets()[pos], leaf.getValueLogLengths()[pos]);
+            }
+            if (leaf.getOverflowPageIds()[pos] != -1) {
+                return readSnapshotOverflowRow(leaf.getOverflowPageIds()[pos], leaf.getOverflowLengths()[pos]);
+            }
+            return leaf.getValues()[pos];
+        }
+
+        private String[] readSnapshotOverflowRow(int firstPageId, int length) {
+            byte[] data = new byte[length];
+            int offset = 0;
+            int pageId = firstPageId;
+            Set<Integer> visitedPages = new HashSet<>();
+            while (pageId != -1 && offset < length) {
+                if (!visitedPages.add(pageId)) {
+                    throw new RuntimeException("溢出页链存在循环：页面 " + pageId);
+                }
+                Page page = readSnapshotPage(pageId, epoch);
+                offset += OverflowPage.read(page, data, offset);
+                pageId = OverflowPage.getNextPageId(page);
+            }
+            if (offset != length) {
+                throw new IllegalStateException("溢出页链长度不匹配: 期望 " + length + ", 实际 " + offset);
+            }
+            return OverflowPage.decodeRow(data);
+        }
+    }
+
+    // 遍历整棵树重建结构统计，仅用于旧版本文件或异常关闭后的恢复
+    private void rebuildTreeStats() {
+        Set<Integer> visitedPages = new HashSet<>();
+        int[] stats = calculateTreeStats(rootPageId, 0, visitedPages);
+        treeHeight = stats[0];
+        nodeCount = stats[1];
+        usedSlots = stats[3];
+        leafCount = stats[4];
+        // 索引树和命名树的节点同样计入节点数和槽位统计，树高只反映主树
+        for (TreeRoot tree : extraTrees()) {
+            int[] indexStats = calculateTreeStats(tree.rootPageId, 0, visitedPages);
+            nodeCount += indexStats[1];
+            usedSlots += indexStats[3];
+            leafCount += indexStats[4];
+        }
+        saveMetadata();
+    }
+
+    private int[] calculateTreeStats(int nodePageId, int currentHeight, Set<Integer> visitedPages) {
+        if (nodePageId < 0 || visitedPages.contains(nodePageId)) {
+            return new int[]{0, 0, 0, 0, 0};
+        }
+
+        visitedPages.add(nodePageId);
+
+        try {
+            Page page = bufferPool.fetchPage(nodePageId);
+            int nodeType = page.getNodeType();
+
+            if (nodeType == 1) { // 叶子节点
+                LeafNode leaf = leafNode(page);
+                bufferPool.unpinPage(nodePageId, false);
+
+                return new int[]{currentHeight + 1, 1, maxLeafKeys, leaf.getKeyCount(), 1};
+            } else if (nodeType == 0) { // 内部节点
+                InternalNode internal = internalNode(page);
+                bufferPool.unpinPage(nodePageId, false);
+
+                int maxHeight = currentHeight + 1;
+                int totalNodes = 1;
+                int totalSlots = maxInternalKeys;
+                int usedSlots = internal.getKeyCount();
+                int totalLeaves = 0;
+
+                for (int i = 0; i <= internal.getKeyCount(); i++) {
+                    int childPageId = internal.getChildPageIds()[i];
+                    if (childPageId != -1 && !visitedPages.contains(childPageId)) {
+                        int[] childStats = calculateTreeStats(childPageId, currentHeight + 1, visitedPages);
+                        maxHeight = Math.max(maxHeight, childStats[0]);
+                        totalNodes += childStats[1];
+                        totalSlots += childStats[2];
+                        usedSlots += childStats[3];
+                        totalLeaves += childStats[4];
+                    }
+                }
+
+                return new int[]{maxHeight, totalNodes, totalSlots, usedSlots, totalLeaves};
+            } else {
+                return new int[]{0, 0, 0, 0, 0};
+            }
+        } finally {
+            visitedPages.remove(nodePageId);
+        }
+    }
+
+    // 验证树结构完整性
+    private void validateTreeStructure() {
+        Set<Integer> visitedPages = new HashSet<>();
+        if (rootPageId != -1) {
+            validateNode(rootPageId, -1, visitedPages, 0);
+        }
+        for (TreeRoot tree : extraTrees()) {
+            if (tree.rootPageId != -1) {
+                validateNode(tree.rootPageId, -1, visitedPages, 0);
+            }
+        }
+    }
+
+    private void validateNode(int nodePageId, int expectedParent, Set<Integer> visitedPages, int depth) {
+        if (depth > MAX_RECURSION_DEPTH) {
+            throw new RuntimeException("验证时检测到过深的树结构，可能存在循环");
+        }
+
+        if (nodePageId < 0 || visitedPages.contains(nodePageId)) {
+            return;
+        }
+
+        visitedPages.add(nodePageId);
+
+        try {
+            Page page = bufferPool.fetchPage(nodePageId);
+            int nodeType = page.getNodeType();
+
+            if (nodeType == 0) { // 内部节点
+                InternalNode internal = internalNode(page);
+                bufferPool.unpinPage(nodePageId, false);
+
+                if (internal.getParentPageId() != expectedParent) {
+                    System.err.println("警告：节点 " + nodePageId + " 的父节点指针不正确，期望: " + expectedParent + ", 实际: " + internal.getParentPageId());
+                }
+
+                // 检查是否存在自引用
+                for (int i = 0; i <= internal.getKeyCount(); i++) {
+                    int childPageId = internal.getChildPageIds()[i];
+                    if (childPageId == nodePageId) {
+                        throw new RuntimeException("检测到自引用：内部节点 " + nodePageId + " 指向自己");
+                    }
+                }
+
+                // 递归验证子节点
+                for (int i = 0; i <= internal.getKeyCount(); i++) {
+                    int childPageId = internal.getChildPageIds()[i];
+                    if (childPageId != -1) {
+                        validateNode(childPageId, nodePageId, visitedPages, depth + 1);
+                    }
+                }
+            } else if (nodeType == 1) { // 叶子节点
+                LeafNode leaf = leafNode(page);
+                bufferPool.unpinPage(nodePageId, false);
+
+                if (leaf.getParentPageId() != expectedParent) {
+                    System.err.println("警告：叶子节点 " + nodePageId + " 的父节点指针不正确，期望: " + expectedParent + ", 实际: " + leaf.getParentPageId());
+                }
+            }
+        } finally {
+            visitedPages.remove(nodePageId);
+        }
+    }
+
+    // 旧版本文件的扇出：叶子和内部节点共用同一个maxKeys，且上限为20
+    private int legacyMaxKeys(int pageSize) {
+        return Math.min(LeafNode.calculateMaxKeys(pageSize), 20);
+    }
+
+    private int allocateNewPage() {
+        if (freeListHead == -1) {
+            return nextPageId++;
+        }
+
+        // 优先复用空闲链表中的页面
+        int pageId = freeListHead;
+        Page page = bufferPool.fetchPage(pageId);
+        if (page.getNodeType() != OverflowPage.FREE_PAGE_TYPE) {
+            bufferPool.unpinPage(pageId, false);
+            throw new IllegalStateException("空闲链表损坏：页面 " + pageId + " 不是空闲页");
+        }
+        // 复用的页面即将被改写，快照（包括进行中的备份）仍需看到它空闲时的内容
+        preserveVersion(page);
+        freeListHead = page.readInt(4);
+        bufferPool.unpinPage(pageId, false);
+        return pageId;
+    }
+
+    private void freePage(int pageId) {
+        Page page = bufferPool.fetchPage(pageId);
+        if (page.getNodeType() == 1) {
+            freedLeafGeneration++;
+        }
+        preserveVersion(page);
+        page.clear();
+        page.writeInt(0, OverflowPage.FREE_PAGE_TYPE);
+        page.writeInt(4, freeListHead);
+        bufferPool.unpinPage(pageId, true);
+        freeListHead = pageId;
+    }
+
+    // 将数据写入新分配的溢出页链，返回首个溢出页ID
+    private int writeOverflowChain(byte[] data) {
+        int capacity = OverflowPage.capacity(pageSize);
+        int pageCount = Math.max(1, (data.length + capacity - 1) / capacity);
+        int[] pageIds = new int[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pageIds[i] = allocateNewPage();
+        }
+
+        for (int i = 0; i < pageCount; i++) {
+            int offset = i * capacity;
+            int length = Math.min(capacity, data.length - offset);
+            int next = i + 1 < pageCount ? pageIds[i + 1] : -1;
+
+            Page page = bufferPool.fetchPage(pageIds[i]);
+            OverflowPage.write(page, next, data, offset, length);
+            bufferPool.unpinPage(pageIds[i], true);
+        }
+        return pageIds[0];
+    }
+
+    private String[] readOverflowRow(int firstPageId, int length) {
+        byte[] data = new byte[length];
+        int offset = 0;
+        int pageId = firstPageId;
+        Set<Integer> visitedPages = new HashSet<>();
+        while (pageId != -1 && offset < length) {
+            if (!visitedPages.add(pageId)) {
+                throw new RuntimeException("溢出页链存在循环：页面 " + pageId);
+            }
+            Page page = bufferPool.fetchPage(pageId);
+            try {
+                offset += OverflowPage.read(page, data, offset);
+                pageId = OverflowPage.getNextPageId(page);
+            } finally {
+                bufferPool.unpinPage(page.getPageId(), false);
+            }
+        }
+        if (offset != length) {
+            throw new IllegalStateException("溢出页链长度不匹配: 期望 " + length + ", 实际 " + offset);
+        }
+        return OverflowPage.decodeRow(data);
+    }
+
+    private void freeOverflowChain(int firstPageId) {
+        int pageId = firstPageId;
+        Set<Integer> visitedPages = new HashSet<>();
+        while (pageId != -1 && visitedPages.add(pageId)) {
+            Page page = bufferPool.fetchPage(pageId);
+            int next = page.getNodeType() == OverflowPage.NODE_TYPE ? OverflowPage.getNextPageId(page) : -1;
+            bufferPool.unpinPage(pageId, false);
+            freePage(pageId);
+            pageId = next;
+        }
+    }
+
+    private String[] readValueLogRow(long pointer, int length) {
+        try {
+            return OverflowPage.decodeRow(valueLog.read(pointer, length));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read value log record " + pointer, e);
+        }
+    }
+
+    // 自上而下找到key所在的叶子节点，key为null时返回最左侧叶子，树为空时返回-1
+    private int findLeafPageId(int treeRootPageId, String key) {
+        return descendToLeaf(treeRootPageId, key, false);
+    }
+
+    // 沿每层最右侧的子节点找到最后一个叶子
+    private int findLastLeafPageId(int treeRootPageId) {
+        return descendToLeaf(treeRootPageId, null, true);
+    }
+
+    private int descendToLeaf(int treeRootPageId, String key, boolean rightmost) {
+        if (treeRootPageId < 0) return -1;
+        Page page = bufferPool.fetchPage(treeRootPageId);
+        for (int depth = 0; ; depth++) {
+            if (depth > MAX_RECURSION_DEPTH) {
+                bufferPool.unpinPage(page, false);
+                throw new RuntimeException("查找叶子节点时最大递归深度超出，深度: " + depth);
+            }
+            if (page.getNodeType() == 1) {
+                bufferPool.unpinPage(page, false);
+                return page.getPageId();
+            }
+            InternalNode internal = internalNode(page);
+            Page childPage = rightmost ? fetchChildAt(internal, internal.getKeyCount()) : fetchChild(internal, key);
+            bufferPool.unpinPage(page, false);
+            page = childPage;
+        }
+    }
+
+    /**
+     * 从内部节点下降到key所在的子节点（key为null时为最左子节点），返回已pin的子页面
+     * <p>
+     * 子页面常驻缓冲池时，内部节点上保存着指向它的直接引用，不再查缓冲池页表；
+     * 第一次经页表读入后即转换为直接引用，页面被驱逐时由缓冲池换回页面ID。
+     * 调用时父节点页面必须仍被pin，保证父节点不会在转换过程中被驱逐。
+     */
+    private Page fetchChild(InternalNode internal, String key) {
+        int childIndex = key == null ? 0 : internal.findChildIndex(key);
+        if (internal.getChildPageIds()[childIndex] < 0 && key != null) {
+            // 子节点指针异常，沿用findChild的容错查找，不做引用转换
+            int childPageId = internal.findChild(key);
+            if (childPageId >= 0 && childPageId != internal.getPageId()) {
+                return bufferPool.fetchPage(childPageId);
+            }
+        }
+        return fetchChildAt(internal, childIndex);
+    }
+
+    private Page fetchChildAt(InternalNode internal, int childIndex) {
+        Page child = internal.getChildFrame(childIndex);
+        if (child != null) {
+            return bufferPool.pinResident(child);
+        }
+
+        int childPageId = internal.getChildPageIds()[childIndex];
+        if (childPageId < 0) {
+            throw new IllegalStateException("内部节点 " + internal.getPageId() + " 返回无效的子节点ID: " + childPageId);
+        }
+        if (childPageId == internal.getPageId()) {
+            // 打印调试信息
+            internal.printNode();
+            throw new IllegalStateException("内部节点 " + internal.getPageId() + " 自引用");
+        }
+
+        child = bufferPool.fetchPage(childPageId);
+        internal.swizzle(childIndex, child);
+        return child;
+    }
+
+    private void startValueLogGc() {
+        valueLogGc = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "value-log-gc");
+            thread.setDaemon(true);
+            return thread;
+        });
+        valueLogGc.scheduleWithFixedDelay(() -> {
+            try {
+                if (getValueLogGarbageRatio() > VALUE_LOG_GC_THRESHOLD) {
+                    collectValueLogGarbage();
+                }
+            } catch (RuntimeException e) {
+                System.err.println("value log回收失败: " + e.getMessage());
+            }
+        }, VALUE_LOG_GC_INTERVAL_SECONDS, VALUE_LOG_GC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void stopValueLogGc() {
+        if (valueLogGc == null) return;
+        valueLogGc.shutdownNow();
+        try {
+            valueLogGc.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        valueLogGc = null;
+    }
+
+    public synchronized double getValueLogGarbageRatio() {
+        if (valueLog == null) return 0.0;
+        try {
+            long total = valueLog.getTotalSize();
+            return total > 0 ? (double) valueLogGarbageBytes / total : 0.0;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read value log size", e);
+        }
+    }
+
+    /**
+     * 回收value log中最旧的一个段：仍被叶子节点引用的记录搬到最新段，然后删除该段文件。
+     * 读取旧段时不持有树的锁，每条记录的搬迁单独加锁，不会长时间阻塞前台操作。
+     *
+     * @return 是否回收了一个段
+     */
+    public boolean collectValueLogGarbage() {
+        int segmentId;
+        long segmentSize;
+        synchronized (this) {
+            // 快照和备份可能仍引用旧段中的记录，等它们都结束后再回收
+            if (valueLog == null || versionStore.hasOpenSnapshots() || runningBackups > 0) return false;
+            segmentId = valueLog.oldestSealedSegment();
+            if (segmentId < 0) return false;
+            try {
+                segmentSize = valueLog.getSegmentSize(segmentId);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read value log segment " + segmentId, e);
+            }
+        }
+
+        long[] liveBytes = {0};
+        try {
+            valueLog.forEachRecord(segmentId, (pointer, length, key, row) -> {
+                synchronized (this) {
+                    if (relocateValueLogRecord(key, pointer, row)) {
+                        liveBytes[0] += length;
+                    }
+                }
+            });
+
+            synchronized (this) {
+                if (versionStore.hasOpenSnapshots() || runningBackups > 0) {
+                    // 搬迁期间打开了快照或开始了备份，保留旧段，其中已搬走的记录也成为垃圾，下次再回收
+                    valueLogGarbageBytes += liveBytes[0];
+                    saveMetadata();
+                    return false;
+                }
+                // 搬迁后的指针只在缓冲池的脏页中，先写出所有脏页和元数据，
+                // 保证删除旧段时文件中已没有页面引用它，之后崩溃也不会丢失行数据
+                bufferPool.flushAllPages();
+                saveMetadata();
+                valueLog.deleteSegment(segmentId);
+                valueLogGarbageBytes = Math.max(0, valueLogGarbageBytes - (segmentSize - liveBytes[0]));
+                saveMetadata();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to collect value log segment " + segmentId, e);
+        }
+        return true;
+    }
+
+    // 如果叶子节点仍引用该记录，则将其追加到最新段并更新指针
+    private boolean relocateValueLogRecord(String key, long pointer, byte[] row) {
+        int leafPageId = findLeafPageId(rootPageId, key);
+        if (leafPageId < 0) return false;
+
+        Page page = bufferPool.fetchPage(leafPageId);
+        LeafNode leaf = leafNode(page);
+        int pos = leaf.indexOf(key);
+        if (pos < 0 || leaf.getValueLogOffsets()[pos] != pointer) {
+            bufferPool.unpinPage(leafPageId, false);
+            return false;
+        }
+
+        try {
+            long newPointer = valueLog.append(key, row);
+            preserveVersion(page);
+            leaf.setValueLogPointer(pos, newPointer, leaf.getValueLogLengths()[pos]);
+            writeNode(page, leaf);
+            bufferPool.unpinPage(leafPageId, true);
+            return true;
+        } catch (IOException e) {
+            bufferPool.unpinPage(leafPageId, false);
+            throw new RuntimeException("Failed to relocate value log record " + pointer, e);
+        }
+    }
+
+    // 元数据校验和覆盖整个元数据区域，计算时将校验和字段本身视为0
+    private static int metadataChecksum(byte[] metadata) {
+        byte[] copy = metadata.clone();
+        ByteBuffer.wrap(copy).putInt(56, 0);
+        return DiskManager.checksum(copy, copy.length);
+    }
+
+    private void saveMetadata() {
+        if (applyingBatch) return;
+        saveMetadata(false);
+    }
+
+    private void saveMetadata(boolean cleanShutdown) {
+        try {
+            diskManager.writeMetadata(encodeMetadata(cleanShutdown));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save metadata", e);
+        }
+    }
+
+    private byte[] encodeMetadata(boolean cleanShutdown) {
+        byte[] metadata = new byte[16384];
+        ByteBuffer buffer = ByteBuffer.wrap(metadata);
+        buffer.putInt(0, 0x12345678); // magic number
+        buffer.putInt(4, rootPageId);
+        buffer.putInt(8, nextPageId);
+        buffer.putInt(12, splitCount);
+        buffer.putInt(16, mergeCount);
+        buffer.putInt(20, treeHeight);
+        buffer.putInt(24, nodeCount);
+        buffer.putInt(28, usedSlots);
+        buffer.putInt(32, pageSize);
+        buffer.putInt(36, maxLeafKeys);
+        buffer.putInt(40, maxInternalKeys);
+        buffer.putInt(44, leafCount);
+        buffer.putInt(48, freeListHead);
+        buffer.putInt(52, cleanShutdown ? 1 : 0);
+        buffer.putInt(60, compressed ? 1 : 0);
+        buffer.putInt(64, valueLogEnabled ? 1 : 0);
+        buffer.putLong(68, valueLogGarbageBytes);
+        buffer.putInt(76, indexes.size());
+        int indexOffset = 80;
+        for (SecondaryIndex index : indexes.values()) {
+            buffer.putInt(indexOffset, index.column);
+            buffer.putInt(indexOffset + 4, index.rootPageId);
+            indexOffset += 8;
+        }
+        buffer.putInt(80 + MAX_INDEXES * 8, prevLinksValid ? 1 : 0);
+        buffer.putInt(84 + MAX_INDEXES * 8, subtreeCountsValid ? 1 : 0);
+        buffer.putInt(CATALOG_OFFSET, namedTrees.size());
+        int entryOffset = CATALOG_OFFSET + 4;
+        for (Map.Entry<String, TreeRoot> entry : namedTrees.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(entryOffset, entry.getValue().rootPageId);
+            buffer.putInt(entryOffset + 4, name.length);
+            buffer.put(entryOffset + 8, name);
+            entryOffset += CATALOG_ENTRY_SIZE;
+        }
+        buffer.putInt(56, metadataChecksum(metadata));
+        return metadata;
+    }
+
+    // 子节点分裂后，父节点中两个子树的记录数直接取自分裂后的节点
+    private void setSplitCounts(InternalNode parent, BPlusTreeNode leftNode, BPlusTreeNode rightNode) {
+        int index = parent.indexOfChild(leftNode.getPageId());
+        parent.setChildCount(index, subtreeCount(leftNode));
+        parent.setChildCount(index + 1, subtreeCount(rightNode));
+    }
+
+    private static int subtreeCount(BPlusTreeNode node) {
+        return node.isLeaf() ? node.getKeyCount() : (int) ((InternalNode) node).getSubtreeCount();
+    }
+
+    // 叶子中即将新增或删除一条记录，沿父指针更新各层祖先中该子树的记录数
+    private void adjustAncestorCounts(BPlusTreeNode node, int delta) {
+        if (!subtreeCountsValid) return;
+        int childPageId = node.getPageId();
+        int parentPageId = node.getParentPageId();
+        for (int depth = 0; parentPageId != -1; depth++) {
+            if (depth > MAX_RECURSION_DEPTH) {
+                throw new RuntimeException("更新子树记录数时最大递归深度超出，深度: " + depth);
+            }
+            Page page = bufferPool.fetchPage(parentPageId);
+            int index = page.getNodeType() == 0 ? internalNode(page).indexOfChild(childPageId) : -1;
+            if (index < 0) {
+                bufferPool.unpinPage(page, false);
+                System.err.println("警告：节点 " + childPageId + " 的父节点指针不正确，子树记录数停止维护，下次打开时重建");
+                subtreeCountsValid = false;
+                return;
+            }
+            InternalNode parent = internalNode(page);
+            preserveVersion(page);
+            parent.setChildCount(index, parent.getChildCounts()[index] + delta);
+            writeNode(page, parent);
+            bufferPool.unpinPage(page, true);
+            childPageId = parentPageId;
+            parentPageId = parent.getParentPageId();
+        }
+    }
+
+    // 自下而上重新统计主树和索引树中每个子树的记录数，旧版本文件的内部节点没有空间保存时不启用
+    private void rebuildSubtreeCounts() {
+        if (!InternalNode.hasRoomForCounts(maxInternalKeys, pageSize)) {
+            subtreeCountsValid = false;
+            return;
+        }
+        countSubtree(rootPageId, 0);
+        for (TreeRoot tree : extraTrees()) {
+            countSubtree(tree.rootPageId, 0);
+        }
+        subtreeCountsValid = true;
+    }
+
+    private long countSubtree(int nodePageId, int depth) {
+        if (nodePageId < 0) return 0;
+        if (depth > MAX_RECURSION_DEPTH) {
+            throw new RuntimeException("统计子树记录数时最大递归深度超出，深度: " + depth);
+        }
+        Page page = bufferPool.fetchPage(nodePageId);
+        if (page.getNodeType() == 1) {
+            int count = leafNode(page).getKeyCount();
+            bufferPool.unpinPage(page, false);
+            return count;
+        }
+        InternalNode internal = internalNode(page);
+        bufferPool.unpinPage(page, false);
+
+        long total = 0;
+        boolean changed = false;
+        for (int i = 0; i <= internal.getKeyCount(); i++) {
+            int count = (int) countSubtree(internal.getChildPageIds()[i], depth + 1);
+            changed |= internal.getChildCounts()[i] != count;
+            internal.setChildCount(i, count);
+            total += count;
+        }
+        if (changed) {
+            page = bufferPool.fetchPage(nodePageId);
+            writeNode(page, internal);
+            bufferPool.unpinPage(page, true);
+        }
+        return total;
+    }
+
+    private void setPrevLeafPageId(int leafPageId, int prevLeafPageId) {
+        Page page = bufferPool.fetchPage(leafPageId);
+        LeafNode leaf = leafNode(page);
+        preserveVersion(page);
+        leaf.setPrevLeafPageId(prevLeafPageId);
+        writeNode(page, leaf);
+        bufferPool.unpinPage(page, true);
+    }
+
+    private void updateNodeParent(BPlusTreeNode node) {
+        Page page = bufferPool.fetchPage(node.getPageId());
+        // 直接修改缓存节点的父指针，不再为一个int整页解码再编码
+        BPlusTreeNode cached = node.isLeaf() ? leafNode(page) : internalNode(page);
+        preserveVersion(page);
+        cached.setParentPageId(node.getParentPageId());
+        writeNode(page, cached);
+        bufferPool.unpinPage(node.getPageId(), true);
+    }
+
+    private void updateChildrenParent(InternalNode parent) {
+        for (int i = 0; i <= parent.getKeyCount(); i++) {
+            int childPageId = parent.getChildPageIds()[i];
+            if (childPageId != -1) {
+                Page childPage = bufferPool.fetchPage(childPageId);
+                int nodeType = childPage.getNodeType();
+
+                if (nodeType == 0 || nodeType == 1) {
+                    BPlusTreeNode child = nodeType == 0 ? internalNode(childPage) : leafNode(childPage);
+                    preserveVersion(childPage);
+                    child.setParentPageId(parent.getPageId());
+                    writeNode(childPage, child);
+                }
+
+                bufferPool.unpinPage(childPageId, true);
+            }
+        }
+    }
+}
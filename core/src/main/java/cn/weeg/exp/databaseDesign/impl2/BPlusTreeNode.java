@@ -0,0 +1,172 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+/**
+ * @author weeGiam
+ */
+
+
+public abstract class BPlusTreeNode {
+    protected int pageId;
+    protected boolean isLeaf;
+    protected int keyCount;
+    protected String[] keys;
+    protected int parentPageId;
+
+    // 规范化key前缀：跳过节点内所有key的公共前缀后，把接下来的4个UTF-16字符打包成一个long。
+    // 按无符号比较的顺序与String.compareTo一致，查找时先在这个连续的long数组上缩小范围，
+    // 前缀相同时才比较完整的key。key被修改后置为null，下次查找时重建
+    private long[] keyPrefixes;
+    private String commonPrefix;
+
+    public BPlusTreeNode(int pageId, boolean isLeaf, int maxKeys) {
+        this.pageId = pageId;
+        this.isLeaf = isLeaf;
+        this.keyCount = 0;
+        this.keys = new String[maxKeys];
+        this.parentPageId = -1;
+    }
+
+    public abstract void serialize(Page page);
+
+    public abstract void deserialize(Page page);
+
+    public abstract boolean isFull();
+
+    public abstract boolean isUnderflow();
+
+    // Getters and setters
+    public int getPageId() {
+        return pageId;
+    }
+
+    public boolean isLeaf() {
+        return isLeaf;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public String[] getKeys() {
+        return keys;
+    }
+
+    public int getParentPageId() {
+        return parentPageId;
+    }
+
+    public void setParentPageId(int parentPageId) {
+        this.parentPageId = parentPageId;
+    }
+
+    /**
+     * 查找第一个不小于key的位置，key存在时即为其下标
+     */
+    protected int binarySearch(String key) {
+        if (key == null) return 0;
+        if (keyCount > 0 && ensureKeyPrefixes()) {
+            return prefixSearch(key);
+        }
+
+        int left = 0, right = keyCount - 1;
+        while (left <= right) {
+            int mid = (left + right) / 2;
+            if (keys[mid] == null) {
+                right = mid - 1;
+                continue;
+            }
+
+            int cmp = keys[mid].compareTo(key);
+            if (cmp == 0) return mid;
+            else if (cmp < 0) left = mid + 1;
+            else right = mid - 1;
+        }
+        return left;
+    }
+
+    // key数组被修改后调用
+    protected void invalidateKeyPrefixes() {
+        keyPrefixes = null;
+    }
+
+    // 按需构建前缀数组，存在空key时无法构建，返回false
+    private boolean ensureKeyPrefixes() {
+        if (keyPrefixes != null) return true;
+        for (int i = 0; i < keyCount; i++) {
+            if (keys[i] == null) return false;
+        }
+
+        // key有序，首尾两个key的公共前缀就是所有key的公共前缀
+        String first = keys[0];
+        String last = keys[keyCount - 1];
+        int length = 0;
+        int limit = Math.min(first.length(), last.length());
+        while (length < limit && first.charAt(length) == last.charAt(length)) {
+            length++;
+        }
+        commonPrefix = first.substring(0, length);
+
+        long[] prefixes = new long[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            prefixes[i] = packPrefix(keys[i], length);
+        }
+        keyPrefixes = prefixes;
+        return true;
+    }
+
+    private int prefixSearch(String key) {
+        int prefixLength = commonPrefix.length();
+        if (!key.startsWith(commonPrefix)) {
+            // 所有key都以公共前缀开头，不以它开头的key要么小于全部key，要么大于全部key
+            return key.compareTo(commonPrefix) < 0 ? 0 : keyCount;
+        }
+
+        long target = packPrefix(key, prefixLength);
+        long[] prefixes = keyPrefixes;
+        int base = lowerBound(prefixes, 0, keyCount, target);
+        if (base == keyCount || prefixes[base] != target) {
+            return base;
+        }
+
+        // 前缀相同的一段key（例如同一租户下的大量key）再二分比较完整的key；
+        // 前缀全为0xFFFF时没有更大的前缀，这一段一直到末尾
+        int runEnd = target == -1L ? keyCount : lowerBound(prefixes, base, keyCount, target + 1);
+        int low = base;
+        int high = runEnd;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // 在前缀数组的[from, to)上做无分支的lower bound，返回第一个不小于target的下标
+    private static int lowerBound(long[] prefixes, int from, int to, long target) {
+        int base = from;
+        int n = to - from;
+        if (n == 0) return from;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = Long.compareUnsigned(prefixes[base + half], target) < 0 ? base + half : base;
+            n -= half;
+        }
+        if (Long.compareUnsigned(prefixes[base], target) < 0) {
+            base++;
+        }
+        return base;
+    }
+
+    // 从offset开始的4个字符，不足的部分补0
+    private static long packPrefix(String key, int offset) {
+        long packed = 0;
+        for (int i = 0; i < 4; i++) {
+            int index = offset + i;
+            packed = (packed << 16) | (index < key.length() ? key.charAt(index) : 0);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,122 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 主键的Bloom过滤器，用于在访问任何页面之前排除不存在的key
+ * <p>
+ * 按预期容量和1%的误判率确定位数和哈希函数个数，使用双重哈希生成各个位置。
+ * 过滤器不支持删除，已删除的key仍可能被判为存在，只影响误判率不影响正确性。
+ *
+ * @author weeGiam
+ */
+
+public class BloomFilter {
+    private static final int MAGIC = 0x424C4F4D;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final long capacity;
+    private long insertions;
+
+    public BloomFilter(long capacity) {
+        this.capacity = Math.max(1, capacity);
+        long m = (long) Math.ceil(-this.capacity * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) Math.max(1, (m + 63) / 64)];
+        this.bitCount = (long) bits.length * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / this.capacity * Math.log(2)));
+    }
+
+    private BloomFilter(long[] bits, int hashCount, long capacity, long insertions) {
+        this.bits = bits;
+        this.bitCount = (long) bits.length * 64;
+        this.hashCount = hashCount;
+        this.capacity = capacity;
+        this.insertions = insertions;
+    }
+
+    public void add(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(hash1 + i * hash2, bitCount);
+            bits[(int) (index >>> 6)] |= 1L << index;
+        }
+        insertions++;
+    }
+
+    public boolean mightContain(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(hash1 + i * hash2, bitCount);
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 插入次数超过容量后误判率会快速上升，需要按更大容量重建
+    public boolean isSaturated() {
+        return insertions > capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    // FNV-1a 64位哈希
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(32 + bits.length * 8);
+        buffer.putInt(MAGIC);
+        buffer.putInt(hashCount);
+        buffer.putLong(capacity);
+        buffer.putLong(insertions);
+        buffer.putInt(bits.length);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+        buffer.putInt(DiskManager.checksum(buffer.array(), 28 + bits.length * 8));
+        return buffer.array();
+    }
+
+    /**
+     * 从toBytes的结果恢复过滤器，格式或校验和不正确时返回null
+     */
+    public static BloomFilter fromBytes(byte[] data) {
+        if (data.length < 32) return null;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt(0) != MAGIC) return null;
+        int words = buffer.getInt(24);
+        if (words <= 0 || data.length != 32 + words * 8) return null;
+        if (buffer.getInt(28 + words * 8) != DiskManager.checksum(data, 28 + words * 8)) return null;
+
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++) {
+            bits[i] = buffer.getLong(28 + i * 8);
+        }
+        return new BloomFilter(bits, buffer.getInt(4), buffer.getLong(8), buffer.getLong(16));
+    }
+}
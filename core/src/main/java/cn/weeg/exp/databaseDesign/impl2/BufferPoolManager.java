@@ -0,0 +1,240 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author weeGiam
+ */
+
+public class BufferPoolManager {
+    private final int poolSize;
+    private final int pageSize;
+    private final Map<Integer, Page> pageTable;
+    private final LinkedHashMap<Integer, Page> lruList;
+    private final DiskManager diskManager;
+    private long pageAccessCount = 0;
+    // 为true时不驱逐脏页（no-steal），没有干净页面可驱逐时缓冲池暂时超出容量
+    private boolean noSteal;
+
+    // 缓冲池计数器，只增不减
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+    private long dirtyFlushCount = 0;
+    private long swizzledHitCount = 0;
+
+    public BufferPoolManager(int poolSize, int pageSize, DiskManager diskManager) {
+        this.poolSize = poolSize;
+        this.pageSize = pageSize;
+        this.diskManager = diskManager;
+        this.pageTable = new HashMap<>();
+        this.lruList = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return !noSteal && size() > poolSize;
+            }
+        };
+    }
+
+    public Page fetchPage(int pageId) {
+        if (pageId < 0) {
+            throw new IllegalArgumentException("Invalid page ID: " + pageId);
+        }
+
+        pageAccessCount++;
+
+        Page page = pageTable.get(pageId);
+        if (page != null) {
+            hitCount++;
+            page.pin();
+            lruList.put(pageId, page); // 更新LRU顺序
+            return page;
+        }
+
+        // 需要从磁盘读取
+        missCount++;
+        try {
+            page = diskManager.readPage(pageId, pageSize);
+            if (page == null) {
+                page = new Page(pageId, pageSize);
+            }
+
+            // 检查是否需要驱逐页面，no-steal期间超出的页面之后逐步驱逐
+            while (pageTable.size() >= poolSize) {
+                if (!evictPage()) break;
+            }
+
+            page.pin();
+            pageTable.put(pageId, page);
+            lruList.put(pageId, page);
+            return page;
+
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read page " + pageId, e);
+        }
+    }
+
+    /**
+     * 通过父节点上转换好的引用访问常驻页面：不查页表也不调整LRU顺序
+     */
+    public Page pinResident(Page page) {
+        pageAccessCount++;
+        hitCount++;
+        swizzledHitCount++;
+        page.pin();
+        return page;
+    }
+
+    /**
+     * 返回常驻缓冲池的页面，不在缓冲池中时返回null；不pin、不计访问次数也不调整LRU顺序，
+     * 用于备份等顺序读取，避免冲掉热点页面
+     */
+    public Page peekPage(int pageId) {
+        return pageTable.get(pageId);
+    }
+
+    public void unpinPage(Page page, boolean isDirty) {
+        page.unpin();
+        if (isDirty) {
+            page.setDirty(true);
+        }
+    }
+
+    public void unpinPage(int pageId, boolean isDirty) {
+        Page page = pageTable.get(pageId);
+        if (page != null) {
+            page.unpin();
+            if (isDirty) {
+                page.setDirty(true);
+            }
+        }
+    }
+
+    public boolean flushPage(int pageId) {
+        Page page = pageTable.get(pageId);
+        if (page != null && page.isDirty()) {
+            try {
+                page.serializeNode();
+                diskManager.writePage(page, pageSize);
+                dirtyFlushCount++;
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to flush page " + pageId, e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 设置no-steal模式：开启期间脏页一直留在缓冲池中，直到flushAllPages写出
+     */
+    public void setNoSteal(boolean noSteal) {
+        this.noSteal = noSteal;
+    }
+
+    /**
+     * 序列化所有脏页并按页面ID排序返回，页面仍保持脏状态
+     */
+    public List<Page> getDirtyPages() {
+        List<Page> dirtyPages = new ArrayList<>();
+        for (Page page : pageTable.values()) {
+            if (page.isDirty()) {
+                page.serializeNode();
+                dirtyPages.add(page);
+            }
+        }
+        dirtyPages.sort(Comparator.comparingInt(Page::getPageId));
+        return dirtyPages;
+    }
+
+    /**
+     * 丢弃缓冲池中的所有页面，脏页不写回；之后访问的页面都从文件重新读取
+     */
+    public void discardAllPages() {
+        for (Page page : pageTable.values()) {
+            page.releaseNode();
+        }
+        pageTable.clear();
+        lruList.clear();
+    }
+
+    public void flushAllPages() {
+        // 按页面ID顺序一次写出所有脏页，整批只同步一次
+        List<Page> dirtyPages = getDirtyPages();
+        try {
+            diskManager.writePages(dirtyPages, pageSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to flush " + dirtyPages.size() + " pages", e);
+        }
+        dirtyFlushCount += dirtyPages.size();
+    }
+
+    // 驱逐一个页面；no-steal期间只有脏页可选时不驱逐并返回false
+    private boolean evictPage() {
+        // 找到第一个未被pin的页面进行驱逐。通过直接引用访问的页面不会更新LRU顺序，
+        // 仍被父节点引用的页面先换回页面ID给一次机会，再次经页表访问时会回到LRU尾部
+        Page victim = null;
+        Page cooled = null;
+        for (Page page : lruList.values()) {
+            if (page.getPinCount() != 0 || (noSteal && page.isDirty())) continue;
+            if (page.getSwizzledIn() == null) {
+                victim = page;
+                break;
+            }
+            page.getSwizzledIn().unswizzle(page);
+            if (cooled == null) {
+                cooled = page;
+            }
+        }
+        if (victim == null) {
+            victim = cooled;
+        }
+        if (victim == null) {
+            if (noSteal) return false;
+            throw new RuntimeException("No page can be evicted");
+        }
+
+        if (victim.isDirty()) {
+            flushPage(victim.getPageId());
+        }
+        victim.releaseNode();
+        pageTable.remove(victim.getPageId());
+        lruList.remove(victim.getPageId());
+        evictionCount++;
+        return true;
+    }
+
+    public long getPageAccessCount() {
+        return pageAccessCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getDirtyFlushCount() {
+        return dirtyFlushCount;
+    }
+
+    public long getSwizzledHitCount() {
+        return swizzledHitCount;
+    }
+
+    public void resetPageAccessCount() {
+        pageAccessCount = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,256 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩页面存储：页面写出时压缩，存放在按512字节对齐的变长extent中，读取时解压回完整页面
+ * <p>
+ * 元数据区域与DiskManager相同，位于数据文件开头的16KB。页面到extent的映射保存在
+ * "文件名.pmap"中，每个页面占16字节：extent偏移(8) + 压缩后长度(4) + extent容量(4)。
+ * 压缩后长度等于页面大小时表示该页以原始形式存放。
+ *
+ * @author weeGiam
+ */
+
+public class CompressedDiskManager extends DiskManager {
+    private static final int MAP_ENTRY_SIZE = 16;
+    private static final int EXTENT_ALIGNMENT = 512;
+    private static final long DATA_START = 16384L;
+
+    private RandomAccessFile mapFile;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    // 空闲extent：容量 -> 偏移列表
+    private final TreeMap<Integer, Deque<Long>> freeExtents = new TreeMap<>();
+    private long fileEnd;
+
+    // 统计：写出的原始字节数和压缩后字节数
+    private long rawBytesWritten;
+    private long storedBytesWritten;
+
+    @Override
+    public void openFile(String filename, int pageSize) throws IOException {
+        super.openFile(filename, pageSize);
+        this.mapFile = new RandomAccessFile(filename + ".pmap", "rw");
+        rebuildFreeExtents();
+    }
+
+    @Override
+    public void closeFile() throws IOException {
+        super.closeFile();
+        if (mapFile != null) {
+            mapFile.close();
+        }
+        deflater.end();
+        inflater.end();
+    }
+
+    // 根据映射文件找出未被引用的区域作为空闲extent
+    private void rebuildFreeExtents() throws IOException {
+        freeExtents.clear();
+        fileEnd = Math.max(DATA_START, file.length());
+
+        List<long[]> extents = new ArrayList<>();
+        int pageCount = (int) (mapFile.length() / MAP_ENTRY_SIZE);
+        for (int pageId = 0; pageId < pageCount; pageId++) {
+            long[] entry = readMapEntry(pageId);
+            if (entry[2] > 0) {
+                extents.add(new long[]{entry[0], entry[2]});
+            }
+        }
+        extents.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        long cursor = DATA_START;
+        for (long[] extent : extents) {
+            if (extent[0] > cursor) {
+                addFreeExtent(cursor, (int) (extent[0] - cursor));
+            }
+            cursor = Math.max(cursor, extent[0] + extent[1]);
+        }
+        if (fileEnd > cursor) {
+            addFreeExtent(cursor, (int) (fileEnd - cursor));
+        }
+    }
+
+    private void addFreeExtent(long offset, int capacity) {
+        freeExtents.computeIfAbsent(capacity, k -> new ArrayDeque<>()).add(offset);
+    }
+
+    // 分配至少capacity字节的extent，多余部分放回空闲列表
+    private long allocateExtent(int capacity) {
+        Map.Entry<Integer, Deque<Long>> entry = freeExtents.ceilingEntry(capacity);
+        if (entry == null) {
+            long offset = fileEnd;
+            fileEnd += capacity;
+            return offset;
+        }
+
+        long offset = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            freeExtents.remove(entry.getKey());
+        }
+        if (entry.getKey() > capacity) {
+            addFreeExtent(offset + capacity, entry.getKey() - capacity);
+        }
+        return offset;
+    }
+
+    // 返回 {偏移, 压缩后长度, 容量}，页面未写入时长度和容量为0
+    private long[] readMapEntry(int pageId) throws IOException {
+        long position = (long) pageId * MAP_ENTRY_SIZE;
+        if (position + MAP_ENTRY_SIZE > mapFile.length()) {
+            return new long[]{0, 0, 0};
+        }
+        byte[] entry = new byte[MAP_ENTRY_SIZE];
+        mapFile.seek(position);
+        mapFile.readFully(entry);
+        ByteBuffer buffer = ByteBuffer.wrap(entry);
+        return new long[]{buffer.getLong(0), buffer.getInt(8), buffer.getInt(12)};
+    }
+
+    private void writeMapEntry(int pageId, long offset, int length, int capacity) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAP_ENTRY_SIZE);
+        buffer.putLong(0, offset);
+        buffer.putInt(8, length);
+        buffer.putInt(12, capacity);
+        mapFile.seek((long) pageId * MAP_ENTRY_SIZE);
+        mapFile.write(buffer.array());
+    }
+
+    @Override
+    public Page readPage(int pageId, int pageSize) throws IOException {
+        if (file == null || pageId < 0) {
+            return new Page(pageId, pageSize);
+        }
+
+        long[] entry = readMapEntry(pageId);
+        int length = (int) entry[1];
+        byte[] data = new byte[pageSize];
+        if (length == 0) {
+            // 页面从未写入，返回全零页面
+            return new Page(pageId, data);
+        }
+
+        byte[] stored = new byte[length];
+        file.seek(entry[0]);
+        file.readFully(stored);
+
+        if (length == pageSize) {
+            data = stored;
+        } else {
+            inflater.reset();
+            inflater.setInput(stored);
+            try {
+                int inflated = inflater.inflate(data);
+                if (inflated != pageSize || !inflater.finished()) {
+                    throw new IOException("页面 " + pageId + " 解压后长度不正确: " + inflated);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("页面 " + pageId + " 解压失败", e);
+            }
+        }
+
+        verifyChecksum(pageId, data);
+        return new Page(pageId, data);
+    }
+
+    @Override
+    public void writePage(Page page, int pageSize) throws IOException {
+        writePages(List.of(page), pageSize);
+    }
+
+    /**
+     * 先写入所有页面数据并同步一次，再更新映射并同步一次，映射不会指向未落盘的数据
+     */
+    @Override
+    public void writePages(List<Page> pages, int pageSize) throws IOException {
+        if (file == null) return;
+
+        // 每个页面的 {页面ID, 偏移, 压缩后长度, 容量, 原偏移, 原容量}
+        List<long[]> placements = new ArrayList<>(pages.size());
+        for (Page page : pages) {
+            if (page.getPageId() < 0) continue;
+
+            byte[] data = toBytesWithChecksum(page, pageSize);
+            byte[] compressed = compress(data);
+            // 压缩效果不好时以原始形式存放
+            byte[] stored = compressed.length < pageSize ? compressed : data;
+            int capacity = alignUp(stored.length);
+
+            long[] entry = readMapEntry(page.getPageId());
+            long offset;
+            if (entry[2] >= capacity) {
+                // 原extent足够大，原地覆盖
+                offset = entry[0];
+                capacity = (int) entry[2];
+            } else {
+                offset = allocateExtent(capacity);
+            }
+
+            file.seek(offset);
+            file.write(stored);
+            placements.add(new long[]{page.getPageId(), offset, stored.length, capacity, entry[0], entry[2]});
+
+            rawBytesWritten += pageSize;
+            storedBytesWritten += stored.length;
+        }
+        if (placements.isEmpty()) return;
+        file.getFD().sync();
+
+        for (long[] placement : placements) {
+            writeMapEntry((int) placement[0], placement[1], (int) placement[2], (int) placement[3]);
+        }
+        mapFile.getFD().sync();
+
+        // 映射更新完成后才释放旧extent
+        for (long[] placement : placements) {
+            if (placement[5] > 0 && placement[1] != placement[4]) {
+                addFreeExtent(placement[4], (int) placement[5]);
+            }
+        }
+        for (Page page : pages) {
+            page.setDirty(false);
+        }
+    }
+
+    private byte[] compress(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length];
+        int length = deflater.deflate(buffer);
+        if (!deflater.finished()) {
+            // 压缩后不比原始数据小
+            return data;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+    private static int alignUp(int length) {
+        return (length + EXTENT_ALIGNMENT - 1) / EXTENT_ALIGNMENT * EXTENT_ALIGNMENT;
+    }
+
+    @Override
+    public int getPageCount(int pageSize) throws IOException {
+        if (mapFile == null) return 0;
+        return (int) (mapFile.length() / MAP_ENTRY_SIZE);
+    }
+
+    // 压缩比：存放字节数 / 原始字节数
+    public double getCompressionRatio() {
+        return rawBytesWritten > 0 ? (double) storedBytesWritten / rawBytesWritten : 1.0;
+    }
+}
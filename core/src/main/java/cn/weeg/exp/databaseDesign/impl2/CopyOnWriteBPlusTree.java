@@ -0,0 +1,703 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+
+/**
+ * 追加写的写时复制B+树
+ * <p>
+ * 已提交的页面永远不会被原地覆盖：修改节点时把它连同到根的整条路径复制到文件末尾的新页面，
+ * commit时按顺序追加本事务的所有新页面并只同步一次，然后把新的根写入元数据。
+ * 元数据区域中有两个槽位（偏移0和8192），交替写入并带有事务号和校验和，
+ * 打开时选择校验和正确且事务号最大的槽位，因此提交要么完整生效要么完全不可见，不需要WAL。
+ * <p>
+ * 已提交的页面不可变，快照只需记住提交时的根，读取时不获取树的锁。
+ * 被替换的旧页面不回收，文件只增不减。
+ * 节点格式与BPlusTreeImpl相同，但父节点指针和叶子链表指针无法在复制时维护，始终为-1。
+ *
+ * @author weeGiam
+ */
+
+public class CopyOnWriteBPlusTree implements BPlusTree {
+    public static final int MAGIC = 0x434F5754;
+    private static final int[] META_SLOT_OFFSETS = {0, 8192};
+    private static final int META_SLOT_SIZE = 64;
+    private static final int MAX_DEPTH = 50;
+    private static final int DEFAULT_CACHE_SIZE = 100;
+
+    private DiskManager diskManager;
+    private String currentFilename;
+    private int pageSize;
+    private int maxLeafKeys;
+    private int maxInternalKeys;
+
+    // 当前写事务看到的树，以及最近一次提交的树
+    private int rootPageId = -1;
+    private int nextPageId;
+    private volatile int committedRootPageId = -1;
+    private long txnId;
+    // 本事务新分配、尚未写入文件的页面，可以原地修改
+    private final Map<Integer, Page> dirtyPages = new HashMap<>();
+    // 未提交页面达到该数量时自动提交
+    private final int maxDirtyPages;
+    // 应用写批次期间不自动提交，整个批次在一次提交中生效
+    private boolean inBatch;
+
+    // 已提交页面的缓存，页面不可变，只缓存字节内容，每次读取包装成新的Page
+    private final LinkedHashMap<Integer, byte[]> pageCache;
+    private long pageAccessCount;
+    private long cacheHits;
+    private long cacheMisses;
+    private long pagesWritten;
+
+    private int splitCount;
+    private int treeHeight;
+    private int nodeCount;
+    private int leafCount;
+    private int usedSlots;
+
+    private volatile boolean open;
+
+    public CopyOnWriteBPlusTree() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public CopyOnWriteBPlusTree(int cacheSize) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + cacheSize);
+        }
+        this.maxDirtyPages = cacheSize;
+        this.pageCache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void create(String filename, int pageSize) {
+        if (!Page.isValidPageSize(pageSize)) {
+            throw new IllegalArgumentException(String.format(
+                    "页面大小必须是%d到%d之间的2的幂: %d", Page.MIN_PAGE_SIZE, Page.MAX_PAGE_SIZE, pageSize));
+        }
+
+        try {
+            this.currentFilename = filename;
+            diskManager = new DiskManager();
+            diskManager.openFile(filename, pageSize);
+            dirtyPages.clear();
+            synchronized (pageCache) {
+                pageCache.clear();
+            }
+
+            byte[] metadata = diskManager.readMetadata();
+            ByteBuffer slot = latestMetadataSlot(metadata);
+            if (slot != null) {
+                txnId = slot.getLong(4);
+                rootPageId = slot.getInt(12);
+                nextPageId = slot.getInt(16);
+                int storedPageSize = slot.getInt(20);
+                if (storedPageSize != pageSize) {
+                    System.err.println("警告：文件 " + filename + " 的页面大小为 " + storedPageSize
+                            + "，忽略传入的页面大小 " + pageSize);
+                }
+                this.pageSize = storedPageSize;
+                maxLeafKeys = slot.getInt(24);
+                maxInternalKeys = slot.getInt(28);
+                treeHeight = slot.getInt(32);
+                nodeCount = slot.getInt(36);
+                leafCount = slot.getInt(40);
+                usedSlots = slot.getInt(44);
+                splitCount = slot.getInt(48);
+            } else {
+                int magic = ByteBuffer.wrap(metadata).getInt(0);
+                if (magic == 0x12345678) {
+                    diskManager.closeFile();
+                    throw new IllegalStateException("文件 " + filename + " 不是写时复制格式，请使用BPlusTreeImpl打开");
+                }
+                if (magic == MAGIC || ByteBuffer.wrap(metadata).getInt(META_SLOT_OFFSETS[1]) == MAGIC) {
+                    diskManager.closeFile();
+                    throw new IllegalStateException("文件 " + filename + " 的元数据槽位全部损坏");
+                }
+
+                // 新文件
+                this.pageSize = pageSize;
+                maxLeafKeys = LeafNode.calculateMaxKeys(pageSize);
+                maxInternalKeys = InternalNode.calculateMaxKeys(pageSize);
+                txnId = 0;
+                rootPageId = -1;
+                nextPageId = 0;
+                treeHeight = 0;
+                nodeCount = 0;
+                leafCount = 0;
+                usedSlots = 0;
+                splitCount = 0;
+                writeMetadataSlot();
+            }
+            committedRootPageId = rootPageId;
+            open = true;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create/open copy-on-write B+ tree file: " + filename, e);
+        }
+    }
+
+    @Override
+    public synchronized void close(String filename) {
+        if (!open) return;
+        commit();
+        open = false;
+        try {
+            diskManager.closeFile();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close file: " + filename, e);
+        }
+    }
+
+    /**
+     * 提交当前写事务：顺序追加所有新页面并同步一次，然后原子地切换元数据中的根
+     */
+    public synchronized void commit() {
+        checkOpen();
+        if (dirtyPages.isEmpty()) return;
+
+        try {
+            List<Page> pages = new ArrayList<>(new TreeMap<>(dirtyPages).values());
+            diskManager.writePages(pages, pageSize);
+            pagesWritten += pages.size();
+
+            txnId++;
+            writeMetadataSlot();
+
+            synchronized (pageCache) {
+                for (Page page : pages) {
+                    pageCache.put(page.getPageId(), page.getData().array());
+                }
+            }
+            dirtyPages.clear();
+            committedRootPageId = rootPageId;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to commit transaction " + (txnId + 1), e);
+        }
+    }
+
+    @Override
+    public synchronized void insert(String key, String[] value, String rowId) {
+        checkOpen();
+        if (key == null || Page.utf8Length(key) > LeafNode.MAX_INLINE_STRING_BYTES) {
+            throw new IllegalArgumentException("key为空或超过" + LeafNode.MAX_INLINE_STRING_BYTES + "字节: " + key);
+        }
+        if (rowId != null && Page.utf8Length(rowId) > LeafNode.MAX_INLINE_STRING_BYTES) {
+            throw new IllegalArgumentException("rowId超过" + LeafNode.MAX_INLINE_STRING_BYTES + "字节: " + rowId);
+        }
+
+        int overflowPageId = -1;
+        int overflowLength = 0;
+        if (LeafNode.needsOverflow(value, pageSize)) {
+            byte[] encoded = OverflowPage.encodeRow(value);
+            overflowPageId = writeOverflowChain(encoded);
+            overflowLength = encoded.length;
+        }
+
+        if (rootPageId == -1) {
+            LeafNode root = new LeafNode(-1, maxLeafKeys);
+            root.insertKeyValue(key, value, rowId, overflowPageId, overflowLength);
+            rootPageId = writeNode(root, -1);
+            treeHeight = 1;
+            nodeCount = 1;
+            leafCount = 1;
+            usedSlots = 1;
+        } else {
+            int[] result = new int[3];
+            String splitKey = insertInto(rootPageId, key, value, rowId, overflowPageId, overflowLength, 0, result);
+            if (splitKey != null) {
+                // 根节点分裂，树长高一层
+                InternalNode newRoot = new InternalNode(-1, maxInternalKeys);
+                newRoot.insertKeyChild(splitKey, result[0], result[1]);
+                rootPageId = writeNode(newRoot, -1);
+                treeHeight++;
+                nodeCount++;
+                usedSlots++;
+            } else {
+                rootPageId = result[0];
+            }
+        }
+
+        commitIfNeeded();
+    }
+
+    /**
+     * 把行插入以pageId为根的子树，复制路径上的每个节点
+     *
+     * @param result 输出：[0]为子树的新页面ID，分裂时[1]为右侧新节点的页面ID
+     * @return 分裂时提升到上层的key，未分裂返回null
+     */
+    private String insertInto(int pageId, String key, String[] value, String rowId,
+                              int overflowPageId, int overflowLength, int depth, int[] result) {
+        if (depth > MAX_DEPTH) {
+            throw new RuntimeException("最大递归深度超出：B+树结构可能存在循环，深度: " + depth);
+        }
+
+        Page page = readPage(pageId, true);
+        int nodeType = page.readInt(0);
+
+        if (nodeType == 1) {
+            LeafNode leaf = new LeafNode(pageId, maxLeafKeys);
+            leaf.deserialize(page);
+            leaf.setNextLeafPageId(-1);
+
+            if (leaf.canFit(value, overflowPageId != -1, pageSize)) {
+                if (leaf.insertKeyValue(key, value, rowId, overflowPageId, overflowLength)) {
+                    usedSlots++;
+                }
+                result[0] = writeNode(leaf, pageId);
+                return null;
+            }
+
+            LeafNode newLeaf = leaf.split();
+            boolean inserted = key.compareTo(newLeaf.getKeys()[0]) < 0
+                    ? leaf.insertKeyValue(key, value, rowId, overflowPageId, overflowLength)
+                    : newLeaf.insertKeyValue(key, value, rowId, overflowPageId, overflowLength);
+            if (inserted) {
+                usedSlots++;
+            }
+            result[0] = writeNode(leaf, pageId);
+            result[1] = writeNode(newLeaf, -1);
+            splitCount++;
+            nodeCount++;
+            leafCount++;
+            return newLeaf.getKeys()[0];
+        } else if (nodeType == 0) {
+            InternalNode internal = new InternalNode(pageId, maxInternalKeys);
+            internal.deserialize(page);
+            internal.setParentPageId(-1);
+
+            int childIndex = internal.findChildIndex(key);
+            int childPageId = internal.getChildPageIds()[childIndex];
+            String childSplitKey = insertInto(childPageId, key, value, rowId,
+                    overflowPageId, overflowLength, depth + 1, result);
+
+            if (childSplitKey == null) {
+                internal.getChildPageIds()[childIndex] = result[0];
+                result[0] = writeNode(internal, pageId);
+                return null;
+            }
+
+            if (!internal.isFull()) {
+                internal.insertKeyChild(childSplitKey, result[0], result[1]);
+                usedSlots++;
+                result[0] = writeNode(internal, pageId);
+                return null;
+            }
+
+            internal.insertKeyChildForSplit(childSplitKey, result[0], result[1]);
+            InternalNode newInternal = internal.split();
+            String midKey = internal.getSplitMiddleKey();
+            result[0] = writeNode(internal, pageId);
+            result[1] = writeNode(newInternal, -1);
+            splitCount++;
+            nodeCount++;
+            return midKey;
+        } else {
+            throw new IllegalStateException("未知的节点类型: " + nodeType + " 在页面: " + pageId);
+        }
+    }
+
+    @Override
+    public synchronized String[][] get(String key) {
+        checkOpen();
+        return search(rootPageId, key, true);
+    }
+
+    @Override
+    public synchronized void delete(String key) {
+        checkOpen();
+        if (rootPageId == -1) return;
+        int newRoot = deleteFrom(rootPageId, key, 0);
+        if (newRoot != -1) {
+            rootPageId = newRoot;
+            commitIfNeeded();
+        }
+    }
+
+    // 从子树中删除key，返回子树的新页面ID，key不存在时返回-1且不复制任何节点
+    private int deleteFrom(int pageId, String key, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new RuntimeException("删除时最大递归深度超出：B+树结构可能存在循环，深度: " + depth);
+        }
+
+        Page page = readPage(pageId, true);
+        int nodeType = page.readInt(0);
+
+        if (nodeType == 1) {
+            LeafNode leaf = new LeafNode(pageId, maxLeafKeys);
+            leaf.deserialize(page);
+            if (!leaf.removeKey(key)) {
+                return -1;
+            }
+            usedSlots--;
+            leaf.setNextLeafPageId(-1);
+            return writeNode(leaf, pageId);
+        } else if (nodeType == 0) {
+            InternalNode internal = new InternalNode(pageId, maxInternalKeys);
+            internal.deserialize(page);
+            int childIndex = internal.findChildIndex(key);
+            int newChild = deleteFrom(internal.getChildPageIds()[childIndex], key, depth + 1);
+            if (newChild == -1) {
+                return -1;
+            }
+            internal.getChildPageIds()[childIndex] = newChild;
+            internal.setParentPageId(-1);
+            return writeNode(internal, pageId);
+        } else {
+            throw new IllegalStateException("未知的节点类型: " + nodeType + " 在页面: " + pageId);
+        }
+    }
+
+    @Override
+    public synchronized Statistics getStat() {
+        long totalSlots = (long) leafCount * maxLeafKeys + (long) (nodeCount - leafCount) * maxInternalKeys;
+        double fillRate = totalSlots > 0 ? (double) usedSlots / totalSlots : 0.0;
+        synchronized (pageCache) {
+            return new Statistics(fillRate, treeHeight, nodeCount, splitCount, 0,
+                    pageAccessCount, usedSlots, totalSlots,
+                    cacheHits, cacheMisses, 0, pagesWritten);
+        }
+    }
+
+    @Override
+    public synchronized Snapshot snapshot() {
+        checkOpen();
+        // 快照只能看到已提交的树，先提交未完成的修改
+        commit();
+        return new CommittedSnapshot(committedRootPageId);
+    }
+
+    @Override
+    public synchronized String[] compute(String key, BiFunction<String, String[], String[]> function) {
+        return computeRow(key, null, function);
+    }
+
+    @Override
+    public synchronized String[] putIfAbsent(String key, String[] value, String rowId) {
+        String[][] existing = new String[1][];
+        computeRow(key, rowId, (k, old) -> {
+            existing[0] = old;
+            return old != null ? UNCHANGED_ROW : value;
+        });
+        return existing[0];
+    }
+
+    @Override
+    public synchronized String[] merge(String key, String[] value, String rowId,
+                                       BiFunction<String[], String[], String[]> remapping) {
+        return computeRow(key, rowId, (k, old) -> old == null ? value : remapping.apply(old, value));
+    }
+
+    // computeRow的function返回它时保持当前行不变
+    private static final String[] UNCHANGED_ROW = new String[0];
+
+    // 写时复制的插入本身要复制根到叶子的整条路径，先查出当前行，再按结果插入或删除，rowId用于新增的行
+    private String[] computeRow(String key, String rowId, BiFunction<String, String[], String[]> function) {
+        checkOpen();
+        String[] existingRowId = new String[1];
+        String[][] current = search(rootPageId, key, true, existingRowId);
+        String[] oldRow = current.length > 0 && current[0] != null ? current[0].clone() : null;
+        String[] value = function.apply(key, oldRow);
+        if (value == UNCHANGED_ROW) {
+            return oldRow;
+        }
+        if (value == null) {
+            if (current.length > 0) {
+                delete(key);
+            }
+            return null;
+        }
+        insert(key, value, current.length > 0 ? existingRowId[0] : rowId);
+        return value;
+    }
+
+    /**
+     * 整个批次作为一个事务提交；应用中途出错时丢弃本批次的所有页面，树回到批次开始前的状态
+     */
+    @Override
+    public synchronized void write(WriteBatch batch) {
+        checkOpen();
+        if (batch.isEmpty()) return;
+        commit();
+
+        int savedRoot = rootPageId;
+        int savedNextPageId = nextPageId;
+        int savedSplitCount = splitCount;
+        int savedTreeHeight = treeHeight;
+        int savedNodeCount = nodeCount;
+        int savedLeafCount = leafCount;
+        int savedUsedSlots = usedSlots;
+        inBatch = true;
+        try {
+            for (WriteBatch.Op op : batch.latestByKey().values()) {
+                if (op.delete) {
+                    delete(op.key);
+                } else {
+                    insert(op.key, op.value, op.rowId);
+                }
+            }
+        } catch (RuntimeException e) {
+            dirtyPages.clear();
+            rootPageId = savedRoot;
+            nextPageId = savedNextPageId;
+            splitCount = savedSplitCount;
+            treeHeight = savedTreeHeight;
+            nodeCount = savedNodeCount;
+            leafCount = savedLeafCount;
+            usedSlots = savedUsedSlots;
+            throw e;
+        } finally {
+            inBatch = false;
+        }
+        commit();
+    }
+
+    private void commitIfNeeded() {
+        if (!inBatch && dirtyPages.size() >= maxDirtyPages) {
+            commit();
+        }
+    }
+
+    private void checkOpen() {
+        if (!open) {
+            throw new IllegalStateException("B+树文件未打开");
+        }
+    }
+
+    // 写入节点：本事务新分配的页面原地修改，已提交的页面复制到新页面，返回节点所在的页面ID
+    private int writeNode(BPlusTreeNode node, int pageId) {
+        Page page = dirtyPages.get(pageId);
+        if (page == null) {
+            page = new Page(nextPageId++, pageSize);
+            dirtyPages.put(page.getPageId(), page);
+        }
+        node.setParentPageId(-1);
+        node.serialize(page);
+        return page.getPageId();
+    }
+
+    private int writeOverflowChain(byte[] data) {
+        int capacity = OverflowPage.capacity(pageSize);
+        int pageCount = Math.max(1, (data.length + capacity - 1) / capacity);
+        int firstPageId = nextPageId;
+        for (int i = 0; i < pageCount; i++) {
+            Page page = new Page(nextPageId++, pageSize);
+            int offset = i * capacity;
+            int length = Math.min(capacity, data.length - offset);
+            int next = i + 1 < pageCount ? page.getPageId() + 1 : -1;
+            OverflowPage.write(page, next, data, offset, length);
+            dirtyPages.put(page.getPageId(), page);
+        }
+        return firstPageId;
+    }
+
+    /**
+     * 读取页面，includeDirty为false时只读取已提交的页面，可以在不持有树锁的情况下调用
+     */
+    private Page readPage(int pageId, boolean includeDirty) {
+        if (includeDirty) {
+            Page dirty = dirtyPages.get(pageId);
+            if (dirty != null) {
+                synchronized (pageCache) {
+                    pageAccessCount++;
+                }
+                return new Page(pageId, dirty.getData().array());
+            }
+        }
+
+        byte[] data;
+        synchronized (pageCache) {
+            pageAccessCount++;
+            data = pageCache.get(pageId);
+            if (data != null) {
+                cacheHits++;
+                return new Page(pageId, data);
+            }
+            cacheMisses++;
+        }
+        try {
+            data = diskManager.readPage(pageId, pageSize).getData().array();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read page " + pageId, e);
+        }
+        synchronized (pageCache) {
+            pageCache.put(pageId, data);
+        }
+        return new Page(pageId, data);
+    }
+
+    private String[][] search(int rootPageId, String key, boolean includeDirty) {
+        return search(rootPageId, key, includeDirty, null);
+    }
+
+    // rowId不为null时，找到key的同时把行ID写入rowId[0]
+    private String[][] search(int rootPageId, String key, boolean includeDirty, String[] rowId) {
+        int pageId = rootPageId;
+        for (int depth = 0; pageId >= 0; depth++) {
+            if (depth > MAX_DEPTH) {
+                throw new RuntimeException("查询时最大递归深度超出：B+树结构可能存在循环，深度: " + depth);
+            }
+            Page page = readPage(pageId, includeDirty);
+            int nodeType = page.readInt(0);
+            if (nodeType == 1) {
+                LeafNode leaf = new LeafNode(pageId, maxLeafKeys);
+                leaf.deserialize(page);
+                int pos = leaf.indexOf(key);
+                if (pos < 0) {
+                    return new String[0][];
+                }
+                if (rowId != null) {
+                    rowId[0] = leaf.getRowIds()[pos];
+                }
+                return new String[][]{resolveRow(leaf, pos, includeDirty)};
+            } else if (nodeType == 0) {
+                InternalNode internal = new InternalNode(pageId, maxInternalKeys);
+                internal.deserialize(page);
+                pageId = internal.findChild(key);
+            } else {
+                throw new IllegalStateException("未知的节点类型: " + nodeType + " 在页面: " + pageId);
+            }
+        }
+        return new String[0][];
+    }
+
+    private String[] resolveRow(LeafNode leaf, int pos, boolean includeDirty) {
+        int overflowPageId = leaf.getOverflowPageIds()[pos];
+        if (overflowPageId == -1) {
+            return leaf.getValues()[pos];
+        }
+
+        int length = leaf.getOverflowLengths()[pos];
+        byte[] data = new byte[length];
+        int offset = 0;
+        int pageId = overflowPageId;
+        for (int n = 0; pageId != -1 && offset < length; n++) {
+            if (n > length) {
+                throw new RuntimeException("溢出页链存在循环：页面 " + pageId);
+            }
+            Page page = readPage(pageId, includeDirty);
+            offset += OverflowPage.read(page, data, offset);
+            pageId = OverflowPage.getNextPageId(page);
+        }
+        if (offset != length) {
+            throw new IllegalStateException("溢出页链长度不匹配: 期望 " + length + ", 实际 " + offset);
+        }
+        return OverflowPage.decodeRow(data);
+    }
+
+    // 中序遍历已提交的子树
+    private void traverse(int pageId, Snapshot.EntryVisitor visitor, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new RuntimeException("遍历时最大递归深度超出：B+树结构可能存在循环，深度: " + depth);
+        }
+        Page page = readPage(pageId, false);
+        int nodeType = page.readInt(0);
+        if (nodeType == 1) {
+            LeafNode leaf = new LeafNode(pageId, maxLeafKeys);
+            leaf.deserialize(page);
+            for (int i = 0; i < leaf.getKeyCount(); i++) {
+                visitor.visit(leaf.getKeys()[i], resolveRow(leaf, i, false), leaf.getRowIds()[i]);
+            }
+        } else if (nodeType == 0) {
+            InternalNode internal = new InternalNode(pageId, maxInternalKeys);
+            internal.deserialize(page);
+            for (int i = 0; i <= internal.getKeyCount(); i++) {
+                traverse(internal.getChildPageIds()[i], visitor, depth + 1);
+            }
+        } else {
+            throw new IllegalStateException("未知的节点类型: " + nodeType + " 在页面: " + pageId);
+        }
+    }
+
+    // 选择校验和正确且事务号最大的元数据槽位，没有有效槽位返回null
+    private static ByteBuffer latestMetadataSlot(byte[] metadata) {
+        ByteBuffer latest = null;
+        for (int slotOffset : META_SLOT_OFFSETS) {
+            ByteBuffer slot = ByteBuffer.wrap(metadata, slotOffset, META_SLOT_SIZE).slice();
+            if (slot.getInt(0) != MAGIC) continue;
+            byte[] bytes = new byte[META_SLOT_SIZE];
+            slot.duplicate().get(bytes);
+            if (slot.getInt(52) != DiskManager.checksum(bytes, 52)) continue;
+            if (latest == null || slot.getLong(4) > latest.getLong(4)) {
+                latest = slot;
+            }
+        }
+        return latest;
+    }
+
+    // 按事务号交替写入两个槽位，写坏的槽位不会影响另一个槽位中上一次提交的元数据
+    private void writeMetadataSlot() throws IOException {
+        byte[] bytes = new byte[META_SLOT_SIZE];
+        ByteBuffer slot = ByteBuffer.wrap(bytes);
+        slot.putInt(0, MAGIC);
+        slot.putLong(4, txnId);
+        slot.putInt(12, rootPageId);
+        slot.putInt(16, nextPageId);
+        slot.putInt(20, pageSize);
+        slot.putInt(24, maxLeafKeys);
+        slot.putInt(28, maxInternalKeys);
+        slot.putInt(32, treeHeight);
+        slot.putInt(36, nodeCount);
+        slot.putInt(40, leafCount);
+        slot.putInt(44, usedSlots);
+        slot.putInt(48, splitCount);
+        slot.putInt(52, DiskManager.checksum(bytes, 52));
+        diskManager.writeMetadata(META_SLOT_OFFSETS[(int) (txnId % 2)], bytes);
+    }
+
+    // 仅供测试使用：最近一次提交的事务号
+    synchronized long getTxnId() {
+        return txnId;
+    }
+
+    private final class CommittedSnapshot implements Snapshot {
+        private final int snapshotRootPageId;
+        private volatile boolean closed;
+
+        CommittedSnapshot(int rootPageId) {
+            this.snapshotRootPageId = rootPageId;
+        }
+
+        @Override
+        public String[][] get(String key) {
+            checkSnapshotOpen();
+            return search(snapshotRootPageId, key, false);
+        }
+
+        @Override
+        public void forEach(EntryVisitor visitor) {
+            checkSnapshotOpen();
+            if (snapshotRootPageId != -1) {
+                traverse(snapshotRootPageId, visitor, 0);
+            }
+        }
+
+        @Override
+        public void close() {
+            // 已提交的页面不会被覆盖或复用，快照不需要释放任何资源
+            closed = true;
+        }
+
+        private void checkSnapshotOpen() {
+            if (closed) {
+                throw new IllegalStateException("快照已关闭");
+            }
+            if (!open) {
+                throw new IllegalStateException("快照所属的B+树文件已关闭");
+            }
+        }
+    }
+}
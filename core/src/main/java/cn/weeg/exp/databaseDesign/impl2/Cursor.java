@@ -0,0 +1,24 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+/**
+ * 按key顺序逐条读取记录的游标，用法与ResultSet相同：先调用next移动到下一条，再读取当前记录
+ * <p>
+ * 游标每次只在树的锁内读取一个叶子节点，两次读取之间的修改可能被看到也可能看不到，
+ * 但每个key最多返回一次，且返回顺序始终正确。
+ *
+ * @author weeGiam
+ */
+public interface Cursor {
+    /**
+     * 移动到下一条记录
+     *
+     * @return 没有更多记录时返回false
+     */
+    boolean next();
+
+    String key();
+
+    String[] value();
+
+    String rowId();
+}
@@ -1,125 +1,183 @@
-package cn.weeg.exp.databaseDesign.impl2;
-
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-
-/**
- * @author weeGiam
- */
-
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-
-public class DiskManager {
-    private RandomAccessFile file;
-    private String filename;
-
-    public void openFile(String filename, int pageSize) throws IOException {
-        this.filename = filename;
-        boolean exists = Files.exists(Paths.get(filename));
-        this.file = new RandomAccessFile(filename, "rw");
-
-        if (!exists) {
-            // 创建元数据页面（16KB）
-            byte[] metadata = new byte[16384];
-            file.write(metadata);
-            file.getFD().sync();
-        }
-    }
-
-    public void closeFile() throws IOException {
-        if (file != null) {
-            file.close();
-        }
-    }
-
-    public Page readPage(int pageId, int pageSize) throws IOException {
-        if (file == null || pageId < 0) {
-            // 对于无效的页面ID，返回新的空页面
-            return new Page(pageId);
-        }
-
-        long offset = 16384L + (long) pageId * pageSize; // 跳过16KB元数据
-        byte[] data = new byte[pageSize];
-
-        // 检查文件是否足够大
-        long fileLength = file.length();
-        if (offset >= fileLength) {
-            // 文件不够大，返回全零的页面
-            return new Page(pageId, data); // data已经是全零数组
-        }
-
-        file.seek(offset);
-        int bytesRead = file.read(data);
-
-        if (bytesRead == -1) {
-            // 到达文件末尾，没有读取到任何数据，使用全零数组
-            data = new byte[pageSize]; // 重新创建全零数组
-        } else if (bytesRead < pageSize) {
-            // 部分读取，填充剩余部分为零
-            for (int i = bytesRead; i < pageSize; i++) {
-                data[i] = 0;
-            }
-        }
-
-        return new Page(pageId, data);
-    }
-
-    public void writePage(Page page, int pageSize) throws IOException {
-        if (file == null || page.getPageId() < 0) return;
-
-        long offset = 16384L + (long) page.getPageId() * pageSize;
-
-        // 确保文件足够大
-        long fileLength = file.length();
-        if (offset + pageSize > fileLength) {
-            // 扩展文件大小
-            file.setLength(offset + pageSize);
-        }
-
-        file.seek(offset);
-
-        byte[] data = new byte[pageSize];
-        page.getData().rewind();
-        page.getData().get(data);
-
-        file.write(data);
-        file.getFD().sync();
-        page.setDirty(false);
-    }
-
-    public void writeMetadata(byte[] metadata) throws IOException {
-        if (file == null) return;
-        file.seek(0);
-        file.write(metadata);
-        file.getFD().sync();
-    }
-
-    public byte[] readMetadata() throws IOException {
-        if (file == null) return new byte[16384];
-
-        // 检查文件是否足够大来读取元数据
-        if (file.length() < 16384) {
-            // 文件太小，返回全零的元数据
-            return new byte[16384];
-        }
-
-        file.seek(0);
-        byte[] metadata = new byte[16384];
-        int bytesRead = file.read(metadata);
-
-        if (bytesRead == -1) {
-            // 到达文件末尾，返回全零数组
-            return new byte[16384];
-        } else if (bytesRead < 16384) {
-            // 部分读取，填充剩余部分为零
-            for (int i = bytesRead; i < 16384; i++) {
-                metadata[i] = 0;
-            }
-        }
-
-        return metadata;
-    }
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * @author weeGiam
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class DiskManager {
+    protected RandomAccessFile file;
+    protected String filename;
+
+    public void openFile(String filename, int pageSize) throws IOException {
+        this.filename = filename;
+        boolean exists = Files.exists(Paths.get(filename));
+        this.file = new RandomAccessFile(filename, "rw");
+
+        if (!exists) {
+            // 创建元数据页面（16KB）
+            byte[] metadata = new byte[16384];
+            file.write(metadata);
+            file.getFD().sync();
+        }
+    }
+
+    public void closeFile() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    public Page readPage(int pageId, int pageSize) throws IOException {
+        if (file == null || pageId < 0) {
+            // 对于无效的页面ID，返回新的空页面
+            return new Page(pageId, pageSize);
+        }
+
+        long offset = 16384L + (long) pageId * pageSize; // 跳过16KB元数据
+        byte[] data = new byte[pageSize];
+
+        // 检查文件是否足够大
+        long fileLength = file.length();
+        if (offset >= fileLength) {
+            // 文件不够大，返回全零的页面
+            return new Page(pageId, data); // data已经是全零数组
+        }
+
+        // 使用定位读取，不改变文件指针，允许多个线程同时读取
+        int bytesRead = file.getChannel().read(ByteBuffer.wrap(data), offset);
+
+        if (bytesRead == -1) {
+            // 到达文件末尾，没有读取到任何数据，使用全零数组
+            data = new byte[pageSize]; // 重新创建全零数组
+        } else if (bytesRead < pageSize) {
+            // 部分读取，填充剩余部分为零
+            for (int i = bytesRead; i < pageSize; i++) {
+                data[i] = 0;
+            }
+        }
+
+        verifyChecksum(pageId, data);
+        return new Page(pageId, data);
+    }
+
+    // 校验和为0表示页面从未写入或由旧版本写入，跳过校验
+    protected void verifyChecksum(int pageId, byte[] data) throws IOException {
+        int stored = ByteBuffer.wrap(data).getInt(data.length - Page.CHECKSUM_SIZE);
+        if (stored == 0) return;
+
+        int actual = checksum(data, data.length - Page.CHECKSUM_SIZE);
+        if (stored != actual) {
+            throw new IOException(String.format("页面 %d 校验和不匹配: 期望 %08x, 实际 %08x", pageId, stored, actual));
+        }
+    }
+
+    public static int checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    // 文件中已存在的数据页数量（不含元数据区域）
+    public int getPageCount(int pageSize) throws IOException {
+        if (file == null) return 0;
+        long dataLength = file.length() - 16384L;
+        return dataLength <= 0 ? 0 : (int) ((dataLength + pageSize - 1) / pageSize);
+    }
+
+    public void writePage(Page page, int pageSize) throws IOException {
+        if (file == null || page.getPageId() < 0) return;
+
+        long offset = 16384L + (long) page.getPageId() * pageSize;
+
+        // 确保文件足够大
+        long fileLength = file.length();
+        if (offset + pageSize > fileLength) {
+            // 扩展文件大小
+            file.setLength(offset + pageSize);
+        }
+
+        file.seek(offset);
+        file.write(toBytesWithChecksum(page, pageSize));
+        file.getFD().sync();
+        page.setDirty(false);
+    }
+
+    /**
+     * 按页面ID顺序写入一批页面，全部写完后只同步一次
+     */
+    public void writePages(List<Page> pages, int pageSize) throws IOException {
+        if (file == null || pages.isEmpty()) return;
+
+        for (Page page : pages) {
+            long offset = 16384L + (long) page.getPageId() * pageSize;
+            file.seek(offset);
+            file.write(toBytesWithChecksum(page, pageSize));
+            page.setDirty(false);
+        }
+        file.getFD().sync();
+    }
+
+    // 复制页面内容并在页尾写入校验和
+    protected byte[] toBytesWithChecksum(Page page, int pageSize) {
+        byte[] data = new byte[pageSize];
+        page.getData().rewind();
+        page.getData().get(data);
+        ByteBuffer.wrap(data).putInt(pageSize - Page.CHECKSUM_SIZE, checksum(data, pageSize - Page.CHECKSUM_SIZE));
+        return data;
+    }
+
+    public void writeMetadata(byte[] metadata) throws IOException {
+        if (file == null) return;
+        file.seek(0);
+        file.write(metadata);
+        file.getFD().sync();
+    }
+
+    // 只覆盖元数据区域中的一段
+    public void writeMetadata(int offset, byte[] data) throws IOException {
+        if (file == null) return;
+        if (offset < 0 || offset + data.length > 16384) {
+            throw new IllegalArgumentException("元数据写入越界: offset=" + offset + ", length=" + data.length);
+        }
+        file.seek(offset);
+        file.write(data);
+        file.getFD().sync();
+    }
+
+    public byte[] readMetadata() throws IOException {
+        if (file == null) return new byte[16384];
+
+        // 检查文件是否足够大来读取元数据
+        if (file.length() < 16384) {
+            // 文件太小，返回全零的元数据
+            return new byte[16384];
+        }
+
+        file.seek(0);
+        byte[] metadata = new byte[16384];
+        int bytesRead = file.read(metadata);
+
+        if (bytesRead == -1) {
+            // 到达文件末尾，返回全零数组
+            return new byte[16384];
+        } else if (bytesRead < 16384) {
+            // 部分读取，填充剩余部分为零
+            for (int i = bytesRead; i < 16384; i++) {
+                metadata[i] = 0;
+            }
+        }
+
+        return metadata;
+    }
 }
\ No newline at end of file
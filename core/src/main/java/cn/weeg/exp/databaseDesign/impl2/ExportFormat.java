@@ -0,0 +1,124 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 导出流格式：与页面大小、压缩和value log无关，只包含按key升序排列的记录
+ * <p>
+ * 流布局：魔数(4) + 版本(4) + 若干条记录 + 结束标记(4, 值为-1) + 记录数(8)。
+ * 每条记录为 key + rowId + valueCount(4, null为-1) + 每个value，
+ * 字符串编码为 长度(4, null为-1) + UTF-8内容。
+ *
+ * @author weeGiam
+ */
+
+public class ExportFormat {
+    private static final int MAGIC = 0x42505458;
+    private static final int VERSION = 1;
+    private static final int END_OF_RECORDS = -1;
+    // 单个字符串的长度上限，超过时视为流已损坏，避免按错误的长度分配内存
+    private static final int MAX_STRING_BYTES = 64 * 1024 * 1024;
+
+    private ExportFormat() {
+    }
+
+    public static final class Record {
+        public final String key;
+        public final String[] value;
+        public final String rowId;
+
+        Record(String key, String[] value, String rowId) {
+            this.key = key;
+            this.value = value;
+            this.rowId = rowId;
+        }
+    }
+
+    public static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    public static void writeRecord(DataOutputStream out, String key, String[] value, String rowId) throws IOException {
+        writeString(out, key);
+        writeString(out, rowId);
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        for (String v : value) {
+            writeString(out, v);
+        }
+    }
+
+    public static void writeTrailer(DataOutputStream out, long recordCount) throws IOException {
+        out.writeInt(END_OF_RECORDS);
+        out.writeLong(recordCount);
+    }
+
+    public static void readHeader(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        int version = in.readInt();
+        if (magic != MAGIC) {
+            throw new IllegalArgumentException("不是B+树导出流，魔数: " + Integer.toHexString(magic));
+        }
+        if (version != VERSION) {
+            throw new IllegalArgumentException("不支持的导出流版本: " + version);
+        }
+    }
+
+    /**
+     * 读取下一条记录，读到结束标记时返回null，之后用readTrailer读取记录数
+     */
+    public static Record readRecord(DataInputStream in) throws IOException {
+        int keyLength = in.readInt();
+        if (keyLength == END_OF_RECORDS) return null;
+        String key = readString(in, keyLength);
+        String rowId = readString(in, in.readInt());
+        int valueCount = in.readInt();
+        if (valueCount < -1 || valueCount > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("导出流已损坏，value个数: " + valueCount);
+        }
+        String[] value = null;
+        if (valueCount >= 0) {
+            value = new String[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                value[i] = readString(in, in.readInt());
+            }
+        }
+        return new Record(key, value, rowId);
+    }
+
+    public static long readTrailer(DataInputStream in) throws IOException {
+        return in.readLong();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length == -1) return null;
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("导出流已损坏，字符串长度: " + length);
+        }
+        byte[] bytes = new byte[length];
+        try {
+            in.readFully(bytes);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("导出流意外结束", e);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
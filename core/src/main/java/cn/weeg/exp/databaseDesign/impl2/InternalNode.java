@@ -1,278 +1,449 @@
-package cn.weeg.exp.databaseDesign.impl2;
-
-/**
- * @author weeGiam
- */
-
-public class InternalNode extends BPlusTreeNode {
-    private int[] childPageIds;
-    private final int maxKeys;
-    private String splitMiddleKey; // 用于存储分裂时的中间key
-
-    public InternalNode(int pageId, int maxKeys) {
-        super(pageId, false, maxKeys);
-        this.maxKeys = maxKeys;
-        // 修正：keys数组也需要多一个位置用于分裂时的临时存储
-        this.keys = new String[maxKeys + 1];
-        this.childPageIds = new int[maxKeys + 2]; // 子节点指针数组保持不变
-        // 初始化所有子节点指针为-1
-        for (int i = 0; i < childPageIds.length; i++) {
-            childPageIds[i] = -1;
-        }
-    }
-
-    @Override
-    public void serialize(Page page) {
-        page.clear();
-        int offset = 0;
-
-        // 写入节点类型
-        page.writeInt(offset, 0); // 0表示内部节点
-        offset += 4;
-
-        // 写入key数量
-        page.writeInt(offset, keyCount);
-        offset += 4;
-
-        // 写入父节点页面ID
-        page.writeInt(offset, parentPageId);
-        offset += 4;
-
-        // 写入keys
-        for (int i = 0; i < maxKeys; i++) {
-            if (i < keyCount && keys[i] != null) {
-                page.writeString(offset, keys[i], 64);
-            } else {
-                page.writeString(offset, "", 64);
-            }
-            offset += 64;
-        }
-
-        // 写入子节点页面IDs
-        for (int i = 0; i <= maxKeys; i++) {
-            if (i <= keyCount) {
-                page.writeInt(offset, childPageIds[i]);
-            } else {
-                page.writeInt(offset, -1);
-            }
-            offset += 4;
-        }
-    }
-
-    @Override
-    public void deserialize(Page page) {
-        int offset = 4; // 跳过节点类型
-
-        keyCount = page.readInt(offset);
-        offset += 4;
-
-        parentPageId = page.readInt(offset);
-        offset += 4;
-
-        // 读取keys
-        for (int i = 0; i < maxKeys; i++) {
-            String key = page.readString(offset, 64);
-            if (i < keyCount && !key.isEmpty()) {
-                keys[i] = key;
-            } else {
-                keys[i] = null;
-            }
-            offset += 64;
-        }
-
-        // 读取子节点页面IDs
-        for (int i = 0; i <= maxKeys; i++) {
-            childPageIds[i] = page.readInt(offset);
-            offset += 4;
-        }
-    }
-
-    @Override
-    public boolean isFull() {
-        return keyCount >= maxKeys;
-    }
-
-    @Override
-    public boolean isUnderflow() {
-        return keyCount < maxKeys / 2;
-    }
-
-    public int findChild(String key) {
-        // 如果没有key，返回第一个子节点
-        if (keyCount == 0) {
-            return childPageIds[0];
-        }
-
-        int pos = 0;
-        // 找到第一个大于key的位置
-        while (pos < keyCount && keys[pos] != null && key.compareTo(keys[pos]) >= 0) {
-            pos++;
-        }
-
-        // 确保返回有效的子节点ID
-        if (pos <= keyCount && childPageIds[pos] != -1) {
-            return childPageIds[pos];
-        }
-
-        // 如果找不到有效的子节点，返回第一个有效的子节点
-        for (int i = 0; i <= keyCount; i++) {
-            if (childPageIds[i] != -1) {
-                return childPageIds[i];
-            }
-        }
-
-        // 如果所有子节点都无效，返回-1
-        return -1;
-    }
-
-    public void insertKeyChild(String key, int leftChildId, int rightChildId) {
-        if (keyCount >= maxKeys) {
-            throw new IllegalStateException("内部节点已满，无法插入更多key。keyCount=" + keyCount + ", maxKeys=" + maxKeys);
-        }
-
-        int pos = 0;
-        // 找到插入位置
-        while (pos < keyCount && keys[pos] != null && key.compareTo(keys[pos]) > 0) {
-            pos++;
-        }
-
-        // 移动现有的keys和子节点指针
-        for (int i = keyCount; i > pos; i--) {
-            keys[i] = keys[i - 1];
-        }
-        for (int i = keyCount + 1; i > pos + 1; i--) {
-            childPageIds[i] = childPageIds[i - 1];
-        }
-
-        // 插入新的key和子节点指针
-        keys[pos] = key;
-        childPageIds[pos] = leftChildId;
-        childPageIds[pos + 1] = rightChildId;
-        keyCount++;
-
-        System.out.println("向内部节点插入: key=" + key + ", pos=" + pos + ", keyCount=" + keyCount);
-    }
-
-    // 用于分裂时的插入（允许临时超过容量）
-    public void insertKeyChildForSplit(String key, int leftChildId, int rightChildId) {
-        // 修正：检查是否会越界，keys数组现在是maxKeys+1大小
-        if (keyCount >= maxKeys + 1) {
-            throw new IllegalStateException("内部节点超过分裂容量限制。keyCount=" + keyCount + ", maxKeys=" + maxKeys);
-        }
-
-        int pos = 0;
-        // 找到插入位置
-        while (pos < keyCount && keys[pos] != null && key.compareTo(keys[pos]) > 0) {
-            pos++;
-        }
-
-        // 修正：确保数组移动操作不会越界
-        // 移动现有的keys（最多移动到maxKeys位置）
-        for (int i = Math.min(keyCount, maxKeys); i > pos; i--) {
-            if (i < keys.length && i - 1 >= 0) {
-                keys[i] = keys[i - 1];
-            }
-        }
-
-        // 移动现有的子节点指针
-        for (int i = Math.min(keyCount + 1, maxKeys + 1); i > pos + 1; i--) {
-            if (i < childPageIds.length && i - 1 >= 0) {
-                childPageIds[i] = childPageIds[i - 1];
-            }
-        }
-
-        // 插入新的key和子节点指针
-        if (pos < keys.length) {
-            keys[pos] = key;
-        }
-        if (pos < childPageIds.length) {
-            childPageIds[pos] = leftChildId;
-        }
-        if (pos + 1 < childPageIds.length) {
-            childPageIds[pos + 1] = rightChildId;
-        }
-        keyCount++;
-
-        System.out.println("向内部节点插入(用于分裂): key=" + key + ", pos=" + pos + ", keyCount=" + keyCount);
-    }
-
-    public InternalNode split() {
-        if (keyCount < 3) {
-            throw new IllegalStateException("内部节点keys太少，无法分裂");
-        }
-
-        int midIndex = keyCount / 2;
-        splitMiddleKey = keys[midIndex]; // 保存中间key，它将被提升到父节点
-        InternalNode newInternal = new InternalNode(-1, maxKeys);
-
-        System.out.println("开始分裂内部节点: keyCount=" + keyCount + ", midIndex=" + midIndex + ", midKey=" + splitMiddleKey);
-
-        // 移动后半部分的keys到新节点（不包括中间key）
-        for (int i = midIndex + 1; i < keyCount; i++) {
-            int newIndex = i - midIndex - 1;
-            if (newIndex < newInternal.keys.length && i < keys.length) {
-                newInternal.keys[newIndex] = keys[i];
-                keys[i] = null; // 清空原位置
-                newInternal.keyCount++;
-                System.out.println("移动key到新内部节点: " + newInternal.keys[newIndex] + " -> 位置" + newIndex);
-            }
-        }
-
-        // 移动后半部分的子节点指针到新节点
-        for (int i = midIndex + 1; i <= keyCount; i++) {
-            int newIndex = i - midIndex - 1;
-            if (newIndex < newInternal.childPageIds.length && i < childPageIds.length) {
-                newInternal.childPageIds[newIndex] = childPageIds[i];
-                childPageIds[i] = -1; // 清空原位置
-                System.out.println("移动子节点到新内部节点: " + newInternal.childPageIds[newIndex] + " -> 位置" + newIndex);
-            }
-        }
-
-        // 清空中间key（它会被提升到父节点）
-        if (midIndex < keys.length) {
-            keys[midIndex] = null;
-        }
-
-        // 更新当前节点的key数量
-        keyCount = midIndex;
-
-        System.out.println("内部节点分裂完成: 原节点keyCount=" + keyCount + ", 新节点keyCount=" + newInternal.keyCount);
-
-        return newInternal;
-    }
-
-    public String getMiddleKey() {
-        if (keyCount == 0) {
-            throw new IllegalStateException("内部节点没有keys");
-        }
-        int midIndex = keyCount / 2;
-        return keys[midIndex];
-    }
-
-    public String getSplitMiddleKey() {
-        return splitMiddleKey;
-    }
-
-    // Getters and setters
-    public int[] getChildPageIds() { return childPageIds; }
-    public void setPageId(int pageId) { this.pageId = pageId; }
-
-    // 调试方法
-    public void printNode() {
-        System.out.println("InternalNode " + pageId + ":");
-        System.out.println("  Parent: " + parentPageId);
-        System.out.println("  KeyCount: " + keyCount + "/" + maxKeys);
-        System.out.print("  Keys: [");
-        for (int i = 0; i < keyCount; i++) {
-            System.out.print(keys[i]);
-            if (i < keyCount - 1) System.out.print(", ");
-        }
-        System.out.println("]");
-        System.out.print("  Children: [");
-        for (int i = 0; i <= keyCount; i++) {
-            System.out.print(childPageIds[i]);
-            if (i < keyCount) System.out.print(", ");
-        }
-        System.out.println("]");
-    }
+package cn.weeg.exp.databaseDesign.impl2;
+
+/**
+ * @author weeGiam
+ */
+
+public class InternalNode extends BPlusTreeNode {
+    private int[] childPageIds;
+    // 每个子树中的记录数，与childPageIds一一对应，用于按排名查找
+    private int[] childCounts;
+    private final int maxKeys;
+    private String splitMiddleKey; // 用于存储分裂时的中间key
+    // 转换后的子节点引用：子页面常驻缓冲池时直接指向其页面，下标与childPageIds一致
+    private Page[] childFrames;
+
+    public InternalNode(int pageId, int maxKeys) {
+        super(pageId, false, maxKeys);
+        this.maxKeys = maxKeys;
+        // 修正：keys数组也需要多一个位置用于分裂时的临时存储
+        this.keys = new String[maxKeys + 1];
+        this.childPageIds = new int[maxKeys + 2]; // 子节点指针数组保持不变
+        this.childCounts = new int[maxKeys + 2];
+        // 初始化所有子节点指针为-1
+        for (int i = 0; i < childPageIds.length; i++) {
+            childPageIds[i] = -1;
+        }
+    }
+
+    /**
+     * 根据页面大小计算内部节点能容纳的最大key数量
+     */
+    public static int calculateMaxKeys(int pageSize) {
+        // 页面头部：节点类型(4) + keyCount(4) + parentPageId(4) = 12字节
+        // 每个key占64字节，maxKeys+1个子节点指针和子树记录数各占4字节，页尾保留校验和
+        int headerSize = 12;
+        int maxKeys = (pageSize - headerSize - Page.CHECKSUM_SIZE - 8) / (64 + 8);
+        return Math.max(3, maxKeys);
+    }
+
+    /**
+     * 页面中是否有空间保存子树记录数，旧版本文件按不含记录数的扇出创建，可能没有空间
+     */
+    public static boolean hasRoomForCounts(int maxKeys, int pageSize) {
+        return countsOffset(maxKeys) + (maxKeys + 1) * 4 <= pageSize - Page.CHECKSUM_SIZE;
+    }
+
+    private static int countsOffset(int maxKeys) {
+        return 12 + maxKeys * 64 + (maxKeys + 1) * 4;
+    }
+
+    @Override
+    public void serialize(Page page) {
+        page.clear();
+        int offset = 0;
+
+        // 写入节点类型
+        page.writeInt(offset, 0); // 0表示内部节点
+        offset += 4;
+
+        // 写入key数量
+        page.writeInt(offset, keyCount);
+        offset += 4;
+
+        // 写入父节点页面ID
+        page.writeInt(offset, parentPageId);
+        offset += 4;
+
+        // 写入keys
+        for (int i = 0; i < maxKeys; i++) {
+            if (i < keyCount && keys[i] != null) {
+                page.writeString(offset, keys[i], 64);
+            } else {
+                page.writeString(offset, "", 64);
+            }
+            offset += 64;
+        }
+
+        // 写入子节点页面IDs
+        for (int i = 0; i <= maxKeys; i++) {
+            if (i <= keyCount) {
+                page.writeInt(offset, childPageIds[i]);
+            } else {
+                page.writeInt(offset, -1);
+            }
+            offset += 4;
+        }
+
+        // 写入子树记录数
+        if (hasRoomForCounts(maxKeys, page.getPageSize())) {
+            for (int i = 0; i <= maxKeys; i++) {
+                page.writeInt(offset, i <= keyCount ? childCounts[i] : 0);
+                offset += 4;
+            }
+        }
+    }
+
+    @Override
+    public void deserialize(Page page) {
+        int offset = 4; // 跳过节点类型
+
+        keyCount = page.readInt(offset);
+        offset += 4;
+
+        parentPageId = page.readInt(offset);
+        offset += 4;
+
+        // 读取keys
+        for (int i = 0; i < maxKeys; i++) {
+            String key = page.readString(offset, 64);
+            if (i < keyCount && !key.isEmpty()) {
+                keys[i] = key;
+            } else {
+                keys[i] = null;
+            }
+            offset += 64;
+        }
+
+        // 读取子节点页面IDs
+        for (int i = 0; i <= maxKeys; i++) {
+            childPageIds[i] = page.readInt(offset);
+            offset += 4;
+        }
+
+        // 读取子树记录数，没有空间保存时全部为0，由树标记为不可用
+        boolean hasCounts = hasRoomForCounts(maxKeys, page.getPageSize());
+        for (int i = 0; i <= maxKeys; i++) {
+            childCounts[i] = hasCounts ? page.readInt(offset) : 0;
+            offset += 4;
+        }
+        invalidateKeyPrefixes();
+        unswizzleAll();
+    }
+
+    @Override
+    public boolean isFull() {
+        return keyCount >= maxKeys;
+    }
+
+    @Override
+    public boolean isUnderflow() {
+        return keyCount < maxKeys / 2;
+    }
+
+    /**
+     * key所在子节点在childPageIds中的下标，即第一个大于key的位置
+     */
+    public int findChildIndex(String key) {
+        int pos = binarySearch(key);
+        if (pos < keyCount && keys[pos] != null && keys[pos].equals(key)) {
+            pos++;
+        }
+        return pos;
+    }
+
+    public int findChild(String key) {
+        // 如果没有key，返回第一个子节点
+        if (keyCount == 0) {
+            return childPageIds[0];
+        }
+
+        int pos = findChildIndex(key);
+
+        // 确保返回有效的子节点ID
+        if (pos <= keyCount && childPageIds[pos] != -1) {
+            return childPageIds[pos];
+        }
+
+        // 如果找不到有效的子节点，返回第一个有效的子节点
+        for (int i = 0; i <= keyCount; i++) {
+            if (childPageIds[i] != -1) {
+                return childPageIds[i];
+            }
+        }
+
+        // 如果所有子节点都无效，返回-1
+        return -1;
+    }
+
+    public void insertKeyChild(String key, int leftChildId, int rightChildId) {
+        if (keyCount >= maxKeys) {
+            throw new IllegalStateException("内部节点已满，无法插入更多key。keyCount=" + keyCount + ", maxKeys=" + maxKeys);
+        }
+
+        int pos = 0;
+        // 找到插入位置
+        while (pos < keyCount && keys[pos] != null && key.compareTo(keys[pos]) > 0) {
+            pos++;
+        }
+
+        // 移动现有的keys和子节点指针
+        for (int i = keyCount; i > pos; i--) {
+            keys[i] = keys[i - 1];
+        }
+        for (int i = keyCount + 1; i > pos + 1; i--) {
+            childPageIds[i] = childPageIds[i - 1];
+            childCounts[i] = childCounts[i - 1];
+        }
+
+        // 插入新的key和子节点指针，两个子树的记录数由调用方设置
+        keys[pos] = key;
+        childPageIds[pos] = leftChildId;
+        childPageIds[pos + 1] = rightChildId;
+        keyCount++;
+        invalidateKeyPrefixes();
+        unswizzleAll();
+
+        System.out.println("向内部节点插入: key=" + key + ", pos=" + pos + ", keyCount=" + keyCount);
+    }
+
+    // 用于分裂时的插入（允许临时超过容量）
+    public void insertKeyChildForSplit(String key, int leftChildId, int rightChildId) {
+        // 修正：检查是否会越界，keys数组现在是maxKeys+1大小
+        if (keyCount >= maxKeys + 1) {
+            throw new IllegalStateException("内部节点超过分裂容量限制。keyCount=" + keyCount + ", maxKeys=" + maxKeys);
+        }
+
+        int pos = 0;
+        // 找到插入位置
+        while (pos < keyCount && keys[pos] != null && key.compareTo(keys[pos]) > 0) {
+            pos++;
+        }
+
+        // 修正：确保数组移动操作不会越界
+        // 移动现有的keys（最多移动到maxKeys位置）
+        for (int i = Math.min(keyCount, maxKeys); i > pos; i--) {
+            if (i < keys.length && i - 1 >= 0) {
+                keys[i] = keys[i - 1];
+            }
+        }
+
+        // 移动现有的子节点指针
+        for (int i = Math.min(keyCount + 1, maxKeys + 1); i > pos + 1; i--) {
+            if (i < childPageIds.length && i - 1 >= 0) {
+                childPageIds[i] = childPageIds[i - 1];
+                childCounts[i] = childCounts[i - 1];
+            }
+        }
+
+        // 插入新的key和子节点指针
+        if (pos < keys.length) {
+            keys[pos] = key;
+        }
+        if (pos < childPageIds.length) {
+            childPageIds[pos] = leftChildId;
+        }
+        if (pos + 1 < childPageIds.length) {
+            childPageIds[pos + 1] = rightChildId;
+        }
+        keyCount++;
+        invalidateKeyPrefixes();
+        unswizzleAll();
+
+        System.out.println("向内部节点插入(用于分裂): key=" + key + ", pos=" + pos + ", keyCount=" + keyCount);
+    }
+
+    public InternalNode split() {
+        if (keyCount < 3) {
+            throw new IllegalStateException("内部节点keys太少，无法分裂");
+        }
+
+        int midIndex = keyCount / 2;
+        splitMiddleKey = keys[midIndex]; // 保存中间key，它将被提升到父节点
+        InternalNode newInternal = new InternalNode(-1, maxKeys);
+
+        System.out.println("开始分裂内部节点: keyCount=" + keyCount + ", midIndex=" + midIndex + ", midKey=" + splitMiddleKey);
+
+        // 移动后半部分的keys到新节点（不包括中间key）
+        for (int i = midIndex + 1; i < keyCount; i++) {
+            int newIndex = i - midIndex - 1;
+            if (newIndex < newInternal.keys.length && i < keys.length) {
+                newInternal.keys[newIndex] = keys[i];
+                keys[i] = null; // 清空原位置
+                newInternal.keyCount++;
+                System.out.println("移动key到新内部节点: " + newInternal.keys[newIndex] + " -> 位置" + newIndex);
+            }
+        }
+
+        // 移动后半部分的子节点指针到新节点
+        for (int i = midIndex + 1; i <= keyCount; i++) {
+            int newIndex = i - midIndex - 1;
+            if (newIndex < newInternal.childPageIds.length && i < childPageIds.length) {
+                newInternal.childPageIds[newIndex] = childPageIds[i];
+                newInternal.childCounts[newIndex] = childCounts[i];
+                childPageIds[i] = -1; // 清空原位置
+                childCounts[i] = 0;
+                System.out.println("移动子节点到新内部节点: " + newInternal.childPageIds[newIndex] + " -> 位置" + newIndex);
+            }
+        }
+
+        // 清空中间key（它会被提升到父节点）
+        if (midIndex < keys.length) {
+            keys[midIndex] = null;
+        }
+
+        // 更新当前节点的key数量
+        keyCount = midIndex;
+        invalidateKeyPrefixes();
+        unswizzleAll();
+
+        System.out.println("内部节点分裂完成: 原节点keyCount=" + keyCount + ", 新节点keyCount=" + newInternal.keyCount);
+
+        return newInternal;
+    }
+
+    public String getMiddleKey() {
+        if (keyCount == 0) {
+            throw new IllegalStateException("内部节点没有keys");
+        }
+        int midIndex = keyCount / 2;
+        return keys[midIndex];
+    }
+
+    public String getSplitMiddleKey() {
+        return splitMiddleKey;
+    }
+
+    /**
+     * 下标为index的子节点已转换的页面引用，未转换时返回null
+     */
+    public Page getChildFrame(int index) {
+        if (childFrames == null) return null;
+        Page child = childFrames[index];
+        if (child != null && child.getPageId() != childPageIds[index]) {
+            // 子节点指针已被改写，引用作废
+            unswizzle(child);
+            return null;
+        }
+        return child;
+    }
+
+    // 将常驻的子页面记录为直接引用，页面被驱逐或释放时由缓冲池换回页面ID
+    public void swizzle(int index, Page child) {
+        if (childFrames == null) {
+            childFrames = new Page[childPageIds.length];
+        }
+        childFrames[index] = child;
+        child.setSwizzledIn(this);
+    }
+
+    public void unswizzle(Page child) {
+        if (child.getSwizzledIn() == this) {
+            child.setSwizzledIn(null);
+        }
+        if (childFrames == null) return;
+        for (int i = 0; i < childFrames.length; i++) {
+            if (childFrames[i] == child) {
+                childFrames[i] = null;
+            }
+        }
+    }
+
+    // 子节点指针移动后下标不再对应，全部换回页面ID
+    public void unswizzleAll() {
+        if (childFrames == null) return;
+        for (Page child : childFrames) {
+            if (child != null && child.getSwizzledIn() == this) {
+                child.setSwizzledIn(null);
+            }
+        }
+        childFrames = null;
+    }
+
+    // 子节点pageId在childPageIds中的下标，不存在时返回-1
+    public int indexOfChild(int childPageId) {
+        for (int i = 0; i <= keyCount; i++) {
+            if (childPageIds[i] == childPageId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 自下而上批量构建时在最右侧追加子节点，separator为该子树中最小的key，第一个子节点不需要分隔key
+     */
+    public void appendChild(String separator, int childPageId, int count) {
+        if (childPageIds[0] == -1) {
+            childPageIds[0] = childPageId;
+            childCounts[0] = count;
+            return;
+        }
+        if (keyCount >= maxKeys) {
+            throw new IllegalStateException("内部节点已满，无法追加子节点。keyCount=" + keyCount + ", maxKeys=" + maxKeys);
+        }
+        keys[keyCount] = separator;
+        childPageIds[keyCount + 1] = childPageId;
+        childCounts[keyCount + 1] = count;
+        keyCount++;
+        invalidateKeyPrefixes();
+    }
+
+    /**
+     * 删除下标在[from, to]之间的连续子节点及其分隔key，返回删除的key数
+     * <p>
+     * 右侧还有子节点时删除这些子节点右边的分隔key，否则删除左边的分隔key，
+     * 被删除的子树中已没有记录，剩余子节点的范围向中间扩展。全部删除时节点为空。
+     */
+    public int removeChildren(int from, int to) {
+        int removed = to - from + 1;
+        int removedKeys = Math.min(removed, keyCount);
+        int firstKey = to < keyCount ? from : Math.max(0, from - 1);
+        for (int i = firstKey; i < keyCount; i++) {
+            keys[i] = i + removedKeys < keyCount ? keys[i + removedKeys] : null;
+        }
+        for (int i = from; i <= keyCount; i++) {
+            boolean shifted = i + removed <= keyCount;
+            childPageIds[i] = shifted ? childPageIds[i + removed] : -1;
+            childCounts[i] = shifted ? childCounts[i + removed] : 0;
+        }
+        keyCount -= removedKeys;
+        invalidateKeyPrefixes();
+        unswizzleAll();
+        return removedKeys;
+    }
+
+    // 整个子树中的记录数
+    public long getSubtreeCount() {
+        long total = 0;
+        for (int i = 0; i <= keyCount; i++) {
+            total += childCounts[i];
+        }
+        return total;
+    }
+
+    // Getters and setters
+    public int[] getChildPageIds() { return childPageIds; }
+    public int[] getChildCounts() { return childCounts; }
+    public void setChildCount(int index, int count) { childCounts[index] = count; }
+    public void setPageId(int pageId) { this.pageId = pageId; }
+
+    // 调试方法
+    public void printNode() {
+        System.out.println("InternalNode " + pageId + ":");
+        System.out.println("  Parent: " + parentPageId);
+        System.out.println("  KeyCount: " + keyCount + "/" + maxKeys);
+        System.out.print("  Keys: [");
+        for (int i = 0; i < keyCount; i++) {
+            System.out.print(keys[i]);
+            if (i < keyCount - 1) System.out.print(", ");
+        }
+        System.out.println("]");
+        System.out.print("  Children: [");
+        for (int i = 0; i <= keyCount; i++) {
+            System.out.print(childPageIds[i]);
+            if (i < keyCount) System.out.print(", ");
+        }
+        System.out.println("]");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,530 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+/**
+ * @author weeGiam
+ */
+
+public class LeafNode extends BPlusTreeNode {
+    // 固定槽位大小：长度(4) + 内容(最多60)
+    public static final int SLOT_SIZE = 64;
+    public static final int MAX_INLINE_STRING_BYTES = SLOT_SIZE - 4;
+    // valueCount字段取该值表示整行存放在溢出页链中，后面紧跟首个溢出页ID和数据长度
+    private static final int OVERFLOW_MARKER = -1;
+    // valueCount字段取该值表示整行存放在value log中，后面紧跟日志偏移(8)和记录长度(4)
+    private static final int VALUE_LOG_MARKER = -2;
+    // 页头：节点类型(4) + keyCount(4) + parentPageId(4) + nextLeafPageId(4)
+    private static final int HEADER_SIZE = 16;
+    // 前驱叶子ID存放在页尾校验和之前的4字节，旧版本文件的叶子节点这里可能没有空间
+    private static final int PREV_LINK_SIZE = 4;
+
+    private String[][] values; // 每个key对应的value数组，溢出行在解析前为null
+    private String[] rowIds;
+    private int[] overflowPageIds; // 溢出行的首个溢出页ID，内联行为-1
+    private int[] overflowLengths;
+    private long[] valueLogOffsets; // value log中的记录偏移，不在value log中为-1
+    private int[] valueLogLengths;
+    private int nextLeafPageId;
+    private int prevLeafPageId;
+    private final int maxKeys;
+    // 最近一次insertEntry是否新增了key
+    private boolean lastInsertWasNew;
+
+    public LeafNode(int pageId, int maxKeys) {
+        super(pageId, true, maxKeys);
+        this.maxKeys = maxKeys;
+        this.values = new String[maxKeys][];
+        this.rowIds = new String[maxKeys];
+        this.overflowPageIds = new int[maxKeys];
+        this.overflowLengths = new int[maxKeys];
+        this.valueLogOffsets = new long[maxKeys];
+        this.valueLogLengths = new int[maxKeys];
+        for (int i = 0; i < maxKeys; i++) {
+            overflowPageIds[i] = -1;
+            valueLogOffsets[i] = -1;
+        }
+        this.nextLeafPageId = -1;
+        this.prevLeafPageId = -1;
+    }
+
+    /**
+     * 判断一行是否需要存入溢出页：任一value超过槽位容量，或整行超过页面可用空间的1/4
+     */
+    public static boolean needsOverflow(String[] value, int pageSize) {
+        if (value == null) return false;
+        for (String v : value) {
+            if (v != null && Page.utf8Length(v) > MAX_INLINE_STRING_BYTES) {
+                return true;
+            }
+        }
+        return inlineEntrySize(value.length) > (pageSize - 16) / 4;
+    }
+
+    // key + rowId + valueCount + values
+    private static int inlineEntrySize(int valueCount) {
+        return SLOT_SIZE * 2 + 4 + SLOT_SIZE * valueCount;
+    }
+
+    // 溢出行只保存key + rowId + 标记 + 溢出页ID + 长度
+    private static int overflowEntrySize() {
+        return SLOT_SIZE * 2 + 4 + 8;
+    }
+
+    // value log行只保存key + rowId + 标记 + 日志偏移 + 长度
+    private static int valueLogEntrySize() {
+        return SLOT_SIZE * 2 + 4 + 12;
+    }
+
+    private int entrySize(int index) {
+        if (valueLogOffsets[index] != -1) {
+            return valueLogEntrySize();
+        }
+        if (overflowPageIds[index] != -1) {
+            return overflowEntrySize();
+        }
+        return inlineEntrySize(values[index] != null ? values[index].length : 0);
+    }
+
+    // 当前节点序列化后占用的字节数
+    public int getUsedBytes() {
+        int size = HEADER_SIZE + PREV_LINK_SIZE;
+        for (int i = 0; i < keyCount; i++) {
+            size += entrySize(i);
+        }
+        return size;
+    }
+
+    /**
+     * 判断在不分裂的情况下能否再放入一行（同时检查key数量和页面字节数）
+     */
+    public boolean canFit(String[] value, boolean overflow, int pageSize) {
+        if (isFull()) return false;
+        int size = overflow ? overflowEntrySize() : inlineEntrySize(value != null ? value.length : 0);
+        return getUsedBytes() + size <= pageSize - Page.CHECKSUM_SIZE;
+    }
+
+    public boolean canFitValueLogEntry(int pageSize) {
+        if (isFull()) return false;
+        return getUsedBytes() + valueLogEntrySize() <= pageSize - Page.CHECKSUM_SIZE;
+    }
+
+    /**
+     * 根据页面大小计算叶子节点能容纳的最大key数量
+     */
+    public static int calculateMaxKeys(int pageSize) {
+        return calculateMaxKeys(pageSize, false);
+    }
+
+    /**
+     * 根据页面大小计算叶子节点能容纳的最大key数量
+     *
+     * @param separateValues value是否存放在value log中，此时叶子节点只保存定长指针
+     */
+    public static int calculateMaxKeys(int pageSize, boolean separateValues) {
+        // 页面头部：节点类型(4) + keyCount(4) + parentPageId(4) + nextLeafPageId(4) = 16字节，页尾另有前驱叶子ID(4)
+        int availableSpace = pageSize - HEADER_SIZE - PREV_LINK_SIZE - Page.CHECKSUM_SIZE;
+
+        // 每个entry的实际大小：
+        // - key字段: 长度(4) + 内容(最多60) = 64字节
+        // - rowId字段: 长度(4) + 内容(最多60) = 64字节
+        // - valueCount字段: 4字节
+        // - values数组: 假设平均3个value，每个64字节 = 192字节
+        // 总计: 64 + 64 + 4 + 192 = 324字节每个entry
+        // value log模式下values换成日志偏移(8) + 长度(4)，每个entry 144字节
+        int entrySize = separateValues ? valueLogEntrySize() : 324;
+        int maxKeys = availableSpace / entrySize;
+
+        // 保守一点，减少10%避免边界问题
+        maxKeys = (int) (maxKeys * 0.9);
+
+        // 确保至少有3个key，上限随页面大小伸缩
+        return Math.max(3, maxKeys);
+    }
+
+    @Override
+    public void serialize(Page page) {
+        page.clear();
+        int offset = 0;
+
+        try {
+            // 写入节点类型
+            page.writeInt(offset, 1); // 1表示叶子节点
+            offset += 4;
+
+            // 写入key数量
+            page.writeInt(offset, keyCount);
+            offset += 4;
+
+            // 写入父节点页面ID
+            page.writeInt(offset, parentPageId);
+            offset += 4;
+
+            // 写入下一个叶子节点页面ID
+            page.writeInt(offset, nextLeafPageId);
+            offset += 4;
+
+            System.out.println("开始序列化叶子节点，keyCount=" + keyCount + ", 起始offset=" + offset);
+
+            // 写入keys, values, rowIds
+            for (int i = 0; i < keyCount; i++) {
+                // 检查剩余空间
+                int remainingSpace = page.getRemainingSpace(offset);
+                if (remainingSpace < entrySize(i)) {
+                    throw new RuntimeException(
+                            String.format("页面空间不足: entry %d, remainingSpace=%d, offset=%d",
+                                    i, remainingSpace, offset));
+                }
+
+                // 写入key
+                page.writeString(offset, keys[i] != null ? keys[i] : "", 64);
+                offset += 64;
+
+                // 写入rowId
+                page.writeString(offset, rowIds[i] != null ? rowIds[i] : "", 64);
+                offset += 64;
+
+                // 写入values数组
+                if (valueLogOffsets[i] != -1) {
+                    // 整行存放在value log中，只写入指针
+                    page.writeInt(offset, VALUE_LOG_MARKER);
+                    page.writeLong(offset + 4, valueLogOffsets[i]);
+                    page.writeInt(offset + 12, valueLogLengths[i]);
+                    offset += 16;
+                } else if (overflowPageIds[i] != -1) {
+                    // 整行存放在溢出页中，只写入指针
+                    page.writeInt(offset, OVERFLOW_MARKER);
+                    page.writeInt(offset + 4, overflowPageIds[i]);
+                    page.writeInt(offset + 8, overflowLengths[i]);
+                    offset += 12;
+                } else if (values[i] != null) {
+                    page.writeInt(offset, values[i].length);
+                    offset += 4;
+
+                    for (String value : values[i]) {
+                        // 再次检查空间
+                        if (page.getRemainingSpace(offset) < 64) {
+                            throw new RuntimeException("序列化value时空间不足");
+                        }
+                        page.writeString(offset, value != null ? value : "", 64);
+                        offset += 64;
+                    }
+                } else {
+                    page.writeInt(offset, 0);
+                    offset += 4;
+                }
+
+                System.out.println("  序列化entry " + i + ", key=" + keys[i] + ", offset=" + offset);
+            }
+
+            // 旧版本文件中写满的叶子节点没有空间保存前驱指针，此时由树标记前驱指针不可用
+            if (offset <= prevLinkOffset(page)) {
+                page.writeInt(prevLinkOffset(page), prevLeafPageId);
+            }
+
+            System.out.println("叶子节点序列化完成，最终offset=" + offset);
+
+        } catch (Exception e) {
+            System.err.println("序列化失败在offset=" + offset + ", keyCount=" + keyCount);
+            throw new RuntimeException("叶子节点序列化失败", e);
+        }
+    }
+
+    @Override
+    public void deserialize(Page page) {
+        int offset = 4; // 跳过节点类型
+
+        keyCount = page.readInt(offset);
+        offset += 4;
+
+        parentPageId = page.readInt(offset);
+        offset += 4;
+
+        nextLeafPageId = page.readInt(offset);
+        offset += 4;
+
+        prevLeafPageId = page.readInt(prevLinkOffset(page));
+
+        for (int i = 0; i < keyCount && i < maxKeys; i++) {
+            keys[i] = page.readString(offset, 64);
+            offset += 64;
+
+            rowIds[i] = page.readString(offset, 64);
+            offset += 64;
+
+            int valueCount = page.readInt(offset);
+            offset += 4;
+
+            values[i] = null;
+            overflowPageIds[i] = -1;
+            overflowLengths[i] = 0;
+            valueLogOffsets[i] = -1;
+            valueLogLengths[i] = 0;
+            if (valueCount == VALUE_LOG_MARKER) {
+                // value log行，value由调用方按需从日志读取
+                valueLogOffsets[i] = page.readLong(offset);
+                valueLogLengths[i] = page.readInt(offset + 8);
+                offset += 12;
+            } else if (valueCount == OVERFLOW_MARKER) {
+                // 溢出行，value由调用方按需从溢出页读取
+                overflowPageIds[i] = page.readInt(offset);
+                overflowLengths[i] = page.readInt(offset + 4);
+                offset += 8;
+            } else if (valueCount > 0) {
+                values[i] = new String[valueCount];
+                for (int j = 0; j < valueCount; j++) {
+                    values[i][j] = page.readString(offset, 64);
+                    offset += 64;
+                }
+            }
+        }
+        invalidateKeyPrefixes();
+    }
+
+    @Override
+    public boolean isFull() {
+        return keyCount >= maxKeys;
+    }
+
+    @Override
+    public boolean isUnderflow() {
+        return keyCount < maxKeys / 2;
+    }
+
+    /**
+     * 插入或更新键值对
+     *
+     * @return 新增key返回true，更新已有key返回false
+     */
+    public boolean insertKeyValue(String key, String[] value, String rowId) {
+        return insertKeyValue(key, value, rowId, -1, 0);
+    }
+
+    /**
+     * 插入或更新键值对，overflowPageId不为-1时表示该行已写入溢出页链
+     *
+     * @return 新增key返回true，更新已有key返回false
+     */
+    public boolean insertKeyValue(String key, String[] value, String rowId,
+                                  int overflowPageId, int overflowLength) {
+        int pos = insertEntry(key, value, rowId);
+        overflowPageIds[pos] = overflowPageId;
+        overflowLengths[pos] = overflowLength;
+        return lastInsertWasNew;
+    }
+
+    /**
+     * 插入或更新只保存value log指针的行
+     *
+     * @return 新增key返回true，更新已有key返回false
+     */
+    public boolean insertValueLogPointer(String key, String rowId, long valueLogOffset, int valueLogLength) {
+        int pos = insertEntry(key, null, rowId);
+        valueLogOffsets[pos] = valueLogOffset;
+        valueLogLengths[pos] = valueLogLength;
+        return lastInsertWasNew;
+    }
+
+    // 插入或覆盖key对应的entry，外部存储指针被重置，返回entry所在位置
+    private int insertEntry(String key, String[] value, String rowId) {
+        // 检查是否已满 - 修改为更宽松的检查
+        if (keyCount >= maxKeys) {
+            throw new IllegalStateException("叶子节点已满，无法插入更多键值对。keyCount=" + keyCount + ", maxKeys=" + maxKeys);
+        }
+
+        int pos = binarySearch(key);
+
+        // 如果key已存在，更新value
+        if (pos < keyCount && keys[pos] != null && keys[pos].equals(key)) {
+            clearEntry(pos);
+            keys[pos] = key;
+            values[pos] = value;
+            rowIds[pos] = rowId;
+            invalidateKeyPrefixes();
+            System.out.println("更新现有key: " + key + " at position " + pos);
+            lastInsertWasNew = false;
+            return pos;
+        }
+
+        // 确保pos在有效范围内
+        if (pos < 0) pos = 0;
+        if (pos > keyCount) pos = keyCount;
+
+        // 检查插入位置是否会导致数组越界
+        if (pos >= maxKeys) {
+            throw new IllegalStateException("插入位置超出数组边界: pos=" + pos + ", maxKeys=" + maxKeys);
+        }
+
+        // 向右移动现有元素为新元素腾出空间
+        for (int i = keyCount; i > pos; i--) {
+            if (i >= maxKeys) continue; // 跳过超出边界的索引
+            copyEntry(this, i, i - 1);
+        }
+
+        // 插入新的key-value
+        clearEntry(pos);
+        keys[pos] = key;
+        values[pos] = value;
+        rowIds[pos] = rowId;
+        keyCount++;
+        invalidateKeyPrefixes();
+
+        // 调试输出
+        System.out.println("插入到叶子节点: key=" + key + ", pos=" + pos + ", keyCount=" + keyCount + ", maxKeys=" + maxKeys);
+        lastInsertWasNew = true;
+        return pos;
+    }
+
+    // 将本节点srcIndex处的entry复制到target节点的targetIndex处
+    private void copyEntry(LeafNode target, int targetIndex, int srcIndex) {
+        target.keys[targetIndex] = keys[srcIndex];
+        target.values[targetIndex] = values[srcIndex];
+        target.rowIds[targetIndex] = rowIds[srcIndex];
+        target.overflowPageIds[targetIndex] = overflowPageIds[srcIndex];
+        target.overflowLengths[targetIndex] = overflowLengths[srcIndex];
+        target.valueLogOffsets[targetIndex] = valueLogOffsets[srcIndex];
+        target.valueLogLengths[targetIndex] = valueLogLengths[srcIndex];
+    }
+
+    private void clearEntry(int index) {
+        keys[index] = null;
+        values[index] = null;
+        rowIds[index] = null;
+        overflowPageIds[index] = -1;
+        overflowLengths[index] = 0;
+        valueLogOffsets[index] = -1;
+        valueLogLengths[index] = 0;
+    }
+    public String[][] search(String key) {
+        int pos = binarySearch(key);
+        if (pos < keyCount && keys[pos] != null && keys[pos].equals(key)) {
+            return new String[][]{values[pos]};
+        }
+        return new String[0][];
+    }
+
+    /**
+     * 查找key所在位置
+     *
+     * @return key的下标，不存在时返回-1
+     */
+    public int indexOf(String key) {
+        int pos = binarySearch(key);
+        if (pos < keyCount && keys[pos] != null && keys[pos].equals(key)) {
+            return pos;
+        }
+        return -1;
+    }
+
+    public boolean removeKey(String key) {
+        int pos = binarySearch(key);
+        if (pos < keyCount && keys[pos] != null && keys[pos].equals(key)) {
+            // 向左移动后面的元素
+            for (int i = pos; i < keyCount - 1; i++) {
+                copyEntry(this, i, i + 1);
+            }
+
+            // 清空最后一个位置
+            if (keyCount > 0) {
+                clearEntry(keyCount - 1);
+            }
+
+            keyCount--;
+            invalidateKeyPrefixes();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 删除下标在[from, to)之间的连续entry，后面的entry只移动一次
+     */
+    public void removeRange(int from, int to) {
+        int removed = to - from;
+        if (removed <= 0) return;
+        for (int i = from; i < keyCount - removed; i++) {
+            copyEntry(this, i, i + removed);
+        }
+        for (int i = keyCount - removed; i < keyCount; i++) {
+            clearEntry(i);
+        }
+        keyCount -= removed;
+        invalidateKeyPrefixes();
+    }
+
+    public LeafNode split() {
+        if (keyCount < 2) {
+            throw new IllegalStateException("叶子节点keys太少，无法分裂");
+        }
+
+        int midIndex = keyCount / 2;
+        LeafNode newLeaf = new LeafNode(-1, maxKeys); // 页面ID稍后分配
+
+        System.out.println("开始分裂叶子节点: keyCount=" + keyCount + ", midIndex=" + midIndex);
+
+        // 移动后半部分的数据到新节点
+        for (int i = midIndex; i < keyCount; i++) {
+            int newIndex = i - midIndex;
+            if (newIndex < maxKeys) {
+                copyEntry(newLeaf, newIndex, i);
+                newLeaf.keyCount++;
+
+                System.out.println("移动entry到新节点: " + keys[i] + " -> 新节点位置" + newIndex);
+
+                // 清空原节点中已移动的数据
+                clearEntry(i);
+            }
+        }
+
+        // 更新当前节点的key数量
+        keyCount = midIndex;
+        invalidateKeyPrefixes();
+
+        System.out.println("分裂完成: 原节点keyCount=" + keyCount + ", 新节点keyCount=" + newLeaf.keyCount);
+        System.out.println("新节点第一个key: " + (newLeaf.keyCount > 0 ? newLeaf.keys[0] : "null"));
+
+        return newLeaf;
+    }
+
+    private static int prevLinkOffset(Page page) {
+        return page.getUsableSize() - PREV_LINK_SIZE;
+    }
+
+    /**
+     * 序列化时页尾是否有空间保存前驱指针，只有旧版本文件中写满的叶子节点会返回false
+     */
+    public boolean hasRoomForPrevLink(int pageSize) {
+        return getUsedBytes() <= pageSize - Page.CHECKSUM_SIZE;
+    }
+
+    // Getters and setters
+    public String[][] getValues() { return values; }
+    public String[] getRowIds() { return rowIds; }
+    public int[] getOverflowPageIds() { return overflowPageIds; }
+    public int[] getOverflowLengths() { return overflowLengths; }
+    public long[] getValueLogOffsets() { return valueLogOffsets; }
+    public int[] getValueLogLengths() { return valueLogLengths; }
+    public void setValueLogPointer(int index, long offset, int length) {
+        valueLogOffsets[index] = offset;
+        valueLogLengths[index] = length;
+    }
+    public void setValues(int index, String[] value) { values[index] = value; }
+    public int getNextLeafPageId() { return nextLeafPageId; }
+    public void setNextLeafPageId(int nextLeafPageId) { this.nextLeafPageId = nextLeafPageId; }
+    public int getPrevLeafPageId() { return prevLeafPageId; }
+    public void setPrevLeafPageId(int prevLeafPageId) { this.prevLeafPageId = prevLeafPageId; }
+    public void setPageId(int pageId) { this.pageId = pageId; }
+
+    // 调试方法
+    public void printNode() {
+        System.out.println("LeafNode " + pageId + ":");
+        System.out.println("  Parent: " + parentPageId);
+        System.out.println("  KeyCount: " + keyCount + "/" + maxKeys);
+        System.out.println("  NextLeaf: " + nextLeafPageId);
+        System.out.println("  PrevLeaf: " + prevLeafPageId);
+        System.out.print("  Keys: [");
+        for (int i = 0; i < keyCount; i++) {
+            System.out.print(keys[i]);
+            if (i < keyCount - 1) System.out.print(", ");
+        }
+        System.out.println("]");
+    }
+}
\ No newline at end of file
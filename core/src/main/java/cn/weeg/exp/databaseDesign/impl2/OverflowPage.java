@@ -0,0 +1,94 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 溢出页：存放放不进叶子节点槽位的大行，多个溢出页通过nextPageId串成链
+ * <p>
+ * 页面布局：节点类型(4) + 下一个溢出页ID(4) + 本页数据长度(4) + 数据
+ *
+ * @author weeGiam
+ */
+
+public class OverflowPage {
+    public static final int NODE_TYPE = 2;
+    // 已释放、挂在空闲链表上的页面
+    public static final int FREE_PAGE_TYPE = 3;
+    private static final int HEADER_SIZE = 12;
+
+    private OverflowPage() {
+    }
+
+    // 单个溢出页可存放的数据字节数
+    public static int capacity(int pageSize) {
+        return pageSize - HEADER_SIZE - Page.CHECKSUM_SIZE;
+    }
+
+    public static void write(Page page, int nextPageId, byte[] data, int offset, int length) {
+        page.clear();
+        page.writeInt(0, NODE_TYPE);
+        page.writeInt(4, nextPageId);
+        page.writeInt(8, length);
+        page.writeBytes(HEADER_SIZE, data, offset, length);
+    }
+
+    public static int getNextPageId(Page page) {
+        return page.readInt(4);
+    }
+
+    /**
+     * 读取本页数据到dest
+     *
+     * @return 本页数据长度
+     */
+    public static int read(Page page, byte[] dest, int destOffset) {
+        if (page.readInt(0) != NODE_TYPE) {
+            throw new IllegalStateException("页面 " + page.getPageId() + " 不是溢出页");
+        }
+        int length = page.readInt(8);
+        if (length < 0 || destOffset + length > dest.length) {
+            throw new IllegalStateException("溢出页 " + page.getPageId() + " 数据长度异常: " + length);
+        }
+        page.readBytes(HEADER_SIZE, dest, destOffset, length);
+        return length;
+    }
+
+    // 行编码：valueCount(4) + 每个value的 长度(4, null为-1) + UTF-8内容
+    public static byte[] encodeRow(String[] value) {
+        byte[][] encoded = new byte[value.length][];
+        int size = 4;
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] != null) {
+                encoded[i] = value[i].getBytes(StandardCharsets.UTF_8);
+                size += encoded[i].length;
+            }
+            size += 4;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(value.length);
+        for (byte[] bytes : encoded) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+        return buffer.array();
+    }
+
+    public static String[] decodeRow(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        String[] value = new String[buffer.getInt()];
+        for (int i = 0; i < value.length; i++) {
+            int length = buffer.getInt();
+            if (length >= 0) {
+                value[i] = new String(data, buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            }
+        }
+        return value;
+    }
+}
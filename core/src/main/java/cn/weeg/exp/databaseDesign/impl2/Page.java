@@ -0,0 +1,241 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author weeGiam
+ */
+
+public class Page {
+    // 默认页面大小
+    public static final int PAGE_SIZE = 4096;
+    // 支持的页面大小范围，必须是2的幂
+    public static final int MIN_PAGE_SIZE = 4096;
+    public static final int MAX_PAGE_SIZE = 65536;
+    // 每个页面末尾保留4字节存放CRC32校验和，由DiskManager在读写时维护
+    public static final int CHECKSUM_SIZE = 4;
+
+    private final int pageId;
+    private final int pageSize;
+    private final ByteBuffer data;
+    private boolean dirty;
+    private int pinCount;
+    // 缓存的已解码节点，节点被修改后只在写回磁盘前才序列化到页面字节
+    private BPlusTreeNode node;
+    private boolean nodeDirty;
+    private boolean serializingNode;
+    // 持有本页直接引用的父节点，页面被驱逐或整页改写前需要从父节点换回页面ID
+    private InternalNode swizzledIn;
+
+    public Page(int pageId) {
+        this(pageId, PAGE_SIZE);
+    }
+
+    public Page(int pageId, int pageSize) {
+        this.pageId = pageId;
+        this.pageSize = pageSize;
+        this.data = ByteBuffer.allocate(pageSize);
+        this.dirty = false;
+        this.pinCount = 0;
+    }
+
+    public Page(int pageId, byte[] pageData) {
+        this.pageId = pageId;
+        this.pageSize = pageData.length;
+        this.data = ByteBuffer.wrap(pageData);
+        this.dirty = false;
+        this.pinCount = 0;
+    }
+
+    public static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE
+                && Integer.bitCount(pageSize) == 1;
+    }
+
+    public int getPageId() { return pageId; }
+    public int getPageSize() { return pageSize; }
+    // 节点可使用的字节数（不含校验和）
+    public int getUsableSize() { return pageSize - CHECKSUM_SIZE; }
+    public ByteBuffer getData() { return data; }
+    public boolean isDirty() { return dirty; }
+    public void setDirty(boolean dirty) { this.dirty = dirty; }
+    public int getPinCount() { return pinCount; }
+    public void pin() { pinCount++; }
+    public void unpin() { pinCount--; }
+    public BPlusTreeNode getNode() { return node; }
+
+    /**
+     * 挂上解码后的节点，modified为true表示节点比页面字节新，需要在写回前序列化
+     */
+    public void setNode(BPlusTreeNode node, boolean modified) {
+        if (this.node != node && this.node instanceof InternalNode) {
+            ((InternalNode) this.node).unswizzleAll();
+        }
+        this.node = node;
+        this.nodeDirty = modified;
+        if (modified) {
+            setDirty(true);
+        }
+    }
+
+    // 将修改过的节点写入页面字节，在写回磁盘或复制页面映像之前调用
+    public void serializeNode() {
+        if (node == null || !nodeDirty) return;
+        // serialize会先clear页面，此时不能丢弃缓存的节点
+        serializingNode = true;
+        try {
+            node.serialize(this);
+        } finally {
+            serializingNode = false;
+        }
+        nodeDirty = false;
+    }
+
+    /**
+     * 丢弃缓存的节点，并解除与父节点、子节点之间的直接引用。页面被驱逐或整页改写时调用
+     */
+    public void releaseNode() {
+        if (node instanceof InternalNode) {
+            ((InternalNode) node).unswizzleAll();
+        }
+        node = null;
+        nodeDirty = false;
+        if (swizzledIn != null) {
+            swizzledIn.unswizzle(this);
+        }
+    }
+
+    public InternalNode getSwizzledIn() { return swizzledIn; }
+    public void setSwizzledIn(InternalNode parent) { this.swizzledIn = parent; }
+
+    // 节点类型以缓存的节点为准，页面字节可能尚未写回
+    public int getNodeType() {
+        if (node != null) {
+            return node.isLeaf() ? 1 : 0;
+        }
+        return readInt(0);
+    }
+
+    // 读写字符串方法 - 添加边界检查
+    public void writeString(int offset, String str, int maxLength) {
+        if (offset < 0 || offset + maxLength > getUsableSize()) {
+            throw new IndexOutOfBoundsException(
+                    String.format("写入字符串越界: offset=%d, maxLength=%d, pageSize=%d",
+                            offset, maxLength, pageSize));
+        }
+
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxLength - 4) {
+            // 不再静默截断，超长内容应由调用方写入溢出页
+            throw new IllegalArgumentException(
+                    String.format("字符串超过槽位容量: length=%d, maxLength=%d", bytes.length, maxLength - 4));
+        }
+        int length = bytes.length;
+
+        // 检查是否有足够空间写入长度字段
+        if (offset + 4 > getUsableSize()) {
+            throw new IndexOutOfBoundsException("写入长度字段越界: offset=" + offset);
+        }
+
+        data.putInt(offset, length);
+
+        // 检查是否有足够空间写入字符串内容
+        if (offset + 4 + length > getUsableSize()) {
+            throw new IndexOutOfBoundsException(
+                    String.format("写入字符串内容越界: offset=%d, length=%d, pageSize=%d",
+                            offset + 4, length, pageSize));
+        }
+
+        data.position(offset + 4);
+        data.put(bytes, 0, length);
+        setDirty(true);
+    }
+
+    public String readString(int offset, int maxLength) {
+        if (offset < 0 || offset + 4 > getUsableSize()) {
+            return "";
+        }
+
+        int length = data.getInt(offset);
+        if (length <= 0 || length > maxLength - 4 || offset + 4 + length > getUsableSize()) {
+            return "";
+        }
+
+        byte[] bytes = new byte[length];
+        data.position(offset + 4);
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static int utf8Length(String str) {
+        return str.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    public void writeBytes(int offset, byte[] bytes, int bytesOffset, int length) {
+        if (offset < 0 || offset + length > getUsableSize()) {
+            throw new IndexOutOfBoundsException(
+                    String.format("写入字节越界: offset=%d, length=%d, pageSize=%d", offset, length, pageSize));
+        }
+        data.position(offset);
+        data.put(bytes, bytesOffset, length);
+        setDirty(true);
+    }
+
+    public void readBytes(int offset, byte[] dest, int destOffset, int length) {
+        if (offset < 0 || offset + length > getUsableSize()) {
+            throw new IndexOutOfBoundsException(
+                    String.format("读取字节越界: offset=%d, length=%d, pageSize=%d", offset, length, pageSize));
+        }
+        data.position(offset);
+        data.get(dest, destOffset, length);
+    }
+
+    public void writeLong(int offset, long value) {
+        if (offset < 0 || offset + 8 > getUsableSize()) {
+            throw new IndexOutOfBoundsException("写入长整数越界: offset=" + offset);
+        }
+        data.putLong(offset, value);
+        setDirty(true);
+    }
+
+    public long readLong(int offset) {
+        if (offset < 0 || offset + 8 > getUsableSize()) {
+            return 0;
+        }
+        return data.getLong(offset);
+    }
+
+    public void writeInt(int offset, int value) {
+        if (offset < 0 || offset + 4 > getUsableSize()) {
+            throw new IndexOutOfBoundsException("写入整数越界: offset=" + offset);
+        }
+        data.putInt(offset, value);
+        setDirty(true);
+    }
+
+    public int readInt(int offset) {
+        if (offset < 0 || offset + 4 > getUsableSize()) {
+            return 0;
+        }
+        return data.getInt(offset);
+    }
+
+    public void clear() {
+        // 整页改写后缓存的节点不再对应页面内容
+        if (!serializingNode) {
+            releaseNode();
+        }
+        data.clear();
+        for (int i = 0; i < pageSize; i++) {
+            data.put((byte) 0);
+        }
+        data.rewind();
+        setDirty(true);
+    }
+
+    // 获取剩余可用空间
+    public int getRemainingSpace(int currentOffset) {
+        return Math.max(0, getUsableSize() - currentOffset);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,113 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 页面版本库：为打开的快照保存被修改前的页面映像
+ * <p>
+ * 每个快照在打开时分配一个递增的纪元号。页面在有快照打开期间第一次被修改前，
+ * 以当前最新快照的纪元号为标记保存一份修改前的映像。纪元号为e的快照读取页面时，
+ * 使用标记不小于e的最早映像，没有则说明该页面在快照打开后未被修改，直接读取当前页面。
+ * 快照关闭后，不再被任何快照需要的映像立即释放。版本只保存在内存中，不持久化。
+ *
+ * @author weeGiam
+ */
+
+public class PageVersionStore {
+    private long currentEpoch;
+    private final TreeSet<Long> openEpochs = new TreeSet<>();
+    // 页面ID -> (纪元标记 -> 页面映像)
+    private final Map<Integer, TreeMap<Long, byte[]>> versions = new HashMap<>();
+    private int retainedPages;
+
+    public long open() {
+        long epoch = ++currentEpoch;
+        openEpochs.add(epoch);
+        return epoch;
+    }
+
+    public void release(long epoch) {
+        if (!openEpochs.remove(epoch)) return;
+        if (openEpochs.isEmpty()) {
+            versions.clear();
+            retainedPages = 0;
+            return;
+        }
+        prune();
+    }
+
+    public boolean isOpen(long epoch) {
+        return openEpochs.contains(epoch);
+    }
+
+    public boolean hasOpenSnapshots() {
+        return !openEpochs.isEmpty();
+    }
+
+    // 文件关闭或重新打开时丢弃所有快照和版本
+    public void clear() {
+        openEpochs.clear();
+        versions.clear();
+        retainedPages = 0;
+    }
+
+    /**
+     * 页面即将被修改，如有快照仍需要其当前映像则保存一份副本
+     */
+    public void preserve(Page page) {
+        if (openEpochs.isEmpty()) return;
+
+        long newest = openEpochs.last();
+        TreeMap<Long, byte[]> chain = versions.get(page.getPageId());
+        if (chain != null && chain.lastKey() >= newest) {
+            // 最新快照需要的映像已经保存过
+            return;
+        }
+        if (chain == null) {
+            chain = new TreeMap<>();
+            versions.put(page.getPageId(), chain);
+        }
+        chain.put(newest, page.getData().array().clone());
+        retainedPages++;
+    }
+
+    /**
+     * 查找纪元号为epoch的快照看到的页面映像，返回null表示应读取当前页面
+     */
+    public byte[] find(int pageId, long epoch) {
+        TreeMap<Long, byte[]> chain = versions.get(pageId);
+        if (chain == null) return null;
+        Map.Entry<Long, byte[]> entry = chain.ceilingEntry(epoch);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    // 标记为t、前一个标记为p的映像只被纪元号在(p, t]之间的快照使用
+    private void prune() {
+        Iterator<TreeMap<Long, byte[]>> chains = versions.values().iterator();
+        while (chains.hasNext()) {
+            TreeMap<Long, byte[]> chain = chains.next();
+            long previous = 0;
+            Iterator<Long> tags = chain.keySet().iterator();
+            while (tags.hasNext()) {
+                long tag = tags.next();
+                if (openEpochs.subSet(previous, false, tag, true).isEmpty()) {
+                    tags.remove();
+                    retainedPages--;
+                } else {
+                    previous = tag;
+                }
+            }
+            if (chain.isEmpty()) {
+                chains.remove();
+            }
+        }
+    }
+
+    public int getRetainedPageCount() {
+        return retainedPages;
+    }
+}
@@ -0,0 +1,196 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓冲池之上的行缓存：以key缓存get已解析好的结果，命中时不遍历树也不反序列化页面
+ * <p>
+ * 容量按估算的字节数限制。淘汰顺序为LRU，准入使用TinyLFU：缓存已满时，
+ * 只有新行的近期访问频率高于将被淘汰的行才会被放入，避免一次性扫描冲掉热点数据。
+ * 访问频率由4行的Count-Min Sketch估算，计数累计到一定次数后全部减半，使频率随时间衰减。
+ *
+ * @author weeGiam
+ */
+
+public class RowCache {
+    // 每个条目的固定开销估算：对象头、引用和链表节点
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long capacity;
+    private long weight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    private long hitCount;
+    private long missCount;
+
+    private static final class Entry {
+        final String[][] rows;
+        final int weight;
+
+        Entry(String[][] rows, int weight) {
+            this.rows = rows;
+            this.weight = weight;
+        }
+    }
+
+    public RowCache(long capacityBytes) {
+        this.capacity = capacityBytes;
+        // 草图宽度按可容纳的条目数估算，过小时碰撞会使冷数据的频率估计偏高
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, capacityBytes / 128)));
+    }
+
+    /**
+     * 查询缓存，未命中返回null。返回的是副本，调用方修改不会影响缓存中的行
+     */
+    public String[][] get(String key) {
+        sketch.increment(key);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return copyRows(entry.rows);
+    }
+
+    public void put(String key, String[][] rows) {
+        int entryWeight = weigh(key, rows);
+        if (entryWeight > capacity) return;
+
+        Entry old = entries.remove(key);
+        if (old != null) {
+            weight -= old.weight;
+        }
+
+        if (weight + entryWeight > capacity) {
+            // TinyLFU准入：与最先被淘汰的行比较访问频率
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            if (old == null && eldest.hasNext()
+                    && sketch.frequency(key) <= sketch.frequency(eldest.next().getKey())) {
+                return;
+            }
+            eldest = entries.entrySet().iterator();
+            while (weight + entryWeight > capacity && eldest.hasNext()) {
+                weight -= eldest.next().getValue().weight;
+                eldest.remove();
+            }
+        }
+
+        // 调用方之后可能修改传入的数组，缓存保存自己的副本
+        entries.put(key, new Entry(copyRows(rows), entryWeight));
+        weight += entryWeight;
+    }
+
+    private static String[][] copyRows(String[][] rows) {
+        String[][] copy = new String[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            copy[i] = rows[i] != null ? rows[i].clone() : null;
+        }
+        return copy;
+    }
+
+    public void invalidate(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    // 按字符串占用估算条目大小
+    private static int weigh(String key, String[][] rows) {
+        long size = ENTRY_OVERHEAD + 2L * key.length();
+        for (String[] row : rows) {
+            size += 16;
+            if (row == null) continue;
+            for (String value : row) {
+                size += 8 + (value != null ? 40 + 2L * value.length() : 0);
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * 4行Count-Min Sketch，每个计数器最大15，累计增加次数达到宽度的10倍时全部减半
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final long[] SEEDS = {
+                0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0x27D4EB2F165667C5L
+        };
+
+        private final byte[][] table;
+        private final int mask;
+        private final int resetThreshold;
+        private int additions;
+
+        FrequencySketch(int width) {
+            int size = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+            this.table = new byte[DEPTH][size];
+            this.mask = size - 1;
+            this.resetThreshold = size * 10;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                if (table[i][index] < 15) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetThreshold) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h ^= h >>> 32;
+            return (int) h & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
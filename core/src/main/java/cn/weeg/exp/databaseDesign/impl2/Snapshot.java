@@ -0,0 +1,33 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+/**
+ * B+树在某一时刻的只读一致视图，打开期间insert和delete可以继续执行
+ *
+ * @author weeGiam
+ */
+public interface Snapshot extends AutoCloseable {
+    /**
+     * 根据键查询快照打开时的值
+     *
+     * @param key 键
+     * @return 值的二维数组
+     */
+    String[][] get(String key);
+
+    /**
+     * 按key顺序遍历快照中的所有记录，访问回调期间不持有树的锁
+     *
+     * @param visitor 记录回调
+     */
+    void forEach(EntryVisitor visitor);
+
+    /**
+     * 释放快照，不再被引用的旧页面版本随之回收
+     */
+    @Override
+    void close();
+
+    interface EntryVisitor {
+        void visit(String key, String[] value, String rowId);
+    }
+}
@@ -0,0 +1,141 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+/**
+ * @author weeGiam
+ */
+
+public class Statistics {
+    private double fillRate;
+    private int height;
+    private int nodeCount;
+    private int splitCount;
+    private int mergeCount;
+    private long pageAccessCount;
+
+    // 槽位使用情况
+    private long usedSlots;
+    private long totalSlots;
+
+    // 缓冲池计数器
+    private long bufferPoolHits;
+    private long bufferPoolMisses;
+    private long bufferPoolEvictions;
+    private long dirtyPageFlushes;
+
+    // 行缓存计数器
+    private long rowCacheHits;
+    private long rowCacheMisses;
+
+    public Statistics(double fillRate, int height, int nodeCount,
+                      int splitCount, int mergeCount, long pageAccessCount) {
+        this(fillRate, height, nodeCount, splitCount, mergeCount, pageAccessCount,
+                0, 0, 0, 0, 0, 0);
+    }
+
+    public Statistics(double fillRate, int height, int nodeCount,
+                      int splitCount, int mergeCount, long pageAccessCount,
+                      long usedSlots, long totalSlots,
+                      long bufferPoolHits, long bufferPoolMisses,
+                      long bufferPoolEvictions, long dirtyPageFlushes) {
+        this(fillRate, height, nodeCount, splitCount, mergeCount, pageAccessCount,
+                usedSlots, totalSlots, bufferPoolHits, bufferPoolMisses,
+                bufferPoolEvictions, dirtyPageFlushes, 0, 0);
+    }
+
+    public Statistics(double fillRate, int height, int nodeCount,
+                      int splitCount, int mergeCount, long pageAccessCount,
+                      long usedSlots, long totalSlots,
+                      long bufferPoolHits, long bufferPoolMisses,
+                      long bufferPoolEvictions, long dirtyPageFlushes,
+                      long rowCacheHits, long rowCacheMisses) {
+        this.fillRate = fillRate;
+        this.height = height;
+        this.nodeCount = nodeCount;
+        this.splitCount = splitCount;
+        this.mergeCount = mergeCount;
+        this.pageAccessCount = pageAccessCount;
+        this.usedSlots = usedSlots;
+        this.totalSlots = totalSlots;
+        this.bufferPoolHits = bufferPoolHits;
+        this.bufferPoolMisses = bufferPoolMisses;
+        this.bufferPoolEvictions = bufferPoolEvictions;
+        this.dirtyPageFlushes = dirtyPageFlushes;
+        this.rowCacheHits = rowCacheHits;
+        this.rowCacheMisses = rowCacheMisses;
+    }
+
+    // Getters
+    public double getFillRate() {
+        return fillRate;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    public int getMergeCount() {
+        return mergeCount;
+    }
+
+    public long getPageAccessCount() {
+        return pageAccessCount;
+    }
+
+    public long getUsedSlots() {
+        return usedSlots;
+    }
+
+    public long getTotalSlots() {
+        return totalSlots;
+    }
+
+    public long getBufferPoolHits() {
+        return bufferPoolHits;
+    }
+
+    public long getBufferPoolMisses() {
+        return bufferPoolMisses;
+    }
+
+    public long getBufferPoolEvictions() {
+        return bufferPoolEvictions;
+    }
+
+    public long getDirtyPageFlushes() {
+        return dirtyPageFlushes;
+    }
+
+    public long getRowCacheHits() {
+        return rowCacheHits;
+    }
+
+    public long getRowCacheMisses() {
+        return rowCacheMisses;
+    }
+
+    public double getBufferPoolHitRate() {
+        long total = bufferPoolHits + bufferPoolMisses;
+        return total > 0 ? (double) bufferPoolHits / total : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Statistics{fillRate=%.2f%%, height=%d, nodeCount=%d, " +
+                        "splitCount=%d, mergeCount=%d, pageAccessCount=%d, " +
+                        "usedSlots=%d, totalSlots=%d, bufferPoolHits=%d, bufferPoolMisses=%d, " +
+                        "bufferPoolEvictions=%d, dirtyPageFlushes=%d, rowCacheHits=%d, rowCacheMisses=%d}",
+                fillRate * 100, height, nodeCount, splitCount, mergeCount, pageAccessCount,
+                usedSlots, totalSlots, bufferPoolHits, bufferPoolMisses,
+                bufferPoolEvictions, dirtyPageFlushes, rowCacheHits, rowCacheMisses
+        );
+    }
+}
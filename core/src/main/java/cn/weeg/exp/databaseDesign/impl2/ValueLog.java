@@ -0,0 +1,294 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Value log：键值分离模式下存放行数据的追加写日志
+ * <p>
+ * 日志按段存放在"文件名.vlog.段号"中，只在最新的段尾部追加。记录格式为
+ * 记录长度(4) + key长度(4) + key + 行数据，指针高32位是段号、低32位是段内偏移。
+ * 旧段中的有效记录由垃圾回收搬到最新段后，整个段文件被删除；删除时仍有线程在锁外读取该段的，
+ * 关闭和删除推迟到最后一个读取结束。
+ *
+ * @author weeGiam
+ */
+
+public class ValueLog {
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    public static final int RECORD_HEADER_SIZE = 8;
+
+    private final String baseName;
+    private final long segmentSize;
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+    private int activeSegmentId;
+    // 正在锁外读取各段的线程数
+    private final Map<FileChannel, Integer> readers = new HashMap<>();
+    // 已从segments中移除、等读取结束后再关闭和删除的段
+    private final Map<FileChannel, Integer> retired = new HashMap<>();
+
+    public interface RecordVisitor {
+        void visit(long pointer, int length, String key, byte[] row);
+    }
+
+    public ValueLog(String filename, long segmentSize) {
+        this.baseName = filename + ".vlog.";
+        this.segmentSize = segmentSize;
+    }
+
+    public synchronized void open() throws IOException {
+        Path base = Paths.get(baseName).toAbsolutePath();
+        File dir = base.getParent().toFile();
+        String prefix = base.getFileName().toString();
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix));
+        if (files != null) {
+            for (File f : files) {
+                try {
+                    int segmentId = Integer.parseInt(f.getName().substring(prefix.length()));
+                    segments.put(segmentId, openSegment(segmentId));
+                } catch (NumberFormatException e) {
+                    // 不是日志段文件，忽略
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0, openSegment(0));
+        }
+        activeSegmentId = segments.lastKey();
+    }
+
+    private FileChannel openSegment(int segmentId) throws IOException {
+        return FileChannel.open(Paths.get(baseName + segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+        for (Map.Entry<FileChannel, Integer> entry : retired.entrySet()) {
+            entry.getKey().close();
+            Files.deleteIfExists(Paths.get(baseName + entry.getValue()));
+        }
+        retired.clear();
+        readers.clear();
+    }
+
+    // 取得一个段的通道并登记读取，段不存在时返回null，用完后必须调用release
+    private synchronized FileChannel acquire(int segmentId) {
+        FileChannel channel = segments.get(segmentId);
+        if (channel != null) {
+            readers.merge(channel, 1, Integer::sum);
+        }
+        return channel;
+    }
+
+    private synchronized void release(FileChannel channel) throws IOException {
+        int remaining = readers.merge(channel, -1, Integer::sum);
+        if (remaining > 0) return;
+        readers.remove(channel);
+        Integer segmentId = retired.remove(channel);
+        if (segmentId != null) {
+            channel.close();
+            Files.deleteIfExists(Paths.get(baseName + segmentId));
+        }
+    }
+
+    /**
+     * 在最新段尾部追加一条记录并落盘
+     *
+     * @return 记录指针
+     */
+    public synchronized long append(String key, byte[] row) throws IOException {
+        return append(key, row, true);
+    }
+
+    /**
+     * 追加一条记录，sync为false时不落盘，由调用方在一批追加结束后调用sync
+     *
+     * @return 记录指针
+     */
+    public synchronized long append(String key, byte[] row, boolean sync) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER_SIZE + keyBytes.length + row.length;
+
+        FileChannel active = segments.get(activeSegmentId);
+        long position = active.size();
+        if (position > 0 && position + length > segmentSize) {
+            // 当前段已满，切换到新段
+            activeSegmentId++;
+            active = openSegment(activeSegmentId);
+            segments.put(activeSegmentId, active);
+            position = 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length);
+        buffer.putInt(keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.put(row);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            active.write(buffer, position + buffer.position());
+        }
+        if (sync) {
+            active.force(false);
+        }
+        return ((long) activeSegmentId << 32) | position;
+    }
+
+    /**
+     * 将所有段中未落盘的追加写入磁盘
+     */
+    public synchronized void sync() throws IOException {
+        for (FileChannel segment : segments.values()) {
+            segment.force(false);
+        }
+    }
+
+    /**
+     * 读取记录中的行数据
+     */
+    public byte[] read(long pointer, int length) throws IOException {
+        int segmentId = (int) (pointer >>> 32);
+        long position = pointer & 0xFFFFFFFFL;
+        FileChannel channel = acquire(segmentId);
+        if (channel == null) {
+            throw new IOException("value log段不存在: " + segmentId);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("value log记录不完整: pointer=" + pointer);
+                }
+            }
+        } finally {
+            release(channel);
+        }
+        buffer.flip();
+        if (buffer.getInt(0) != length) {
+            throw new IOException("value log记录长度不匹配: pointer=" + pointer);
+        }
+        int keyLength = buffer.getInt(4);
+        byte[] row = new byte[length - RECORD_HEADER_SIZE - keyLength];
+        buffer.position(RECORD_HEADER_SIZE + keyLength);
+        buffer.get(row);
+        return row;
+    }
+
+    // 最旧的非活动段，没有时返回-1
+    public synchronized int oldestSealedSegment() {
+        int oldest = segments.firstKey();
+        return oldest == activeSegmentId ? -1 : oldest;
+    }
+
+    public synchronized long getSegmentSize(int segmentId) throws IOException {
+        FileChannel channel = segments.get(segmentId);
+        return channel == null ? 0 : channel.size();
+    }
+
+    public synchronized long getTotalSize() throws IOException {
+        long total = 0;
+        for (FileChannel channel : segments.values()) {
+            total += channel.size();
+        }
+        return total;
+    }
+
+    /**
+     * 顺序遍历一个段中的所有记录
+     */
+    public void forEachRecord(int segmentId, RecordVisitor visitor) throws IOException {
+        FileChannel channel = acquire(segmentId);
+        if (channel == null) return;
+        try {
+            forEachRecord(segmentId, channel, visitor);
+        } finally {
+            release(channel);
+        }
+    }
+
+    private void forEachRecord(int segmentId, FileChannel channel, RecordVisitor visitor) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            int keyLength = header.getInt(4);
+            if (length < RECORD_HEADER_SIZE || position + length > size) {
+                // 尾部不完整的记录（写入时崩溃），之后没有有效记录
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(length - RECORD_HEADER_SIZE);
+            channel.read(record, position + RECORD_HEADER_SIZE);
+            byte[] bytes = record.array();
+            String key = new String(bytes, 0, keyLength, StandardCharsets.UTF_8);
+            byte[] row = new byte[bytes.length - keyLength];
+            System.arraycopy(bytes, keyLength, row, 0, row.length);
+
+            visitor.visit(((long) segmentId << 32) | position, length, key, row);
+            position += length;
+        }
+    }
+
+    // 各段当前的长度，按段号排列
+    public synchronized TreeMap<Integer, Long> getSegmentSizes() throws IOException {
+        TreeMap<Integer, Long> sizes = new TreeMap<>();
+        for (Map.Entry<Integer, FileChannel> entry : segments.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().size());
+        }
+        return sizes;
+    }
+
+    /**
+     * 将一个段的前length字节复制到targetFilename对应的日志段文件，用于备份
+     */
+    public void copySegment(int segmentId, long length, String targetFilename) throws IOException {
+        FileChannel channel = acquire(segmentId);
+        if (channel == null) {
+            throw new IllegalStateException("日志段不存在: " + segmentId);
+        }
+        try (FileChannel target = FileChannel.open(Paths.get(targetFilename + ".vlog." + segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < length) {
+                position += channel.transferTo(position, length - position, target);
+            }
+            target.force(false);
+        } finally {
+            release(channel);
+        }
+    }
+
+    public synchronized void deleteSegment(int segmentId) throws IOException {
+        if (segmentId == activeSegmentId) {
+            throw new IllegalStateException("不能删除活动段: " + segmentId);
+        }
+        FileChannel channel = segments.remove(segmentId);
+        if (channel != null && readers.containsKey(channel)) {
+            // 仍有线程在读取，由最后一个读取者关闭并删除
+            retired.put(channel, segmentId);
+            return;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.deleteIfExists(Paths.get(baseName + segmentId));
+    }
+}
@@ -0,0 +1,123 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * 一批插入和删除，通过BPlusTree.write原子地应用：要么全部生效，要么都不生效
+ * <p>
+ * 同一个key的多次操作以最后一次为准。批次在提交时编码为
+ * 魔数(4) + 操作数(4) + 每个操作的 类型(1) + ExportFormat记录 + 校验和(4)，
+ * 校验和不正确的批次视为没有提交。
+ *
+ * @author weeGiam
+ */
+
+public class WriteBatch {
+    private static final int MAGIC = 0x57424154;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 0;
+
+    private final List<Op> ops = new ArrayList<>();
+
+    static final class Op {
+        final String key;
+        final String[] value;
+        final String rowId;
+        final boolean delete;
+
+        Op(String key, String[] value, String rowId, boolean delete) {
+            this.key = key;
+            this.value = value;
+            this.rowId = rowId;
+            this.delete = delete;
+        }
+    }
+
+    public void put(String key, String[] value, String rowId) {
+        BPlusTreeImpl.checkKeyAndRowId(key, rowId);
+        // 批次在提交前一直引用这个数组，复制一份避免调用方之后修改
+        ops.add(new Op(key, value != null ? value.clone() : null, rowId, false));
+    }
+
+    public void delete(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key不能为空");
+        }
+        ops.add(new Op(key, null, null, true));
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    public void clear() {
+        ops.clear();
+    }
+
+    // 每个key的最后一次操作，按key排序
+    TreeMap<String, Op> latestByKey() {
+        TreeMap<String, Op> latest = new TreeMap<>();
+        for (Op op : ops) {
+            latest.put(op.key, op);
+        }
+        return latest;
+    }
+
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(ops.size());
+            for (Op op : ops) {
+                out.writeByte(op.delete ? DELETE : PUT);
+                ExportFormat.writeRecord(out, op.key, op.value, op.rowId);
+            }
+            out.flush();
+            byte[] body = bytes.toByteArray();
+            return ByteBuffer.allocate(body.length + 4)
+                    .put(body)
+                    .putInt(DiskManager.checksum(body, body.length))
+                    .array();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode write batch", e);
+        }
+    }
+
+    /**
+     * 从encode的结果恢复批次，数据不完整或校验和不正确时返回null
+     */
+    static WriteBatch decode(byte[] data) {
+        if (data.length < 12) return null;
+        int length = data.length - 4;
+        if (ByteBuffer.wrap(data).getInt(length) != DiskManager.checksum(data, length)) return null;
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+            if (in.readInt() != MAGIC) return null;
+            int count = in.readInt();
+            WriteBatch batch = new WriteBatch();
+            for (int i = 0; i < count; i++) {
+                boolean delete = in.readByte() == DELETE;
+                ExportFormat.Record record = ExportFormat.readRecord(in);
+                if (record == null) return null;
+                batch.ops.add(new Op(record.key, record.value, record.rowId, delete));
+            }
+            return batch;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
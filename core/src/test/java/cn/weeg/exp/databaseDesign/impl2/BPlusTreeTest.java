@@ -0,0 +1,2513 @@
+package cn.weeg.exp.databaseDesign.impl2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author weeGiam
+ */
+
+public class BPlusTreeTest {
+
+    public static void main(String[] args) throws Exception {
+        // 写批次测试启动的子进程，应用批次的过程中被强行终止
+        if (args.length == 3 && args[0].equals("batch-child")) {
+            runBatchChild(args[1], args[2]);
+            return;
+        }
+
+        System.out.println("开始B+树系统测试...\n");
+
+        // 基本功能测试
+        testBasicOperations();
+
+        // 统计信息持久化测试
+        testStatisticsPersistence();
+
+        // 页面大小测试
+        testPageSizes();
+
+        // 大value溢出页测试
+        testOverflowValues();
+
+        // 正常关闭标记和页面校验和测试
+        testCleanShutdown();
+
+        // 压缩页面存储测试
+        testCompressedPages();
+
+        // 键值分离测试
+        testValueLog();
+
+        // 快照测试
+        testSnapshot();
+
+        // 写时复制模式测试
+        testCopyOnWrite();
+
+        // 二级索引测试
+        testSecondaryIndex();
+
+        // Bloom过滤器测试
+        testBloomFilter();
+
+        // 行缓存测试
+        testRowCache();
+
+        // 节点内前缀查找测试
+        testKeyPrefixSearch();
+
+        // 缓冲池节点缓存测试
+        testDecodedNodeCache();
+
+        // 子节点引用转换测试
+        testPointerSwizzling();
+
+        // 异步接口测试
+        testAsyncApi();
+
+        // 反向遍历测试
+        testReverseCursor();
+
+        // 前缀扫描测试
+        testScanPrefix();
+
+        // 排名与计数测试
+        testOrderStatistics();
+
+        // 导出与批量导入测试
+        testExportImport();
+
+        // 在线备份测试
+        testOnlineBackup();
+
+        // 命名树测试
+        testNamedTrees();
+
+        // 写批次测试
+        testWriteBatch();
+
+        // 读-改-写测试
+        testComputeAndMerge();
+
+        // 范围删除测试
+        testDeleteRange();
+
+        // 大数据量性能测试
+//        testPerformanceWith5Million();
+
+        System.out.println("所有测试完成！");
+    }
+
+    private static void testBasicOperations() {
+        System.out.println("=== 基本功能测试 ===");
+
+        BPlusTree tree = new BPlusTreeImpl();
+        String filename = "test_basic.db";
+
+        try {
+            // 创建B+树
+            tree.create(filename, 4096);
+            System.out.println("✓ 1.B+树创建成功");
+
+            // 插入测试数据
+            System.out.println("插入测试数据...");
+            for (int i = 0; i < 100; i++) {
+                System.out.println("2." + (i+1) + " 插入第" + (i+1) + "条记录...");
+                String key = String.format("key_%04d", i);
+                String[] values = {
+                        "value_" + i + "_1",
+                        "value_" + i + "_2",
+                        "value_" + i + "_3"
+                };
+                String rowId = "row_" + i;
+                tree.insert(key, values, rowId);
+                System.out.println("✓ 第" + (i+1) + "条记录插入成功: " + key);
+
+            }
+            System.out.println("✓ 插入100条记录");
+
+            // 查询测试
+            System.out.println("查询测试...");
+            String[][] results = tree.get("key_0050");
+            if (results.length > 0 && results[0].length == 3) {
+                System.out.println("✓ 查询成功: " + String.join(", ", results[0]));
+            } else {
+                System.out.println("✗ 查询失败");
+            }
+
+            // 删除测试
+            tree.delete("key_0050");
+            results = tree.get("key_0050");
+            if (results.length == 0) {
+                System.out.println("✓ 删除成功");
+            } else {
+                System.out.println("✗ 删除失败");
+            }
+
+            // 统计信息
+            Statistics stats = tree.getStat();
+            System.out.println("✓ 统计信息: " + stats);
+
+            tree.close(filename);
+            System.out.println("✓ B+树关闭成功\n");
+
+        } catch (Exception e) {
+            System.out.println("✗ 基本功能测试失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testPerformanceWith5Million() {
+        System.out.println("=== 500万数据性能测试 ===");
+
+        BPlusTree tree = new BPlusTreeImpl();
+        String filename = "test_5million.db";
+        Random random = new Random(42); // 固定种子保证可重复性
+
+        try {
+            tree.create(filename, 4096);
+
+            System.out.println("开始插入500万条随机数据...");
+            long startTime = System.currentTimeMillis();
+
+            // 生成500万条随机数据
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 5_000_000; i++) {
+                String key = String.format("key_%08d", random.nextInt(10_000_000));
+                keys.add(key);
+
+                String[] values = {
+                        "value_" + i + "_field1",
+                        "value_" + i + "_field2",
+                        "value_" + i + "_field3",
+                        "value_" + i + "_field4"
+                };
+                String rowId = "row_" + i;
+
+                tree.insert(key, values, rowId);
+
+                if ((i + 1) % 500_000 == 0) {
+                    long currentTime = System.currentTimeMillis();
+                    double avgTime = (currentTime - startTime) / (double) (i + 1);
+                    System.out.printf("已插入 %,d 条记录，平均 %.3f ms/条\n", i + 1, avgTime);
+                }
+            }
+
+            long insertTime = System.currentTimeMillis() - startTime;
+            System.out.printf("✓ 插入完成，总耗时: %.2f 秒\n", insertTime / 1000.0);
+
+            // 获取插入后的统计信息
+            Statistics insertStats = tree.getStat();
+            System.out.println("插入后统计: " + insertStats);
+
+            // 查询性能测试
+            System.out.println("\n开始查询性能测试...");
+            startTime = System.currentTimeMillis();
+            int queryCount = 10000;
+            int foundCount = 0;
+
+            for (int i = 0; i < queryCount; i++) {
+                String queryKey = keys.get(random.nextInt(keys.size()));
+                String[][] results = tree.get(queryKey);
+                if (results.length > 0) {
+                    foundCount++;
+                }
+            }
+
+            long queryTime = System.currentTimeMillis() - startTime;
+            Statistics queryStats = tree.getStat();
+
+            System.out.printf("✓ 查询完成: %d/%d 条记录找到\n", foundCount, queryCount);
+            System.out.printf("✓ 查询总耗时: %.2f 秒\n", queryTime / 1000.0);
+            System.out.printf("✓ 平均查询时间: %.3f ms\n", queryTime / (double) queryCount);
+            System.out.printf("✓ 平均页面访问量: %.2f 页/查询\n",
+                    (queryStats.getPageAccessCount() - insertStats.getPageAccessCount()) / (double) queryCount);
+
+            // 最终统计信息
+            System.out.println("\n最终统计信息:");
+            System.out.println("- 填充率: " + String.format("%.2f%%", queryStats.getFillRate() * 100));
+            System.out.println("- 树高度: " + queryStats.getHeight());
+            System.out.println("- 节点数量: " + queryStats.getNodeCount());
+            System.out.println("- 分裂次数: " + queryStats.getSplitCount());
+            System.out.println("- 合并次数: " + queryStats.getMergeCount());
+            System.out.println("- 总页面访问: " + queryStats.getPageAccessCount());
+
+            tree.close(filename);
+            System.out.println("✓ 性能测试完成\n");
+
+        } catch (Exception e) {
+            System.out.println("✗ 性能测试失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testStatisticsPersistence() {
+        System.out.println("=== 统计信息持久化测试 ===");
+
+        String filename = "test_stats.db";
+        new File(filename).delete();
+
+        try {
+            BPlusTree tree = new BPlusTreeImpl();
+            tree.create(filename, 4096);
+            for (int i = 0; i < 500; i++) {
+                tree.insert(String.format("key_%04d", i), new String[]{"value_" + i}, "row_" + i);
+            }
+            // 重复插入只更新，不应增加已用槽位
+            tree.insert("key_0001", new String[]{"updated"}, "row_1");
+            tree.delete("key_0002");
+
+            Statistics before = tree.getStat();
+            long accessBefore = before.getPageAccessCount();
+            Statistics again = tree.getStat();
+            tree.close(filename);
+
+            tree = new BPlusTreeImpl();
+            tree.create(filename, 4096);
+            Statistics after = tree.getStat();
+            tree.close(filename);
+
+            boolean ok = again.getPageAccessCount() == accessBefore
+                    && before.getHeight() == after.getHeight()
+                    && before.getNodeCount() == after.getNodeCount()
+                    && before.getUsedSlots() == after.getUsedSlots()
+                    && before.getSplitCount() == after.getSplitCount()
+                    && before.getHeight() > 1
+                    && before.getBufferPoolHits() + before.getBufferPoolMisses() == before.getPageAccessCount();
+            if (ok) {
+                System.out.println("✓ 统计信息持久化测试通过: " + after);
+            } else {
+                System.out.println("✗ 统计信息持久化测试失败: before=" + before + ", after=" + after);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 统计信息持久化测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testPageSizes() {
+        System.out.println("=== 页面大小测试 ===");
+
+        int[] pageSizes = {4096, 16384, 65536};
+        int previousHeight = Integer.MAX_VALUE;
+        try {
+            for (int pageSize : pageSizes) {
+                String filename = "test_page_" + pageSize + ".db";
+                new File(filename).delete();
+
+                BPlusTree tree = new BPlusTreeImpl();
+                tree.create(filename, pageSize);
+                for (int i = 0; i < 2000; i++) {
+                    tree.insert(String.format("key_%05d", i), new String[]{"a_" + i, "b_" + i, "c_" + i}, "row_" + i);
+                }
+                Statistics stats = tree.getStat();
+                tree.close(filename);
+
+                // 重新打开时页面大小以文件记录为准
+                tree = new BPlusTreeImpl();
+                tree.create(filename, 4096);
+                String[][] results = tree.get("key_01234");
+                tree.close(filename);
+
+                if (results.length == 1 && "b_1234".equals(results[0][1]) && stats.getHeight() <= previousHeight) {
+                    System.out.println("✓ pageSize=" + pageSize + " 测试通过: " + stats);
+                } else {
+                    System.out.println("✗ pageSize=" + pageSize + " 测试失败: " + stats);
+                }
+                previousHeight = stats.getHeight();
+            }
+
+            try {
+                new BPlusTreeImpl().create("test_page_invalid.db", 1000);
+                System.out.println("✗ 非法页面大小未被拒绝");
+            } catch (IllegalArgumentException e) {
+                System.out.println("✓ 非法页面大小被拒绝");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 页面大小测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testOverflowValues() {
+        System.out.println("=== 溢出页测试 ===");
+
+        String filename = "test_overflow.db";
+        new File(filename).delete();
+
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 3000; i++) {
+                sb.append("大值").append(i);
+            }
+            String bigValue = sb.toString();
+            String[] wideRow = new String[100];
+            for (int i = 0; i < wideRow.length; i++) {
+                wideRow[i] = "col_" + i;
+            }
+
+            BPlusTree tree = new BPlusTreeImpl();
+            tree.create(filename, 4096);
+            for (int i = 0; i < 300; i++) {
+                String key = String.format("key_%04d", i);
+                if (i % 10 == 0) {
+                    tree.insert(key, new String[]{bigValue + i, "small"}, "row_" + i);
+                } else if (i % 10 == 5) {
+                    tree.insert(key, wideRow, "row_" + i);
+                } else {
+                    tree.insert(key, new String[]{"v" + i, "w" + i, "x" + i, "y" + i}, "row_" + i);
+                }
+            }
+            // 大值更新为小值、删除，释放的溢出页应被后续插入复用
+            tree.insert("key_0010", new String[]{"tiny"}, "row_10");
+            tree.delete("key_0020");
+            tree.insert("key_9999", new String[]{bigValue}, "row_9999");
+            tree.close(filename);
+
+            tree = new BPlusTreeImpl();
+            tree.create(filename, 4096);
+            boolean ok = (bigValue + "0").equals(tree.get("key_0000")[0][0])
+                    && "small".equals(tree.get("key_0290")[0][1])
+                    && "tiny".equals(tree.get("key_0010")[0][0])
+                    && tree.get("key_0020").length == 0
+                    && bigValue.equals(tree.get("key_9999")[0][0])
+                    && tree.get("key_0105")[0].length == 100
+                    && "col_99".equals(tree.get("key_0105")[0][99])
+                    && "y7".equals(tree.get("key_0007")[0][3]);
+
+            try {
+                tree.insert(bigValue, new String[]{"v"}, "row");
+                ok = false;
+            } catch (IllegalArgumentException e) {
+                // 超长key应被拒绝而不是截断
+            }
+            tree.close(filename);
+
+            if (ok) {
+                System.out.println("✓ 溢出页测试通过");
+            } else {
+                System.out.println("✗ 溢出页测试失败");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 溢出页测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testCleanShutdown() {
+        System.out.println("=== 正常关闭标记测试 ===");
+
+        String filename = "test_shutdown.db";
+        new File(filename).delete();
+
+        try {
+            BPlusTree tree = new BPlusTreeImpl();
+            tree.create(filename, 4096);
+            for (int i = 0; i < 300; i++) {
+                tree.insert(String.format("key_%04d", i), new String[]{"value_" + i}, "row_" + i);
+            }
+            tree.close(filename);
+
+            // 正常关闭后重新打开不应访问任何页面
+            tree = new BPlusTreeImpl();
+            tree.create(filename, 4096);
+            boolean fastOpen = tree.getStat().getPageAccessCount() == 0;
+            Statistics expected = tree.getStat();
+
+            // 不调用close，模拟进程异常退出；再次打开应进行全量验证
+            BPlusTree recovered = new BPlusTreeImpl();
+            recovered.create(filename, 4096);
+            Statistics afterCrash = recovered.getStat();
+            boolean validated = afterCrash.getPageAccessCount() > 0
+                    && afterCrash.getNodeCount() == expected.getNodeCount()
+                    && "value_123".equals(recovered.get("key_0123")[0][0]);
+            recovered.close(filename);
+
+            // 破坏一个数据页，打开时不检查，读取该页时才发现校验和不匹配
+            try (RandomAccessFile raf = new RandomAccessFile(filename, "rw")) {
+                raf.seek(16384L + 100);
+                raf.write(0x7F);
+            }
+            tree = new BPlusTreeImpl();
+            tree.create(filename, 4096);
+            boolean corruptionDetected = false;
+            try {
+                for (int i = 0; i < 300; i++) {
+                    tree.get(String.format("key_%04d", i));
+                }
+            } catch (RuntimeException e) {
+                corruptionDetected = true;
+            }
+            tree.close(filename);
+
+            if (fastOpen && validated && corruptionDetected) {
+                System.out.println("✓ 正常关闭标记测试通过");
+            } else {
+                System.out.println("✗ 正常关闭标记测试失败: fastOpen=" + fastOpen + ", validated=" + validated
+                        + ", corruptionDetected=" + corruptionDetected);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 正常关闭标记测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testCompressedPages() {
+        System.out.println("=== 压缩页面存储测试 ===");
+
+        String plainFile = "test_plain.db";
+        String compressedFile = "test_compressed.db";
+        new File(plainFile).delete();
+        new File(compressedFile).delete();
+        new File(compressedFile + ".pmap").delete();
+
+        try {
+            BPlusTree plain = new BPlusTreeImpl(100, false);
+            BPlusTree compressed = new BPlusTreeImpl(100, true);
+            plain.create(plainFile, 4096);
+            compressed.create(compressedFile, 4096);
+            for (int i = 0; i < 2000; i++) {
+                String key = String.format("key_%05d", (i * 7919) % 2000);
+                String[] values = {"value_" + i + "_1", "value_" + i + "_2", "value_" + i + "_3"};
+                plain.insert(key, values, "row_" + i);
+                compressed.insert(key, values, "row_" + i);
+            }
+            compressed.delete("key_00042");
+            plain.close(plainFile);
+            compressed.close(compressedFile);
+
+            // 重新打开时不需要再指定压缩选项
+            BPlusTree reopened = new BPlusTreeImpl();
+            reopened.create(compressedFile, 4096);
+            boolean ok = reopened.get("key_00042").length == 0;
+            for (int i = 0; i < 2000 && ok; i += 97) {
+                int k = (i * 7919) % 2000;
+                String[][] results = reopened.get(String.format("key_%05d", k));
+                ok = k == 42 || (results.length == 1 && ("value_" + i + "_2").equals(results[0][1]));
+            }
+            reopened.close(compressedFile);
+
+            long plainSize = new File(plainFile).length();
+            long compressedSize = new File(compressedFile).length();
+            if (ok && compressedSize < plainSize) {
+                System.out.printf("✓ 压缩页面存储测试通过: %,d -> %,d 字节\n", plainSize, compressedSize);
+            } else {
+                System.out.printf("✗ 压缩页面存储测试失败: ok=%b, %,d -> %,d 字节\n", ok, plainSize, compressedSize);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 压缩页面存储测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testValueLog() {
+        System.out.println("=== 键值分离测试 ===");
+
+        String filename = "test_vlog.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(100, false, true);
+            tree.setValueLogSegmentSize(8192);
+            tree.create(filename, 4096);
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 300; i++) {
+                    tree.insert(String.format("key_%04d", i),
+                            new String[]{"value_" + i + "_r" + round, "second_" + i}, "row_" + i);
+                }
+            }
+            for (int i = 0; i < 300; i += 3) {
+                tree.delete(String.format("key_%04d", i));
+            }
+
+            long sizeBefore = vlogSize(filename);
+            double ratioBefore = tree.getValueLogGarbageRatio();
+            for (int n = 0; n < 100 && tree.getValueLogGarbageRatio() > 0.2; n++) {
+                tree.collectValueLogGarbage();
+            }
+            long sizeAfter = vlogSize(filename);
+            tree.close(filename);
+
+            // 重新打开时无需再指定键值分离选项
+            BPlusTree reopened = new BPlusTreeImpl();
+            reopened.create(filename, 4096);
+            boolean ok = true;
+            for (int i = 0; i < 300 && ok; i++) {
+                String[][] results = reopened.get(String.format("key_%04d", i));
+                if (i % 3 == 0) {
+                    ok = results.length == 0;
+                } else {
+                    ok = results.length == 1 && ("value_" + i + "_r2").equals(results[0][0])
+                            && ("second_" + i).equals(results[0][1]);
+                }
+            }
+            reopened.close(filename);
+
+            // 另一个线程反复打开快照读取，回收在搬迁期间遇到快照时保留旧段，快照始终能读到旧记录
+            String gcFilename = "test_vlog_gc.db";
+            deleteWithSidecars(gcFilename);
+            BPlusTreeImpl gcTree = new BPlusTreeImpl(100, false, true);
+            gcTree.setValueLogSegmentSize(8192);
+            gcTree.create(gcFilename, 4096);
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 300; i++) {
+                    gcTree.insert(String.format("key_%04d", i), new String[]{"v" + i + "_r" + round}, null);
+                }
+            }
+            AtomicBoolean done = new AtomicBoolean();
+            boolean[] readerOk = {true};
+            Thread reader = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        Snapshot snapshot = gcTree.snapshot();
+                        for (int i = 0; i < 300; i += 7) {
+                            String[][] results = snapshot.get(String.format("key_%04d", i));
+                            if (results.length != 1 || !("v" + i + "_r2").equals(results[0][0])) {
+                                readerOk[0] = false;
+                            }
+                        }
+                        snapshot.close();
+                    }
+                } catch (RuntimeException e) {
+                    readerOk[0] = false;
+                }
+            });
+            reader.start();
+            for (int n = 0; n < 200; n++) {
+                gcTree.collectValueLogGarbage();
+            }
+            done.set(true);
+            reader.join();
+            for (int n = 0; n < 100 && gcTree.getValueLogGarbageRatio() > 0.2; n++) {
+                gcTree.collectValueLogGarbage();
+            }
+            boolean gcOk = readerOk[0] && gcTree.getValueLogGarbageRatio() <= 0.2;
+            for (int i = 0; i < 300 && gcOk; i++) {
+                gcOk = ("v" + i + "_r2").equals(gcTree.get(String.format("key_%04d", i))[0][0]);
+            }
+            gcTree.close(gcFilename);
+
+            // 回收删除旧段后不关闭树直接从文件重新打开（模拟崩溃），所有键仍能读到搬迁后的记录
+            String crashFilename = "test_vlog_gc_crash.db";
+            deleteWithSidecars(crashFilename);
+            BPlusTreeImpl crashTree = new BPlusTreeImpl(100, false, true);
+            crashTree.setValueLogSegmentSize(8192);
+            crashTree.create(crashFilename, 4096);
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 300; i++) {
+                    crashTree.insert(String.format("key_%04d", i), new String[]{"c" + i + "_r" + round}, null);
+                }
+            }
+            long crashSizeBefore = vlogSize(crashFilename);
+            for (int n = 0; n < 100 && crashTree.getValueLogGarbageRatio() > 0.2; n++) {
+                crashTree.collectValueLogGarbage();
+            }
+            boolean crashOk = vlogSize(crashFilename) < crashSizeBefore;
+            BPlusTree crashReopened = new BPlusTreeImpl();
+            crashReopened.create(crashFilename, 4096);
+            try {
+                for (int i = 0; i < 300 && crashOk; i++) {
+                    String[][] results = crashReopened.get(String.format("key_%04d", i));
+                    crashOk = results.length == 1 && ("c" + i + "_r2").equals(results[0][0]);
+                }
+            } catch (RuntimeException e) {
+                crashOk = false;
+            }
+            crashReopened.close(crashFilename);
+            deleteWithSidecars(crashFilename);
+
+            // 段在遍历期间被删除时，最后一个读取结束后才关闭并删除文件
+            String logFilename = "test_vlog_direct.db";
+            deleteWithSidecars(logFilename);
+            ValueLog log = new ValueLog(logFilename, 256);
+            log.open();
+            for (int i = 0; i < 10; i++) {
+                log.append("k" + i, new byte[100]);
+            }
+            int[] visited = {0};
+            log.forEachRecord(0, (pointer, length, key, row) -> {
+                if (visited[0]++ == 0) {
+                    try {
+                        log.deleteSegment(0);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            boolean deferredOk = visited[0] == 2 && !new File(logFilename + ".vlog.0").exists();
+            log.close();
+            deleteWithSidecars(logFilename);
+
+            if (ok && sizeAfter < sizeBefore && ratioBefore > 0.5 && gcOk && crashOk && deferredOk) {
+                System.out.printf("✓ 键值分离测试通过: value log %,d -> %,d 字节\n", sizeBefore, sizeAfter);
+            } else {
+                System.out.printf("✗ 键值分离测试失败: ok=%b, value log %,d -> %,d 字节, 垃圾比例 %.2f, gcOk=%b, crashOk=%b, deferredOk=%b\n",
+                        ok, sizeBefore, sizeAfter, ratioBefore, gcOk, crashOk, deferredOk);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 键值分离测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testSnapshot() {
+        System.out.println("=== 快照测试 ===");
+
+        String filename = "test_snapshot.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(50);
+            tree.create(filename, 4096);
+            String big = "x".repeat(200);
+            for (int i = 0; i < 200; i++) {
+                String[] value = i % 10 == 0
+                        ? new String[]{big + i}
+                        : new String[]{"old_" + i, "second_" + i};
+                tree.insert(String.format("key_%04d", i), value, "row_" + i);
+            }
+
+            Snapshot snapshot = tree.snapshot();
+
+            // 快照打开期间继续写入：覆盖、删除和引起分裂的新插入
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    tree.insert(String.format("key_%04d", i), new String[]{"new_" + i}, "row_" + i);
+                }
+                for (int i = 0; i < 200; i += 2) {
+                    tree.delete(String.format("key_%04d", i));
+                }
+                for (int i = 200; i < 600; i++) {
+                    tree.insert(String.format("key_%04d", i), new String[]{"new_" + i}, "row_" + i);
+                }
+            });
+            writer.start();
+
+            List<String> seen = new ArrayList<>();
+            boolean[] ok = {true};
+            snapshot.forEach((key, value, rowId) -> {
+                int i = Integer.parseInt(key.substring(4));
+                String expected = i % 10 == 0 ? big + i : "old_" + i;
+                if (!expected.equals(value[0]) || !("row_" + i).equals(rowId)) {
+                    ok[0] = false;
+                }
+                seen.add(key);
+            });
+            writer.join();
+
+            for (int i = 0; i < 200 && ok[0]; i++) {
+                String[][] results = snapshot.get(String.format("key_%04d", i));
+                String expected = i % 10 == 0 ? big + i : "old_" + i;
+                ok[0] = results.length == 1 && expected.equals(results[0][0]);
+            }
+            boolean snapshotMissesNewKeys = snapshot.get("key_0300").length == 0;
+            boolean liveSeesWrites = tree.get("key_0000").length == 0
+                    && "new_1".equals(tree.get("key_0001")[0][0])
+                    && "new_300".equals(tree.get("key_0300")[0][0]);
+
+            int retained = tree.getRetainedVersionCount();
+            snapshot.close();
+            int retainedAfterClose = tree.getRetainedVersionCount();
+            tree.close(filename);
+
+            boolean ordered = seen.size() == 200;
+            for (int i = 1; i < seen.size() && ordered; i++) {
+                ordered = seen.get(i - 1).compareTo(seen.get(i)) < 0;
+            }
+
+            if (ok[0] && ordered && snapshotMissesNewKeys && liveSeesWrites && retained > 0 && retainedAfterClose == 0) {
+                System.out.println("✓ 快照测试通过: 保留旧页面 " + retained + " 个，关闭后全部释放");
+            } else {
+                System.out.printf("✗ 快照测试失败: ok=%b, ordered=%b(%d), newKeys=%b, live=%b, retained=%d -> %d\n",
+                        ok[0], ordered, seen.size(), snapshotMissesNewKeys, liveSeesWrites, retained, retainedAfterClose);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 快照测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testCopyOnWrite() {
+        System.out.println("=== 写时复制模式测试 ===");
+
+        String filename = "test_cow.db";
+        deleteWithSidecars(filename);
+
+        try {
+            CopyOnWriteBPlusTree tree = new CopyOnWriteBPlusTree(64);
+            tree.create(filename, 4096);
+            String big = "y".repeat(300);
+            for (int i = 0; i < 1000; i++) {
+                String[] value = i % 50 == 0 ? new String[]{big + i} : new String[]{"v1_" + i, "row" + i};
+                tree.insert(String.format("key_%04d", i), value, "row_" + i);
+            }
+            Snapshot snapshot = tree.snapshot();
+
+            for (int i = 0; i < 1000; i += 2) {
+                tree.delete(String.format("key_%04d", i));
+            }
+            for (int i = 1; i < 1000; i += 2) {
+                tree.insert(String.format("key_%04d", i), new String[]{"v2_" + i}, "row_" + i);
+            }
+
+            // 快照仍然看到写入前的数据
+            boolean ok = true;
+            for (int i = 0; i < 1000 && ok; i++) {
+                String[][] old = snapshot.get(String.format("key_%04d", i));
+                String expected = i % 50 == 0 ? big + i : "v1_" + i;
+                ok = old.length == 1 && expected.equals(old[0][0]);
+            }
+            int[] count = {0};
+            snapshot.forEach((key, value, rowId) -> count[0]++);
+            snapshot.close();
+            ok = ok && count[0] == 1000;
+
+            tree.commit();
+            long committedTxn = tree.getTxnId();
+            tree.insert("key_9999", new String[]{"uncommitted"}, "row_9999");
+            tree.close(filename);
+
+            // 损坏最新的元数据槽位，重新打开后应回退到上一次提交
+            try (RandomAccessFile raf = new RandomAccessFile(filename, "rw")) {
+                long latestSlot = (committedTxn + 1) % 2 == 0 ? 0 : 8192;
+                raf.seek(latestSlot + 12);
+                raf.writeInt(0x7FFFFFFF);
+            }
+            CopyOnWriteBPlusTree reopened = new CopyOnWriteBPlusTree();
+            reopened.create(filename, 4096);
+            boolean rolledBack = reopened.getTxnId() == committedTxn && reopened.get("key_9999").length == 0;
+            for (int i = 0; i < 1000 && ok; i++) {
+                String[][] results = reopened.get(String.format("key_%04d", i));
+                ok = i % 2 == 0 ? results.length == 0
+                        : results.length == 1 && ("v2_" + i).equals(results[0][0]);
+            }
+            reopened.close(filename);
+
+            boolean rejected = false;
+            try {
+                new BPlusTreeImpl().create(filename, 4096);
+            } catch (IllegalStateException e) {
+                rejected = true;
+            }
+
+            if (ok && rolledBack && rejected) {
+                System.out.println("✓ 写时复制模式测试通过: 提交事务数 " + committedTxn);
+            } else {
+                System.out.printf("✗ 写时复制模式测试失败: ok=%b, rolledBack=%b, rejected=%b\n", ok, rolledBack, rejected);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 写时复制模式测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testSecondaryIndex() {
+        System.out.println("=== 二级索引测试 ===");
+
+        String filename = "test_index.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            String longCity = "city_with_a_very_long_name_".repeat(4);
+            for (int i = 0; i < 300; i++) {
+                String city = i % 30 == 0 ? longCity + (i % 60) : "city_" + (i % 10);
+                tree.insert(String.format("key_%04d", i), new String[]{"name_" + i, city}, "row_" + i);
+            }
+
+            // 已有数据回填到索引，之后的插入、覆盖和删除自动维护索引
+            tree.createIndex(1);
+            for (int i = 300; i < 400; i++) {
+                tree.insert(String.format("key_%04d", i), new String[]{"name_" + i, "city_" + (i % 10)}, "row_" + i);
+            }
+            for (int i = 1; i < 400; i += 10) {
+                tree.insert(String.format("key_%04d", i), new String[]{"name_" + i, "moved"}, "row_" + i);
+            }
+            for (int i = 2; i < 400; i += 10) {
+                tree.delete(String.format("key_%04d", i));
+            }
+            tree.close(filename);
+
+            BPlusTreeImpl reopened = new BPlusTreeImpl(100);
+            reopened.create(filename, 4096);
+            boolean ok = true;
+            for (int c = 0; c < 10 && ok; c++) {
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 400; i++) {
+                    boolean isLong = i < 300 && i % 30 == 0;
+                    if (i % 10 != 1 && i % 10 != 2 && !isLong && i % 10 == c) {
+                        expected.add(String.format("key_%04d", i));
+                    }
+                }
+                String[] keys = reopened.getKeysByIndex(1, "city_" + c);
+                ok = expected.equals(Arrays.asList(keys));
+                if (!ok) {
+                    System.out.println("city_" + c + " 期望 " + expected.size() + " 个, 实际 " + keys.length);
+                }
+            }
+            ok = ok && reopened.getByIndex(1, "moved").length == 40
+                    && "name_11".equals(reopened.getByIndex(1, "moved")[1][0]);
+            // 超长列值按前缀索引，回表过滤后只返回完全相等的行
+            String[] longMatches = reopened.getKeysByIndex(1, longCity + "30");
+            ok = ok && longMatches.length == 5 && "key_0030".equals(longMatches[0]);
+            ok = ok && reopened.getKeysByIndex(1, "nowhere").length == 0;
+
+            // 列值互为前缀、含有\0、恰好在截断边界上，以及主键过长只能截断加哈希的entry
+            String edge = "x".repeat(30);
+            String[][] edgeCases = {{"a", "edge_a"}, {"a\u0000b", "edge_a0b"}, {"ab", "edge_ab"},
+                    {edge, "edge_30"}, {edge + "y", "edge_31"}};
+            for (String[] edgeCase : edgeCases) {
+                reopened.insert(edgeCase[1], new String[]{"n", edgeCase[0]}, null);
+            }
+            String longKey1 = "p".repeat(58) + "1";
+            String longKey2 = "p".repeat(58) + "2";
+            reopened.insert(longKey2, new String[]{"n", "shared"}, null);
+            reopened.insert(longKey1, new String[]{"n", "shared"}, null);
+            for (String[] edgeCase : edgeCases) {
+                ok = ok && List.of(edgeCase[1]).equals(Arrays.asList(reopened.getKeysByIndex(1, edgeCase[0])));
+            }
+            ok = ok && List.of(longKey1, longKey2).equals(Arrays.asList(reopened.getKeysByIndex(1, "shared")));
+            reopened.delete(longKey1);
+            ok = ok && List.of(longKey2).equals(Arrays.asList(reopened.getKeysByIndex(1, "shared")));
+
+            // 热门列值的一次更新只插入或删除一个entry，访问的页面数与该列值的主键数量无关
+            for (int i = 0; i < 10000; i++) {
+                reopened.insert(String.format("hot_%05d", i), new String[]{"n", "hot"}, null);
+            }
+            long before = reopened.getStat().getPageAccessCount();
+            reopened.insert("hot_05000", new String[]{"n", "cold"}, null);
+            reopened.insert("hot_10000", new String[]{"n", "hot"}, null);
+            long hotAccesses = reopened.getStat().getPageAccessCount() - before;
+            String[] hot = reopened.getKeysByIndex(1, "hot");
+            ok = ok && hotAccesses < 100 && hot.length == 10000 && "hot_10000".equals(hot[9999])
+                    && List.of("hot_05000").equals(Arrays.asList(reopened.getKeysByIndex(1, "cold")));
+
+            int nodesBefore = reopened.getStat().getNodeCount();
+            reopened.dropIndex(1);
+            boolean dropped = reopened.getStat().getNodeCount() < nodesBefore;
+            boolean rejected = false;
+            try {
+                reopened.getByIndex(1, "city_1");
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            reopened.close(filename);
+
+            if (ok && dropped && rejected) {
+                System.out.println("✓ 二级索引测试通过: 热门列值更新两次访问页面 " + hotAccesses + " 次");
+            } else {
+                System.out.printf("✗ 二级索引测试失败: ok=%b, dropped=%b, rejected=%b, hotAccesses=%d\n",
+                        ok, dropped, rejected, hotAccesses);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 二级索引测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testBloomFilter() {
+        System.out.println("=== Bloom过滤器测试 ===");
+
+        String filename = "test_bloom.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTree tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            for (int i = 0; i < 3000; i++) {
+                tree.insert(String.format("key_%06d", i * 2), new String[]{"value_" + i}, "row_" + i);
+            }
+            long missAccesses = missingKeyAccesses(tree);
+            tree.close(filename);
+            boolean saved = new File(filename + ".bloom").exists();
+
+            // 正常关闭后直接加载过滤器
+            BPlusTree reopened = new BPlusTreeImpl(100);
+            reopened.create(filename, 4096);
+            long reopenedAccesses = missingKeyAccesses(reopened);
+            reopened.close(filename);
+
+            // 过滤器文件丢失时遍历叶子重建，已有key不能被误判为不存在
+            new File(filename + ".bloom").delete();
+            BPlusTree rebuilt = new BPlusTreeImpl(100);
+            rebuilt.create(filename, 4096);
+            boolean found = true;
+            for (int i = 0; i < 3000 && found; i++) {
+                found = rebuilt.get(String.format("key_%06d", i * 2)).length == 1;
+            }
+            long rebuiltAccesses = missingKeyAccesses(rebuilt);
+            rebuilt.close(filename);
+
+            // 3000次查询不存在的key，每次完整下降至少访问3个页面
+            if (saved && found && missAccesses < 500 && reopenedAccesses < 500 && rebuiltAccesses < 500) {
+                System.out.printf("✓ Bloom过滤器测试通过: 3000次未命中查询访问页面 %d / %d / %d 次\n",
+                        missAccesses, reopenedAccesses, rebuiltAccesses);
+            } else {
+                System.out.printf("✗ Bloom过滤器测试失败: saved=%b, found=%b, 访问页面 %d / %d / %d 次\n",
+                        saved, found, missAccesses, reopenedAccesses, rebuiltAccesses);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Bloom过滤器测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // 查询3000个不存在的奇数key，返回期间访问的页面数
+    private static long missingKeyAccesses(BPlusTree tree) {
+        long before = tree.getStat().getPageAccessCount();
+        for (int i = 0; i < 3000; i++) {
+            if (tree.get(String.format("key_%06d", i * 2 + 1)).length != 0) {
+                throw new IllegalStateException("不存在的key返回了结果");
+            }
+        }
+        return tree.getStat().getPageAccessCount() - before;
+    }
+
+    private static void testRowCache() {
+        System.out.println("=== 行缓存测试 ===");
+
+        String filename = "test_rowcache.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(100);
+            // 大约能放下40行
+            tree.setRowCacheCapacity(40 * 400);
+            tree.create(filename, 4096);
+            for (int i = 0; i < 2000; i++) {
+                tree.insert(String.format("key_%04d", i), new String[]{"value_" + i, "second_" + i}, "row_" + i);
+            }
+
+            // 热点key反复访问后，一次性扫描冷数据不应把它们挤出缓存
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 20; i++) {
+                    tree.get(String.format("key_%04d", i * 97));
+                }
+            }
+            for (int i = 0; i < 2000; i++) {
+                tree.get(String.format("key_%04d", i));
+            }
+            long accessesBefore = tree.getStat().getPageAccessCount();
+            long hitsBefore = tree.getStat().getRowCacheHits();
+            for (int i = 0; i < 20; i++) {
+                tree.get(String.format("key_%04d", i * 97));
+            }
+            long hotAccesses = tree.getStat().getPageAccessCount() - accessesBefore;
+            long hotHits = tree.getStat().getRowCacheHits() - hitsBefore;
+
+            // 修改get返回的数组不影响之后的读取，无论结果来自树还是缓存
+            tree.get("key_0291")[0][0] = "changed";
+            tree.get("key_0291")[0][1] = "changed";
+            boolean isolated = "value_291".equals(tree.get("key_0291")[0][0])
+                    && "second_291".equals(tree.get("key_0291")[0][1]);
+
+            // 插入和删除使缓存失效
+            tree.insert("key_0097", new String[]{"updated"}, "row_97");
+            boolean updated = "updated".equals(tree.get("key_0097")[0][0]);
+            tree.delete("key_0194");
+            boolean deleted = tree.get("key_0194").length == 0;
+            tree.close(filename);
+
+            if (hotHits == 20 && hotAccesses == 0 && isolated && updated && deleted) {
+                System.out.println("✓ 行缓存测试通过: " + tree.getStat());
+            } else {
+                System.out.printf("✗ 行缓存测试失败: hotHits=%d, hotAccesses=%d, isolated=%b, updated=%b, deleted=%b\n",
+                        hotHits, hotAccesses, isolated, updated, deleted);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 行缓存测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testKeyPrefixSearch() {
+        System.out.println("=== 节点内前缀查找测试 ===");
+
+        Random random = new Random(42);
+        String[] alphabet = {"a", "b", "z", "_", "0", "9", "é", "中", "\uD83D\uDE00", "\u0000"};
+        boolean ok = true;
+        for (int round = 0; round < 200 && ok; round++) {
+            // 一半的轮次使用较长的公共前缀
+            String prefix = round % 2 == 0 ? "" : "key_" + "0".repeat(random.nextInt(6));
+            TreeSet<String> keySet = new TreeSet<>();
+            int count = 1 + random.nextInt(30);
+            while (keySet.size() < count) {
+                keySet.add(prefix + randomString(random, alphabet, 1 + random.nextInt(8)));
+            }
+            List<String> sorted = new ArrayList<>(keySet);
+
+            LeafNode leaf = new LeafNode(0, 40);
+            InternalNode internal = new InternalNode(0, 40);
+            for (String key : sorted) {
+                leaf.insertKeyValue(key, new String[]{key}, null);
+            }
+            for (int i = 0; i < sorted.size(); i++) {
+                internal.insertKeyChild(sorted.get(i), i, i + 1);
+            }
+
+            for (int probe = 0; probe < 50 && ok; probe++) {
+                String key = probe % 3 == 0
+                        ? sorted.get(random.nextInt(sorted.size()))
+                        : (random.nextBoolean() ? prefix : "") + randomString(random, alphabet, random.nextInt(9));
+                int lowerBound = 0;
+                while (lowerBound < sorted.size() && sorted.get(lowerBound).compareTo(key) < 0) {
+                    lowerBound++;
+                }
+                int childIndex = lowerBound < sorted.size() && sorted.get(lowerBound).equals(key) ? lowerBound + 1 : lowerBound;
+
+                ok = leaf.binarySearch(key) == lowerBound
+                        && leaf.indexOf(key) == sorted.indexOf(key)
+                        && internal.findChildIndex(key) == childIndex
+                        && internal.findChild(key) == childIndex;
+                if (!ok) {
+                    System.out.println("查找不一致: key=" + key + ", keys=" + sorted);
+                }
+            }
+        }
+
+        // 租户/实体/编号形式的key：公共前缀之后的4个字符在同一租户内全部相同，包括全为0xFFFF的前缀
+        List<String> tenantKeys = new ArrayList<>();
+        for (String tenant : new String[]{"t1/entity/", "t2/entity/", "\uFFFF\uFFFF\uFFFF\uFFFF/"}) {
+            for (int i = 0; i < 120; i++) {
+                tenantKeys.add("tenant_" + tenant + String.format("%05d", i * 3));
+            }
+        }
+        Collections.sort(tenantKeys);
+        LeafNode tenantLeaf = new LeafNode(0, 400);
+        InternalNode tenantInternal = new InternalNode(0, 400);
+        for (int i = 0; i < tenantKeys.size(); i++) {
+            tenantLeaf.insertKeyValue(tenantKeys.get(i), new String[]{"v"}, null);
+            tenantInternal.insertKeyChild(tenantKeys.get(i), i, i + 1);
+        }
+        for (int i = 0; i < tenantKeys.size() && ok; i++) {
+            String key = tenantKeys.get(i);
+            String[] probes = {key, key + "\u0000", key.substring(0, key.length() - 1),
+                    key.substring(0, key.length() - 1) + "9", key.substring(0, key.length() - 5)};
+            for (String probe : probes) {
+                int found = Collections.binarySearch(tenantKeys, probe);
+                int lowerBound = found >= 0 ? found : -found - 1;
+                int childIndex = found >= 0 ? found + 1 : lowerBound;
+                ok = ok && tenantLeaf.binarySearch(probe) == lowerBound
+                        && tenantLeaf.indexOf(probe) == (found >= 0 ? found : -1)
+                        && tenantInternal.findChildIndex(probe) == childIndex;
+                if (!ok) {
+                    System.out.println("查找不一致: key=" + probe);
+                    break;
+                }
+            }
+        }
+
+        if (ok) {
+            System.out.println("✓ 节点内前缀查找测试通过");
+        } else {
+            System.out.println("✗ 节点内前缀查找测试失败");
+        }
+    }
+
+    private static void testDecodedNodeCache() {
+        System.out.println("=== 缓冲池节点缓存测试 ===");
+
+        String filename = "test_nodecache.db";
+        String smallPoolFilename = "test_nodecache_small.db";
+        deleteWithSidecars(filename);
+        deleteWithSidecars(smallPoolFilename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(1000);
+            tree.setRowCacheCapacity(0);
+            tree.create(filename, 4096);
+            String[] value = new String[1];
+            for (int i = 0; i < 3000; i++) {
+                value[0] = "value_" + i;
+                tree.insert(String.format("key_%04d", i), value, "row_" + i);
+            }
+            // 插入后修改调用方的数组不能影响树中的数据
+            value[0] = "changed";
+
+            // 页面都在缓冲池中，重复查询不再解码节点
+            long decodesBefore = tree.getNodeDecodeCount();
+            boolean allFound = true;
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 3000; i++) {
+                    String[][] result = tree.get(String.format("key_%04d", i));
+                    allFound &= result.length == 1 && ("value_" + i).equals(result[0][0]);
+                }
+            }
+            long decodes = tree.getNodeDecodeCount() - decodesBefore;
+
+            // 修改尚未写回的缓存节点时，快照仍读到修改前的内容
+            Snapshot snapshot = tree.snapshot();
+            for (int i = 0; i < 100; i++) {
+                tree.insert(String.format("key_%04d", i), new String[]{"new_" + i}, "row_" + i);
+            }
+            boolean snapshotIsolated = "value_5".equals(snapshot.get("key_0005")[0][0])
+                    && "new_5".equals(tree.get("key_0005")[0][0]);
+            snapshot.close();
+            tree.close(filename);
+
+            // 缓冲池很小时，脏节点在驱逐时序列化写回
+            BPlusTreeImpl small = new BPlusTreeImpl(8);
+            small.create(smallPoolFilename, 4096);
+            for (int i = 0; i < 3000; i++) {
+                small.insert(String.format("key_%04d", (i * 7919) % 3000), new String[]{"v" + i}, null);
+            }
+            small.close(smallPoolFilename);
+            small = new BPlusTreeImpl(8);
+            small.create(smallPoolFilename, 4096);
+            boolean persisted = true;
+            for (int i = 0; i < 3000; i++) {
+                String[][] result = small.get(String.format("key_%04d", (i * 7919) % 3000));
+                persisted &= result.length == 1 && ("v" + i).equals(result[0][0]);
+            }
+            small.close(smallPoolFilename);
+
+            if (allFound && decodes == 0 && snapshotIsolated && persisted) {
+                System.out.println("✓ 缓冲池节点缓存测试通过");
+            } else {
+                System.out.printf("✗ 缓冲池节点缓存测试失败: allFound=%b, decodes=%d, snapshotIsolated=%b, persisted=%b\n",
+                        allFound, decodes, snapshotIsolated, persisted);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 缓冲池节点缓存测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testPointerSwizzling() {
+        System.out.println("=== 子节点引用转换测试 ===");
+
+        String filename = "test_swizzle.db";
+        String smallPoolFilename = "test_swizzle_small.db";
+        deleteWithSidecars(filename);
+        deleteWithSidecars(smallPoolFilename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(1000);
+            tree.setRowCacheCapacity(0);
+            tree.create(filename, 4096);
+            for (int i = 0; i < 3000; i++) {
+                tree.insert(String.format("key_%04d", i), new String[]{"value_" + i}, "row_" + i);
+            }
+            for (int i = 0; i < 3000; i++) {
+                tree.get(String.format("key_%04d", i));
+            }
+
+            // 整棵树常驻后，根以下每一层都通过直接引用访问
+            int height = tree.getStat().getHeight();
+            long swizzledBefore = tree.getSwizzledAccessCount();
+            long accessesBefore = tree.getStat().getPageAccessCount();
+            boolean allFound = true;
+            for (int i = 0; i < 3000; i++) {
+                String[][] result = tree.get(String.format("key_%04d", i));
+                allFound &= result.length == 1 && ("value_" + i).equals(result[0][0]);
+            }
+            long swizzled = tree.getSwizzledAccessCount() - swizzledBefore;
+            long accesses = tree.getStat().getPageAccessCount() - accessesBefore;
+            tree.close(filename);
+
+            // 缓冲池很小时，被驱逐的页面必须从父节点换回页面ID
+            BPlusTreeImpl small = new BPlusTreeImpl(8);
+            small.setRowCacheCapacity(0);
+            small.create(smallPoolFilename, 4096);
+            for (int i = 0; i < 3000; i++) {
+                small.insert(String.format("key_%04d", (i * 7919) % 3000), new String[]{"v" + i}, null);
+            }
+            for (int i = 0; i < 3000; i += 3) {
+                small.delete(String.format("key_%04d", (i * 7919) % 3000));
+            }
+            boolean consistent = true;
+            for (int i = 0; i < 3000; i++) {
+                String[][] result = small.get(String.format("key_%04d", (i * 7919) % 3000));
+                consistent &= i % 3 == 0 ? result.length == 0 : result.length == 1 && ("v" + i).equals(result[0][0]);
+            }
+            long evictions = small.getStat().getBufferPoolEvictions();
+            long smallSwizzled = small.getSwizzledAccessCount();
+            small.close(smallPoolFilename);
+
+            if (allFound && height > 1 && swizzled == 3000L * (height - 1) && accesses == 3000L * height
+                    && consistent && evictions > 0 && smallSwizzled > 0) {
+                System.out.println("✓ 子节点引用转换测试通过: 高度 " + height + ", 直接引用访问 " + swizzled + " / " + accesses);
+            } else {
+                System.out.printf("✗ 子节点引用转换测试失败: allFound=%b, height=%d, swizzled=%d, accesses=%d, consistent=%b, evictions=%d, smallSwizzled=%d\n",
+                        allFound, height, swizzled, accesses, consistent, evictions, smallSwizzled);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 子节点引用转换测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testAsyncApi() {
+        System.out.println("=== 异步接口测试 ===");
+
+        String filename = "test_async.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            AsyncBPlusTree async = new AsyncBPlusTree(tree, 4, 16);
+
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                futures.add(async.insertAsync(String.format("key_%04d", i), new String[]{"value_" + i}, "row_" + i));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+            List<CompletableFuture<String[][]>> gets = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                gets.add(async.getAsync(String.format("key_%04d", i)));
+            }
+            boolean allFound = true;
+            for (int i = 0; i < 1000; i++) {
+                String[][] result = gets.get(i).join();
+                allFound &= result.length == 1 && ("value_" + i).equals(result[0][0]);
+            }
+
+            async.deleteAsync("key_0500").join();
+            List<String> scanned = Collections.synchronizedList(new ArrayList<>());
+            long count = async.scanAsync((key, value, rowId) -> scanned.add(key)).join();
+            boolean scanOk = count == 999 && scanned.size() == 999 && !scanned.contains("key_0500")
+                    && scanned.get(0).equals("key_0000") && scanned.get(998).equals("key_0999");
+
+            // 非法参数的异常通过future返回
+            boolean failed;
+            try {
+                async.insertAsync(null, new String[]{"x"}, null).join();
+                failed = false;
+            } catch (CompletionException e) {
+                failed = e.getCause() instanceof IllegalArgumentException;
+            }
+
+            async.close();
+            boolean rejected = async.getAsync("key_0001").isCompletedExceptionally();
+
+            // 名额全部占满时，回调中继续提交操作：四个遍历同时进行，完成后各自再链式读取两次
+            AsyncBPlusTree capped = new AsyncBPlusTree(tree, 4, 4);
+            CountDownLatch allRunning = new CountDownLatch(4);
+            List<CompletableFuture<String[][]>> chains = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                String first = String.format("key_%04d", i);
+                String second = String.format("key_%04d", i + 100);
+                AtomicBoolean waited = new AtomicBoolean();
+                chains.add(capped.scanAsync((key, value, rowId) -> {
+                    if (waited.compareAndSet(false, true)) {
+                        allRunning.countDown();
+                        try {
+                            allRunning.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }).thenCompose(n -> capped.getAsync(first)).thenCompose(r -> capped.getAsync(second)));
+            }
+            boolean chained;
+            try {
+                CompletableFuture.allOf(chains.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+                chained = true;
+                for (int i = 0; i < 4; i++) {
+                    chained &= ("value_" + (i + 100)).equals(chains.get(i).join()[0][0]);
+                }
+            } catch (TimeoutException e) {
+                chained = false;
+            }
+            capped.close();
+            tree.close(filename);
+
+            if (allFound && scanOk && failed && rejected && chained) {
+                System.out.println("✓ 异步接口测试通过");
+            } else {
+                System.out.printf("✗ 异步接口测试失败: allFound=%b, scanOk=%b, failed=%b, rejected=%b, chained=%b\n",
+                        allFound, scanOk, failed, rejected, chained);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 异步接口测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testReverseCursor() {
+        System.out.println("=== 反向遍历测试 ===");
+
+        String filename = "test_reverse.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(20);
+            tree.create(filename, 4096);
+            for (int i = 0; i < 3000; i++) {
+                int k = (i * 7919) % 3000;
+                tree.insert(String.format("key_%04d", k), new String[]{"value_" + k}, "row_" + k);
+            }
+            tree.close(filename);
+
+            // 重新打开后前驱指针仍然有效
+            tree = new BPlusTreeImpl(20);
+            tree.create(filename, 4096);
+            List<String> all = collect(tree.reverseCursor(null), -1);
+            boolean fullOrder = all.size() == 3000;
+            for (int i = 0; i < all.size() && fullOrder; i++) {
+                fullOrder = all.get(i).equals(String.format("key_%04d", 2999 - i));
+            }
+
+            Cursor cursor = tree.reverseCursor("key_1500");
+            boolean positioned = cursor.next() && cursor.key().equals("key_1500")
+                    && cursor.value()[0].equals("value_1500") && cursor.rowId().equals("row_1500");
+            positioned &= collect(tree.reverseCursor("key_1500x"), 1).equals(List.of("key_1500"));
+            positioned &= collect(tree.reverseCursor("key_0000"), -1).equals(List.of("key_0000"));
+            positioned &= collect(tree.reverseCursor("a"), -1).isEmpty();
+
+            // 遍历过程中插入数据导致前面的叶子分裂，结果仍然严格降序且不遗漏原有的key
+            cursor = tree.reverseCursor("key_2000");
+            List<String> seen = new ArrayList<>();
+            for (int i = 0; i < 10 && cursor.next(); i++) {
+                seen.add(cursor.key());
+            }
+            for (int i = 0; i < 1990; i++) {
+                tree.insert(String.format("key_%04d_x", i), new String[]{"extra"}, null);
+            }
+            while (cursor.next()) {
+                seen.add(cursor.key());
+            }
+            boolean concurrent = true;
+            for (int i = 1; i < seen.size() && concurrent; i++) {
+                concurrent = seen.get(i - 1).compareTo(seen.get(i)) > 0;
+            }
+            for (int i = 0; i <= 2000 && concurrent; i++) {
+                concurrent = seen.contains(String.format("key_%04d", i));
+            }
+            tree.close(filename);
+
+            boolean closed;
+            try {
+                cursor.next();
+                closed = false;
+            } catch (IllegalStateException e) {
+                closed = true;
+            }
+
+            if (fullOrder && positioned && concurrent && closed) {
+                System.out.println("✓ 反向遍历测试通过");
+            } else {
+                System.out.printf("✗ 反向遍历测试失败: fullOrder=%b, positioned=%b, concurrent=%b, closed=%b\n",
+                        fullOrder, positioned, concurrent, closed);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 反向遍历测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testScanPrefix() {
+        System.out.println("=== 前缀扫描测试 ===");
+
+        String filename = "test_prefix.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(100);
+            tree.setRowCacheCapacity(0);
+            tree.create(filename, 4096);
+            List<String> keys = new ArrayList<>();
+            for (int t = 0; t < 10; t++) {
+                for (int e = 0; e < 5; e++) {
+                    for (int id = 0; id < 60; id++) {
+                        keys.add(String.format("t%d/e%d/%02d", t, e, id));
+                    }
+                }
+            }
+            keys.add("t5");
+            Collections.shuffle(keys, new Random(7));
+            for (String key : keys) {
+                tree.insert(key, new String[]{"v_" + key}, null);
+            }
+
+            List<String> tenant = collect(tree.scanPrefix("t3/"), -1);
+            boolean tenantOk = tenant.size() == 300;
+            for (int i = 0; i < tenant.size() && tenantOk; i++) {
+                tenantOk = tenant.get(i).startsWith("t3/") && (i == 0 || tenant.get(i - 1).compareTo(tenant.get(i)) < 0);
+            }
+
+            // 一次下降加少量叶子，不遍历整棵树
+            long accessesBefore = tree.getStat().getPageAccessCount();
+            Cursor cursor = tree.scanPrefix("t3/e2/");
+            List<String> entity = collect(cursor, -1);
+            long accesses = tree.getStat().getPageAccessCount() - accessesBefore;
+            boolean entityOk = entity.size() == 60 && entity.get(0).equals("t3/e2/00") && entity.get(59).equals("t3/e2/59")
+                    && accesses < 30;
+
+            Cursor single = tree.scanPrefix("t9/e4/59");
+            boolean edgesOk = single.next() && single.key().equals("t9/e4/59") && single.value()[0].equals("v_t9/e4/59")
+                    && !single.next();
+            edgesOk &= collect(tree.scanPrefix("t3/e2/5"), -1).size() == 10;
+            edgesOk &= collect(tree.scanPrefix(""), -1).size() == 3001;
+            edgesOk &= collect(tree.scanPrefix("zzz"), -1).isEmpty();
+            List<String> withExact = collect(tree.scanPrefix("t5"), -1);
+            edgesOk &= withExact.size() == 301 && withExact.get(0).equals("t5");
+            tree.close(filename);
+
+            if (tenantOk && entityOk && edgesOk) {
+                System.out.println("✓ 前缀扫描测试通过: 扫描60条记录访问页面 " + accesses + " 次");
+            } else {
+                System.out.printf("✗ 前缀扫描测试失败: tenantOk=%b, entityOk=%b, accesses=%d, edgesOk=%b\n",
+                        tenantOk, entityOk, accesses, edgesOk);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 前缀扫描测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testOrderStatistics() {
+        System.out.println("=== 排名与计数测试 ===");
+
+        String filename = "test_order_stats.db";
+        deleteWithSidecars(filename);
+
+        try {
+            // 缓冲池很小，子树记录数的更新需要经过页面换出和重新读入
+            BPlusTreeImpl tree = new BPlusTreeImpl(16);
+            tree.setRowCacheCapacity(0);
+            tree.create(filename, 4096);
+            TreeSet<String> model = new TreeSet<>();
+            Random random = new Random(44);
+            for (int i = 0; i < 6000; i++) {
+                String key = String.format("k%05d", random.nextInt(8000));
+                if (random.nextInt(4) == 0) {
+                    tree.delete(key);
+                    model.remove(key);
+                } else {
+                    tree.insert(key, new String[]{"v" + i}, null);
+                    model.add(key);
+                }
+            }
+
+            boolean liveOk = checkOrderStatistics(tree, model, random);
+
+            // 单次rank只需一次下降
+            long accessesBefore = tree.getStat().getPageAccessCount();
+            long rank = tree.rank("k04000");
+            long accesses = tree.getStat().getPageAccessCount() - accessesBefore;
+            boolean descentOk = rank == model.headSet("k04000").size() && accesses <= tree.getStat().getHeight() + 1;
+            tree.close(filename);
+
+            tree = new BPlusTreeImpl(16);
+            tree.create(filename, 4096);
+            boolean reopenOk = checkOrderStatistics(tree, model, random);
+            boolean edgesOk = tree.count(null, null) == model.size()
+                    && tree.count("k9", "k0") == 0
+                    && tree.select(model.size()) == null
+                    && tree.select(-1) == null
+                    && tree.rank("") == 0
+                    && tree.rank("z") == model.size();
+            tree.close(filename);
+
+            if (liveOk && descentOk && reopenOk && edgesOk) {
+                System.out.println("✓ 排名与计数测试通过: " + model.size() + " 条记录，rank访问页面 " + accesses + " 次");
+            } else {
+                System.out.printf("✗ 排名与计数测试失败: liveOk=%b, descentOk=%b, accesses=%d, reopenOk=%b, edgesOk=%b\n",
+                        liveOk, descentOk, accesses, reopenOk, edgesOk);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 排名与计数测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testExportImport() {
+        System.out.println("=== 导出与批量导入测试 ===");
+
+        String source = "test_export_src.db";
+        String target = "test_export_dst.db";
+        deleteWithSidecars(source);
+        deleteWithSidecars(target);
+
+        try {
+            // 随机顺序插入并删除一部分，源文件的节点只有半满左右
+            BPlusTreeImpl tree = new BPlusTreeImpl(32);
+            tree.create(source, 4096);
+            TreeMap<String, String[]> model = new TreeMap<>();
+            Random random = new Random(45);
+            for (int i = 0; i < 8000; i++) {
+                String key = String.format("k%06d", random.nextInt(20000));
+                String[] value = i % 500 == 0
+                        ? new String[]{"big", randomString(random, new String[]{"x", "y", "z"}, 6000)}
+                        : new String[]{"v" + i, i % 7 == 0 ? "" : "c" + (i % 10)};
+                tree.insert(key, value, i % 3 == 0 ? null : "r" + i);
+                model.put(key, value);
+            }
+            for (int i = 0; i < 1000; i++) {
+                String key = String.format("k%06d", random.nextInt(20000));
+                tree.delete(key);
+                model.remove(key);
+            }
+            double sourceFill = tree.getStat().getFillRate();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long exported = tree.exportTo(out);
+            tree.close(source);
+
+            BPlusTreeImpl packed = new BPlusTreeImpl(32);
+            packed.create(target, 4096);
+            long imported = packed.importFrom(new ByteArrayInputStream(out.toByteArray()));
+            Statistics stats = packed.getStat();
+            boolean countOk = exported == model.size() && imported == model.size() && packed.count(null, null) == model.size();
+            boolean fillOk = stats.getFillRate() > 0.95 && stats.getFillRate() > sourceFill;
+            boolean contentOk = checkContents(packed, model)
+                    && collect(packed.reverseCursor(null), 3).equals(new ArrayList<>(model.descendingKeySet()).subList(0, 3));
+
+            // 导入后的满节点照常分裂
+            for (int i = 0; i < 500; i++) {
+                String key = String.format("k%06d", random.nextInt(20000)) + "a";
+                packed.insert(key, new String[]{"after" + i}, null);
+                model.put(key, new String[]{"after" + i});
+            }
+            packed.close(target);
+
+            packed = new BPlusTreeImpl(32);
+            packed.create(target, 4096);
+            boolean reopenOk = checkContents(packed, model) && packed.count(null, null) == model.size();
+            boolean nonEmptyRejected = false;
+            try {
+                packed.importFrom(new ByteArrayInputStream(out.toByteArray()));
+            } catch (IllegalStateException e) {
+                nonEmptyRejected = true;
+            }
+            packed.close(target);
+
+            // 乱序的流被拒绝，树保持为空，之后仍可导入
+            deleteWithSidecars(target);
+            ByteArrayOutputStream bad = new ByteArrayOutputStream();
+            DataOutputStream badData = new DataOutputStream(bad);
+            ExportFormat.writeHeader(badData);
+            for (int i = 0; i < 2000; i++) {
+                ExportFormat.writeRecord(badData, String.format("b%05d", i == 1500 ? 3 : i), new String[]{"v"}, null);
+            }
+            ExportFormat.writeTrailer(badData, 2000);
+            BPlusTreeImpl retry = new BPlusTreeImpl(32);
+            retry.create(target, 4096);
+            retry.createIndex(1);
+            boolean badRejected = false;
+            try {
+                retry.importFrom(new ByteArrayInputStream(bad.toByteArray()));
+            } catch (IllegalArgumentException e) {
+                badRejected = retry.count(null, null) == 0 && retry.get("b00001").length == 0;
+            }
+            retry.importFrom(new ByteArrayInputStream(out.toByteArray()));
+            String[] indexed = retry.getKeysByIndex(1, "c3");
+            long expectedIndexed = model.entrySet().stream()
+                    .filter(e -> e.getValue().length > 1 && "c3".equals(e.getValue()[1]) && !e.getKey().endsWith("a"))
+                    .count();
+            boolean indexOk = indexed.length == expectedIndexed;
+            retry.close(target);
+
+            if (countOk && fillOk && contentOk && reopenOk && nonEmptyRejected && badRejected && indexOk) {
+                System.out.printf("✓ 导出与批量导入测试通过: %d 条记录，填充率 %.1f%% -> %.1f%%，高度 %d\n",
+                        imported, sourceFill * 100, stats.getFillRate() * 100, stats.getHeight());
+            } else {
+                System.out.printf("✗ 导出与批量导入测试失败: countOk=%b, fillOk=%b(%.3f), contentOk=%b, reopenOk=%b, nonEmptyRejected=%b, badRejected=%b, indexOk=%b\n",
+                        countOk, fillOk, stats.getFillRate(), contentOk, reopenOk, nonEmptyRejected, badRejected, indexOk);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 导出与批量导入测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testOnlineBackup() {
+        System.out.println("=== 在线备份测试 ===");
+
+        boolean plainOk = checkOnlineBackup("test_backup_src.db", "test_backup_dst.db", false, false);
+        boolean compressedOk = checkOnlineBackup("test_backup_zsrc.db", "test_backup_zdst.db", true, false);
+        boolean valueLogOk = checkOnlineBackup("test_backup_vsrc.db", "test_backup_vdst.db", false, true);
+        if (plainOk && compressedOk && valueLogOk) {
+            System.out.println("✓ 在线备份测试通过");
+        } else {
+            System.out.printf("✗ 在线备份测试失败: plainOk=%b, compressedOk=%b, valueLogOk=%b\n",
+                    plainOk, compressedOk, valueLogOk);
+        }
+    }
+
+    // 备份与写入并发进行：第i次写入插入b_i并更新a_i，一致的备份中两者必须同时出现或同时不出现
+    private static boolean checkOnlineBackup(String source, String target, boolean compress, boolean separateValues) {
+        deleteWithSidecars(source);
+        deleteWithSidecars(target);
+        int initial = 3000;
+        int writes = 3000;
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(64, compress, separateValues);
+            tree.create(source, 4096);
+            for (int i = 0; i < initial; i++) {
+                tree.insert(String.format("a%05d", i), new String[]{"old" + i}, null);
+            }
+
+            CountDownLatch started = new CountDownLatch(1);
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < writes; i++) {
+                    synchronized (tree) {
+                        tree.insert(String.format("b%05d", i), new String[]{"new" + i}, null);
+                        tree.insert(String.format("a%05d", i), new String[]{"new" + i}, null);
+                    }
+                    if (i == 100) {
+                        started.countDown();
+                    }
+                }
+            });
+            writer.start();
+            started.await();
+            tree.backup(target);
+            writer.join();
+            long sourceCount = tree.count(null, null);
+            tree.close(source);
+
+            BPlusTreeImpl copy = new BPlusTreeImpl(64, compress, separateValues);
+            copy.create(target, 4096);
+            int applied = (int) copy.count("b", "c");
+            boolean ok = sourceCount == initial + writes && copy.count(null, null) == initial + applied;
+            for (int i = 0; i < initial && ok; i++) {
+                String[][] a = copy.get(String.format("a%05d", i));
+                String[][] b = copy.get(String.format("b%05d", i));
+                String expected = i < applied ? "new" + i : "old" + i;
+                ok = a.length == 1 && a[0][0].equals(expected) && (b.length == 1) == (i < applied);
+            }
+            // 备份文件可以继续写入
+            copy.insert("c00000", new String[]{"after"}, null);
+            ok &= copy.get("c00000").length == 1;
+            copy.close(target);
+            System.out.println("备份包含 " + applied + " / " + writes + " 次并发写入");
+            return ok;
+        } catch (Exception e) {
+            System.out.println("✗ 在线备份测试异常: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static void testNamedTrees() {
+        System.out.println("=== 命名树测试 ===");
+
+        String filename = "test_named_trees.db";
+        deleteWithSidecars(filename);
+
+        try {
+            // 30棵小树共用一个32页的缓冲池
+            BPlusTreeImpl file = new BPlusTreeImpl(32);
+            file.create(filename, 4096);
+            file.insert("shared", new String[]{"primary"}, null);
+            List<BPlusTreeImpl.NamedTree> trees = new ArrayList<>();
+            for (int t = 0; t < 30; t++) {
+                BPlusTreeImpl.NamedTree tree = file.openTree(String.format("idx_%02d", t));
+                for (int i = 0; i < 300; i++) {
+                    tree.insert(String.format("k%04d", i), new String[]{t + ":" + i}, null);
+                }
+                tree.insert("shared", new String[]{"tree" + t}, "r" + t);
+                trees.add(tree);
+            }
+            String big = randomString(new Random(47), new String[]{"p", "q"}, 9000);
+            trees.get(3).insert("big", new String[]{big}, null);
+            trees.get(5).delete("k0100");
+
+            boolean liveOk = checkNamedTrees(file, big) && file.get("shared")[0][0].equals("primary")
+                    && file.get("k0001").length == 0 && file.count(null, null) == 1;
+            int nodesBeforeDrop = file.getStat().getNodeCount();
+            file.dropTree("idx_29");
+            boolean dropOk = file.getStat().getNodeCount() < nodesBeforeDrop && file.listTrees().size() == 29;
+            try {
+                trees.get(29).get("k0001");
+                dropOk = false;
+            } catch (IllegalStateException e) {
+                // 删除后句柄失效
+            }
+            file.close(filename);
+
+            boolean closedOk = false;
+            try {
+                trees.get(0).get("k0001");
+            } catch (IllegalStateException e) {
+                closedOk = true;
+            }
+
+            file = new BPlusTreeImpl(32);
+            file.create(filename, 4096);
+            boolean reopenOk = file.listTrees().size() == 29 && checkNamedTrees(file, big)
+                    && file.openTree("idx_29").count(null, null) == 0;
+            file.close(filename);
+
+            if (liveOk && dropOk && closedOk && reopenOk) {
+                System.out.println("✓ 命名树测试通过");
+            } else {
+                System.out.printf("✗ 命名树测试失败: liveOk=%b, dropOk=%b, closedOk=%b, reopenOk=%b\n",
+                        liveOk, dropOk, closedOk, reopenOk);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 命名树测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testWriteBatch() {
+        System.out.println("=== 写批次测试 ===");
+
+        try {
+            boolean applyOk = checkWriteBatch("test_write_batch.db", false, false)
+                    && checkWriteBatch("test_write_batch_compressed.db", true, false)
+                    && checkWriteBatch("test_write_batch_vlog.db", false, true);
+
+            // 同样的3000次插入，批次中同一叶子上的key共用一次下降
+            deleteWithSidecars("test_write_batch_single.db");
+            deleteWithSidecars("test_write_batch_shared.db");
+            BPlusTreeImpl single = new BPlusTreeImpl(100);
+            single.create("test_write_batch_single.db", 4096);
+            BPlusTreeImpl shared = new BPlusTreeImpl(100);
+            shared.create("test_write_batch_shared.db", 4096);
+            WriteBatch batch = new WriteBatch();
+            for (int i = 0; i < 3000; i++) {
+                single.insert(String.format("k%05d", i), new String[]{"v" + i}, null);
+                batch.put(String.format("k%05d", i), new String[]{"v" + i}, null);
+            }
+            long singleAccesses = single.getStat().getPageAccessCount();
+            shared.write(batch);
+            long sharedAccesses = shared.getStat().getPageAccessCount();
+            System.out.println("逐条插入页面访问: " + singleAccesses + ", 批次页面访问: " + sharedAccesses);
+            boolean sharedOk = sharedAccesses < singleAccesses && shared.count(null, null) == 3000
+                    && shared.get("k02999")[0][0].equals("v2999");
+            single.close("test_write_batch_single.db");
+            shared.close("test_write_batch_shared.db");
+
+            // 日志落盘后进程退出：下次打开时重放整个批次；日志不完整时批次没有提交
+            String filename = "test_write_batch_replay.db";
+            deleteWithSidecars(filename);
+            BPlusTreeImpl tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            for (int i = 0; i < 100; i++) {
+                tree.insert(String.format("k%05d", i), new String[]{"v" + i}, null);
+            }
+            tree.close(filename);
+            WriteBatch pending = new WriteBatch();
+            pending.put("k00500", new String[]{"new"}, "r500");
+            pending.put("k00001", new String[]{"updated"}, null);
+            pending.delete("k00010");
+            pending.put("k00010", new String[]{"temp"}, null);
+            pending.delete("k00010");
+            Path log = Paths.get(filename + ".batch");
+            Files.write(log, pending.encode());
+            tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            boolean replayOk = !Files.exists(log) && tree.get("k00500")[0][0].equals("new")
+                    && tree.get("k00001")[0][0].equals("updated") && tree.get("k00010").length == 0
+                    && tree.count(null, null) == 100;
+            tree.close(filename);
+
+            WriteBatch torn = new WriteBatch();
+            torn.put("k00600", new String[]{"lost"}, null);
+            byte[] encoded = torn.encode();
+            Files.write(log, Arrays.copyOf(encoded, encoded.length - 3));
+            tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            boolean tornOk = !Files.exists(log) && tree.get("k00600").length == 0
+                    && tree.count(null, null) == 100;
+            tree.close(filename);
+
+            // 写时复制模式下整个批次在一次提交中生效
+            String cowFilename = "test_write_batch_cow.db";
+            deleteWithSidecars(cowFilename);
+            CopyOnWriteBPlusTree cow = new CopyOnWriteBPlusTree(64);
+            cow.create(cowFilename, 4096);
+            WriteBatch cowBatch = new WriteBatch();
+            for (int i = 0; i < 500; i++) {
+                cowBatch.put(String.format("k%05d", i), new String[]{"v" + i}, null);
+            }
+            for (int i = 0; i < 500; i += 3) {
+                cowBatch.delete(String.format("k%05d", i));
+            }
+            cow.write(cowBatch);
+            cow.close(cowFilename);
+            cow = new CopyOnWriteBPlusTree(64);
+            cow.create(cowFilename, 4096);
+            boolean cowOk = true;
+            for (int i = 0; i < 500; i++) {
+                String[][] result = cow.get(String.format("k%05d", i));
+                cowOk = cowOk && (i % 3 == 0 ? result.length == 0 : result[0][0].equals("v" + i));
+            }
+            cow.close(cowFilename);
+
+            // 子进程在应用批次的中途、以及检查点写页面时被终止，重新打开后批次完整生效
+            boolean crashOk = checkBatchCrash("test_write_batch_crash_apply.db", "apply")
+                    && checkBatchCrash("test_write_batch_crash_checkpoint.db", "checkpoint");
+
+            // 应用中途出错时树回到批次之前的状态
+            boolean rollbackOk = checkBatchRollback("test_write_batch_rollback.db");
+
+            if (applyOk && sharedOk && replayOk && tornOk && cowOk && crashOk && rollbackOk) {
+                System.out.println("✓ 写批次测试通过");
+            } else {
+                System.out.printf("✗ 写批次测试失败: applyOk=%b, sharedOk=%b, replayOk=%b, tornOk=%b, cowOk=%b, crashOk=%b, rollbackOk=%b\n",
+                        applyOk, sharedOk, replayOk, tornOk, cowOk, crashOk, rollbackOk);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 写批次测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // 预先写入3000条记录，在子进程中写入crashBatch并在mode对应的时刻终止，检查重新打开后的结果
+    private static boolean checkBatchCrash(String filename, String mode) throws Exception {
+        deleteWithSidecars(filename);
+        BPlusTreeImpl tree = new BPlusTreeImpl(100);
+        tree.create(filename, 4096);
+        for (int i = 0; i < 3000; i++) {
+            tree.insert(String.format("k%05d", i), new String[]{"v" + i}, null);
+        }
+        tree.close(filename);
+        byte[] before = Files.readAllBytes(Paths.get(filename));
+
+        Process child = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), BPlusTreeTest.class.getName(), "batch-child", filename, mode)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        int exitCode = child.waitFor();
+        // 终止时批次已提交但检查点没有完成，日志一定还在
+        boolean killed = exitCode == 1 && Files.exists(Paths.get(filename + ".batch"));
+        if (mode.equals("checkpoint")) {
+            killed = killed && Files.exists(Paths.get(filename + ".batch.pages"));
+        } else {
+            // 应用期间不写回脏页，元数据之后的数据页与批次之前完全相同
+            byte[] after = Files.readAllBytes(Paths.get(filename));
+            killed = killed && Arrays.equals(Arrays.copyOfRange(before, 16384, before.length),
+                    Arrays.copyOfRange(after, 16384, after.length));
+        }
+
+        tree = new BPlusTreeImpl(100);
+        tree.create(filename, 4096);
+        tree.validate();
+        boolean ok = tree.count(null, null) == 2000 + 20000;
+        for (int i = 0; i < 3000 && ok; i++) {
+            String[][] result = tree.get(String.format("k%05d", i));
+            ok = i % 3 == 0 ? result.length == 0 : result.length == 1 && result[0][0].equals("w" + i);
+        }
+        for (int i = 0; i < 20000 && ok; i++) {
+            String[][] result = tree.get(String.format("n%05d", i));
+            ok = result.length == 1 && result[0][0].equals("n" + i);
+        }
+        tree.close(filename);
+        if (!killed || !ok) {
+            System.out.println(mode + ": 退出码 " + exitCode + ", killed=" + killed + ", ok=" + ok);
+        }
+        return killed && ok;
+    }
+
+    // value log在批次应用到一半时写入失败：批次整体不生效，日志被删除；日志残留时拒绝新批次；之后的批次照常提交
+    private static boolean checkBatchRollback(String filename) throws Exception {
+        deleteWithSidecars(filename);
+        BPlusTreeImpl tree = new BPlusTreeImpl(16, false, true);
+        tree.create(filename, 4096);
+        int[] appendsLeft = {Integer.MAX_VALUE};
+        ValueLog failingLog = new ValueLog(filename, ValueLog.DEFAULT_SEGMENT_SIZE) {
+            @Override
+            public synchronized long append(String key, byte[] row, boolean sync) throws IOException {
+                if (appendsLeft[0]-- <= 0) {
+                    throw new IOException("模拟value log写入失败");
+                }
+                return super.append(key, row, sync);
+            }
+        };
+        Field field = BPlusTreeImpl.class.getDeclaredField("valueLog");
+        field.setAccessible(true);
+        ((ValueLog) field.get(tree)).close();
+        failingLog.open();
+        field.set(tree, failingLog);
+
+        tree.createIndex(0);
+        TreeMap<String, String[]> model = new TreeMap<>();
+        for (int i = 0; i < 2000; i += 2) {
+            String key = String.format("k%05d", i);
+            String[] value = {"g" + i % 10, "v" + i};
+            tree.insert(key, value, null);
+            model.put(key, value);
+        }
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 2000; i++) {
+            if (i % 6 == 0) {
+                batch.delete(String.format("k%05d", i));
+            } else {
+                batch.put(String.format("k%05d", i), new String[]{"h" + i % 10, "w" + i}, null);
+            }
+        }
+
+        appendsLeft[0] = 800;
+        boolean failed = false;
+        try {
+            tree.write(batch);
+        } catch (RuntimeException e) {
+            failed = true;
+        }
+        appendsLeft[0] = Integer.MAX_VALUE;
+        Path logPath = Paths.get(filename + ".batch");
+        tree.validate();
+        boolean rolledBack = failed && !Files.exists(logPath) && tree.count(null, null) == model.size()
+                && checkContents(tree, model) && tree.getKeysByIndex(0, "h1").length == 0
+                && tree.getKeysByIndex(0, "g2").length == 200;
+
+        Files.write(logPath, new byte[]{1});
+        boolean refused = false;
+        try {
+            tree.write(batch);
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+        Files.delete(logPath);
+
+        tree.write(batch);
+        for (int i = 0; i < 2000; i++) {
+            String key = String.format("k%05d", i);
+            if (i % 6 == 0) {
+                model.remove(key);
+            } else {
+                model.put(key, new String[]{"h" + i % 10, "w" + i});
+            }
+        }
+        boolean applied = checkContents(tree, model) && tree.getKeysByIndex(0, "g2").length == 0;
+        tree.close(filename);
+        tree = new BPlusTreeImpl(16);
+        tree.create(filename, 4096);
+        boolean reopened = tree.count(null, null) == model.size() && checkContents(tree, model)
+                && tree.getKeysByIndex(0, "h1").length == 200;
+        tree.close(filename);
+        deleteWithSidecars(filename);
+        if (!rolledBack || !refused || !applied || !reopened) {
+            System.out.println("rollback: failed=" + failed + ", rolledBack=" + rolledBack + ", refused=" + refused
+                    + ", applied=" + applied + ", reopened=" + reopened);
+        }
+        return rolledBack && refused && applied && reopened;
+    }
+
+    // 覆盖和删除预先写入的记录，并插入两万条新记录，应用时缓冲池远小于批次涉及的页面数
+    private static WriteBatch crashBatch() {
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 3000; i++) {
+            if (i % 3 == 0) {
+                batch.delete(String.format("k%05d", i));
+            } else {
+                batch.put(String.format("k%05d", i), new String[]{"w" + i}, null);
+            }
+        }
+        for (int i = 0; i < 20000; i++) {
+            batch.put(String.format("n%05d", i), new String[]{"n" + i}, null);
+        }
+        return batch;
+    }
+
+    // 子进程：写入crashBatch，mode为apply时在日志落盘后的应用过程中终止，为checkpoint时在页面映像
+    // 写完后终止；halt不执行任何清理，等同于进程被杀死
+    private static void runBatchChild(String filename, String mode) throws Exception {
+        WriteBatch batch = crashBatch();
+        Path logPath = Paths.get(filename + ".batch");
+        Path pagesPath = Paths.get(filename + ".batch.pages");
+        long logLength = batch.encode().length;
+        Thread killer = new Thread(() -> {
+            try {
+                if (mode.equals("apply")) {
+                    while (!Files.exists(logPath) || Files.size(logPath) < logLength) {
+                        Thread.onSpinWait();
+                    }
+                    Thread.sleep(20);
+                } else {
+                    // 映像文件由一次写入完成，长度是 头部 + 若干页 + 元数据 + 校验和
+                    long size = 0;
+                    while (size == 0 || (size - 12 - 16384 - 4) % (4 + 4096) != 0) {
+                        size = Files.exists(pagesPath) ? Files.size(pagesPath) : 0;
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // 文件在检查时被删除，直接终止
+            }
+            Runtime.getRuntime().halt(1);
+        });
+        killer.setDaemon(true);
+        killer.start();
+
+        BPlusTreeImpl tree = new BPlusTreeImpl(10);
+        tree.create(filename, 4096);
+        tree.write(batch);
+        Runtime.getRuntime().halt(0);
+    }
+
+    private static void testComputeAndMerge() {
+        System.out.println("=== 读-改-写测试 ===");
+
+        String filename = "test_compute.db";
+        deleteWithSidecars(filename);
+
+        try {
+            BPlusTreeImpl tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            tree.createIndex(1);
+            for (int i = 0; i < 2000; i++) {
+                tree.insert(String.format("c%05d", i), new String[]{"0", "even"}, "row" + i);
+            }
+
+            // 同样的计数器累加，get加insert每次下降两次，compute只下降一次
+            long before = tree.getStat().getPageAccessCount();
+            for (int i = 0; i < 2000; i++) {
+                String key = String.format("c%05d", i);
+                String[] row = tree.get(key)[0];
+                tree.insert(key, new String[]{String.valueOf(Integer.parseInt(row[0]) + 1), row[1]}, "row" + i);
+            }
+            long getInsertAccesses = tree.getStat().getPageAccessCount() - before;
+            before = tree.getStat().getPageAccessCount();
+            for (int i = 0; i < 2000; i++) {
+                tree.compute(String.format("c%05d", i), (k, old) -> {
+                    old[0] = String.valueOf(Integer.parseInt(old[0]) + 1);
+                    return old;
+                });
+            }
+            long computeAccesses = tree.getStat().getPageAccessCount() - before;
+            System.out.println("get+insert页面访问: " + getInsertAccesses + ", compute页面访问: " + computeAccesses);
+            boolean fewerOk = computeAccesses < getInsertAccesses;
+
+            // merge累加，不存在的key直接插入；结果为null时删除
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 2500; i += 5) {
+                    tree.merge(String.format("c%05d", i), new String[]{"10", "odd"}, "new" + i,
+                            (old, add) -> new String[]{
+                                    String.valueOf(Integer.parseInt(old[0]) + Integer.parseInt(add[0])), add[1]});
+                }
+            }
+            for (int i = 1; i < 2000; i += 100) {
+                tree.merge(String.format("c%05d", i), new String[]{"x"}, null, (old, add) -> null);
+            }
+            boolean absentDelete = tree.compute("c99999", (k, old) -> null) == null
+                    && tree.get("c99999").length == 0;
+
+            String[] kept = tree.putIfAbsent("c00003", new String[]{"ignored", "odd"}, null);
+            String[] inserted = tree.putIfAbsent("d00000", new String[]{"7", "even"}, "d");
+            boolean putIfAbsentOk = kept != null && kept[0].equals("2") && inserted == null
+                    && tree.get("c00003")[0][0].equals("2") && tree.get("d00000")[0][0].equals("7");
+
+            boolean liveOk = checkComputed(tree);
+            tree.close(filename);
+            tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            boolean reopenOk = checkComputed(tree);
+            tree.close(filename);
+
+            // 写时复制模式
+            String cowFilename = "test_compute_cow.db";
+            deleteWithSidecars(cowFilename);
+            CopyOnWriteBPlusTree cow = new CopyOnWriteBPlusTree(64);
+            cow.create(cowFilename, 4096);
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 300; i++) {
+                    cow.merge(String.format("c%05d", i), new String[]{"1"}, null,
+                            (old, add) -> new String[]{String.valueOf(Integer.parseInt(old[0]) + 1)});
+                }
+            }
+            boolean cowOk = cow.putIfAbsent("c00001", new String[]{"0"}, null)[0].equals("5")
+                    && cow.compute("c00002", (k, old) -> null) == null && cow.get("c00002").length == 0
+                    && cow.get("c00299")[0][0].equals("5");
+            cow.close(cowFilename);
+
+            if (fewerOk && absentDelete && putIfAbsentOk && liveOk && reopenOk && cowOk) {
+                System.out.println("✓ 读-改-写测试通过");
+            } else {
+                System.out.printf("✗ 读-改-写测试失败: fewerOk=%b, absentDelete=%b, putIfAbsentOk=%b, liveOk=%b, reopenOk=%b, cowOk=%b\n",
+                        fewerOk, absentDelete, putIfAbsentOk, liveOk, reopenOk, cowOk);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 读-改-写测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void testDeleteRange() {
+        System.out.println("=== 范围删除测试 ===");
+
+        try {
+            String filename = "test_delete_range.db";
+            deleteWithSidecars(filename);
+            BPlusTreeImpl tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            TreeMap<String, String[]> model = new TreeMap<>();
+            String big = "z".repeat(5000);
+            for (int i = 0; i < 20000; i++) {
+                String[] value = i % 500 == 0 ? new String[]{big + i} : new String[]{"v" + i};
+                tree.insert(String.format("t%06d", i), value, null);
+                model.put(String.format("t%06d", i), value);
+            }
+            Snapshot snapshot = tree.snapshot();
+            int nodesBefore = tree.getStat().getNodeCount();
+
+            // 一万条记录中大部分叶子整体释放，只有两端的叶子按区间删除
+            long before = tree.getStat().getPageAccessCount();
+            long deleted = tree.deleteRange("t005000", "t015000");
+            long accesses = tree.getStat().getPageAccessCount() - before;
+            model.subMap("t005000", "t015000").clear();
+            boolean bulkOk = deleted == 10000 && accesses < deleted / 2
+                    && tree.getStat().getNodeCount() < nodesBefore && checkRangeDeleted(tree, model);
+
+            // 快照仍看到删除前的数据
+            boolean snapshotOk = snapshot.get("t010001")[0][0].equals("v10001")
+                    && snapshot.get("t005000")[0][0].equals(big + 5000);
+            snapshot.close();
+
+            // 叶子内部、跨两个叶子、开区间和空区间
+            long small = tree.deleteRange("t000100", "t000103");
+            model.subMap("t000100", "t000103").clear();
+            long crossing = tree.deleteRange("t001990", "t002160");
+            model.subMap("t001990", "t002160").clear();
+            long head = tree.deleteRange(null, "t000050");
+            model.headMap("t000050").clear();
+            long tail = tree.deleteRange("t019000", null);
+            model.tailMap("t019000").clear();
+            boolean edgesOk = small == 3 && crossing == 170 && head == 50 && tail == 1000
+                    && tree.deleteRange("t005000", "t015000") == 0 && tree.deleteRange("b", "a") == 0
+                    && checkRangeDeleted(tree, model);
+
+            // 删除后的空隙可以重新插入
+            for (int i = 7000; i < 9000; i++) {
+                tree.insert(String.format("t%06d", i), new String[]{"again" + i}, null);
+                model.put(String.format("t%06d", i), new String[]{"again" + i});
+            }
+            boolean reinsertOk = checkRangeDeleted(tree, model);
+            tree.validate();
+            tree.close(filename);
+
+            tree = new BPlusTreeImpl(100);
+            tree.create(filename, 4096);
+            boolean reopenOk = checkRangeDeleted(tree, model);
+            long all = tree.deleteRange(null, null);
+            boolean emptyOk = all == model.size() && tree.count(null, null) == 0 && tree.get("t007000").length == 0;
+            tree.insert("t000001", new String[]{"v"}, null);
+            emptyOk = emptyOk && tree.count(null, null) == 1;
+            tree.close(filename);
+
+            // 有二级索引时逐行移除索引项
+            String indexedFilename = "test_delete_range_index.db";
+            deleteWithSidecars(indexedFilename);
+            BPlusTreeImpl indexed = new BPlusTreeImpl(100);
+            indexed.create(indexedFilename, 4096);
+            indexed.createIndex(1);
+            for (int i = 0; i < 3000; i++) {
+                indexed.insert(String.format("t%06d", i), new String[]{"v" + i, "g" + (i % 4)}, null);
+            }
+            indexed.deleteRange("t000500", "t002500");
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 3000; i += 4) {
+                if (i < 500 || i >= 2500) {
+                    expected.add(String.format("t%06d", i));
+                }
+            }
+            boolean indexOk = expected.equals(Arrays.asList(indexed.getKeysByIndex(1, "g0")))
+                    && indexed.count(null, null) == 1000;
+            indexed.close(indexedFilename);
+
+            // 旧版本文件的叶子页尾没有前驱指针：把每个叶子的前驱位置改成指向自己的垃圾数据，
+            // 校验和清零按旧格式页面读取，并标记前驱指针不可用，左侧邻居只能从下降路径得到
+            String legacyFilename = "test_delete_range_legacy.db";
+            deleteWithSidecars(legacyFilename);
+            BPlusTreeImpl legacy = new BPlusTreeImpl(100);
+            legacy.create(legacyFilename, 4096);
+            TreeMap<String, String[]> legacyModel = new TreeMap<>();
+            for (int i = 0; i < 5000; i++) {
+                legacy.insert(String.format("t%06d", i), new String[]{"v" + i}, null);
+                legacyModel.put(String.format("t%06d", i), new String[]{"v" + i});
+            }
+            legacy.close(legacyFilename);
+            try (RandomAccessFile raf = new RandomAccessFile(legacyFilename, "rw")) {
+                byte[] data = new byte[4096];
+                for (long offset = 16384; offset + 4096 <= raf.length(); offset += 4096) {
+                    raf.seek(offset);
+                    raf.readFully(data);
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    if (buffer.getInt(0) != 1) continue;
+                    buffer.putInt(4096 - Page.CHECKSUM_SIZE - 4, (int) ((offset - 16384) / 4096));
+                    buffer.putInt(4096 - Page.CHECKSUM_SIZE, 0);
+                    raf.seek(offset);
+                    raf.write(data);
+                }
+            }
+            legacy = new BPlusTreeImpl(100);
+            legacy.create(legacyFilename, 4096);
+            Field prevLinksValid = BPlusTreeImpl.class.getDeclaredField("prevLinksValid");
+            prevLinksValid.setAccessible(true);
+            prevLinksValid.setBoolean(legacy, false);
+            long legacyDeleted = legacy.deleteRange("t001000", "t004000");
+            legacyModel.subMap("t001000", "t004000").clear();
+            boolean legacyOk = legacyDeleted == 3000 && checkContents(legacy, legacyModel)
+                    && new ArrayList<>(legacyModel.keySet()).equals(collect(legacy.scanPrefix(""), -1));
+            legacy.validate();
+            legacy.close(legacyFilename);
+
+            // 打开的游标记住的下一个叶子被释放并复用后，按已读到的key重新定位
+            String cursorFilename = "test_delete_range_cursor.db";
+            deleteWithSidecars(cursorFilename);
+            BPlusTreeImpl cursorTree = new BPlusTreeImpl(100);
+            cursorTree.create(cursorFilename, 4096);
+            for (int i = 0; i < 5000; i++) {
+                cursorTree.insert(String.format("t%06d", i), new String[]{"v" + i}, null);
+            }
+            Cursor cursor = cursorTree.scanPrefix("t");
+            List<String> seen = collect(cursor, 200);
+            cursorTree.deleteRange("t000000", "t004000");
+            for (int i = 0; i < 3000; i++) {
+                cursorTree.insert(String.format("u%06d", i), new String[]{"u" + i}, null);
+            }
+            seen.addAll(collect(cursor, -1));
+            int resumed = seen.indexOf("t004000");
+            boolean cursorOk = resumed >= 200 && seen.size() == resumed + 1000;
+            for (int i = 0; i < seen.size() && cursorOk; i++) {
+                cursorOk = seen.get(i).equals(String.format("t%06d", i < resumed ? i : 4000 + i - resumed));
+            }
+            cursorTree.close(cursorFilename);
+
+            if (bulkOk && snapshotOk && edgesOk && reinsertOk && reopenOk && emptyOk && indexOk && legacyOk && cursorOk) {
+                System.out.println("✓ 范围删除测试通过: 删除10000条记录访问页面 " + accesses + " 次");
+            } else {
+                System.out.printf("✗ 范围删除测试失败: bulkOk=%b, snapshotOk=%b, edgesOk=%b, reinsertOk=%b, reopenOk=%b, emptyOk=%b, indexOk=%b, legacyOk=%b, cursorOk=%b\n",
+                        bulkOk, snapshotOk, edgesOk, reinsertOk, reopenOk, emptyOk, indexOk, legacyOk, cursorOk);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 范围删除测试异常: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // 对照模型检查内容、子树记录数，以及正反两个方向的叶子链表
+    private static boolean checkRangeDeleted(BPlusTreeImpl tree, TreeMap<String, String[]> model) {
+        if (!checkContents(tree, model) || tree.count(null, null) != model.size()) return false;
+        List<String> keys = new ArrayList<>(model.keySet());
+        if (!keys.equals(collect(tree.scanPrefix(""), -1))) return false;
+        List<String> reversed = collect(tree.reverseCursor(null), -1);
+        Collections.reverse(reversed);
+        return keys.equals(reversed) && tree.get("t012345").length == 0;
+    }
+
+    // 每个计数器经过get+insert和compute各加1，每5个key再由merge加30并移到odd
+    private static boolean checkComputed(BPlusTreeImpl tree) {
+        List<String> odd = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            String key = String.format("c%05d", i);
+            String[][] result = tree.get(key);
+            boolean merged = i % 5 == 0;
+            if (i % 100 == 1) {
+                if (result.length != 0) return false;
+                continue;
+            }
+            if (i >= 2000 && !merged) {
+                if (result.length != 0) return false;
+                continue;
+            }
+            int expected = (i < 2000 ? 2 : 0) + (merged ? 30 : 0);
+            if (result.length != 1 || Integer.parseInt(result[0][0]) != expected) return false;
+            if (merged) {
+                odd.add(key);
+            }
+        }
+        return odd.equals(Arrays.asList(tree.getKeysByIndex(1, "odd")))
+                && tree.count(null, null) == 2000 - 20 + 100 + 1;
+    }
+
+    // 随机的覆盖、新增和删除组成一个批次，对照模型检查主树和二级索引，重新打开后再检查一次
+    private static boolean checkWriteBatch(String filename, boolean compress, boolean separateValues) {
+        deleteWithSidecars(filename);
+        BPlusTreeImpl tree = new BPlusTreeImpl(64, compress, separateValues);
+        tree.create(filename, 4096);
+        tree.createIndex(1);
+        TreeMap<String, String[]> model = new TreeMap<>();
+        for (int i = 0; i < 2000; i += 2) {
+            String[] value = {"v" + i, "c" + (i % 7)};
+            tree.insert(String.format("k%05d", i), value, null);
+            model.put(String.format("k%05d", i), value);
+        }
+
+        WriteBatch batch = new WriteBatch();
+        Random random = new Random(48);
+        for (int j = 0; j < 3000; j++) {
+            int i = random.nextInt(2000);
+            String key = String.format("k%05d", i);
+            if (random.nextInt(4) == 0) {
+                batch.delete(key);
+                model.remove(key);
+            } else {
+                String[] value = {"b" + j, "c" + (i % 5)};
+                batch.put(key, value, null);
+                model.put(key, value);
+            }
+        }
+        tree.write(batch);
+
+        boolean ok = checkWriteBatchContents(tree, model);
+        tree.close(filename);
+        tree = new BPlusTreeImpl(64, compress, separateValues);
+        tree.create(filename, 4096);
+        ok = ok && checkWriteBatchContents(tree, model)
+                && !Files.exists(Paths.get(filename + ".batch"));
+        tree.close(filename);
+        return ok;
+    }
+
+    private static boolean checkWriteBatchContents(BPlusTreeImpl tree, TreeMap<String, String[]> model) {
+        if (!checkContents(tree, model) || tree.count(null, null) != model.size()) return false;
+        for (int i = 0; i < 2000; i += 13) {
+            String key = String.format("k%05d", i);
+            if (!model.containsKey(key) && tree.get(key).length != 0) return false;
+        }
+        List<String> expected = new ArrayList<>();
+        for (Map.Entry<String, String[]> entry : model.entrySet()) {
+            if (entry.getValue()[1].equals("c3")) {
+                expected.add(entry.getKey());
+            }
+        }
+        return expected.equals(Arrays.asList(tree.getKeysByIndex(1, "c3")));
+    }
+
+    private static boolean checkNamedTrees(BPlusTreeImpl file, String big) {
+        for (int t = 0; t < 29; t++) {
+            BPlusTreeImpl.NamedTree tree = file.openTree(String.format("idx_%02d", t));
+            long expected = t == 5 ? 300 : t == 3 ? 302 : 301;
+            if (tree.count(null, null) != expected) return false;
+            if (!tree.get("shared")[0][0].equals("tree" + t)) return false;
+            for (int i = 0; i < 300; i += 5) {
+                String[][] result = tree.get(String.format("k%04d", i));
+                boolean deleted = t == 5 && i == 100;
+                if (deleted ? result.length != 0 : result.length != 1 || !result[0][0].equals(t + ":" + i)) return false;
+            }
+        }
+        return file.openTree("idx_03").get("big")[0][0].equals(big);
+    }
+
+    // 逐条对照模型中的记录，并检查按位置查找和顺序
+    private static boolean checkContents(BPlusTreeImpl tree, TreeMap<String, String[]> model) {
+        long n = 0;
+        for (Map.Entry<String, String[]> entry : model.entrySet()) {
+            String[][] result = tree.get(entry.getKey());
+            if (result.length == 0 || !Arrays.equals(result[0], entry.getValue())) return false;
+            if (n % 97 == 0 && !entry.getKey().equals(tree.select(n))) return false;
+            n++;
+        }
+        return true;
+    }
+
+    // 与有序集合对照随机的rank、select和count
+    private static boolean checkOrderStatistics(BPlusTreeImpl tree, TreeSet<String> model, Random random) {
+        List<String> sorted = new ArrayList<>(model);
+        if (tree.count(null, null) != sorted.size()) return false;
+        for (int i = 0; i < 300; i++) {
+            int n = random.nextInt(sorted.size());
+            if (!sorted.get(n).equals(tree.select(n))) return false;
+            if (tree.rank(sorted.get(n)) != n) return false;
+
+            String from = String.format("k%05d", random.nextInt(8000));
+            String to = String.format("k%05d", random.nextInt(8000));
+            long expected = from.compareTo(to) < 0 ? model.subSet(from, to).size() : 0;
+            if (tree.count(from, to) != expected) return false;
+            if (tree.count(from, null) != model.tailSet(from).size()) return false;
+        }
+        return true;
+    }
+
+    // 读取游标中最多limit条记录的key，limit为-1时读取全部
+    private static List<String> collect(Cursor cursor, int limit) {
+        List<String> keys = new ArrayList<>();
+        while ((limit < 0 || keys.size() < limit) && cursor.next()) {
+            keys.add(cursor.key());
+        }
+        return keys;
+    }
+
+    private static String randomString(Random random, String[] alphabet, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static long vlogSize(String filename) {
+        long total = 0;
+        File[] files = new File(".").listFiles((d, name) -> name.startsWith(filename + ".vlog."));
+        if (files != null) {
+            for (File f : files) {
+                total += f.length();
+            }
+        }
+        return total;
+    }
+
+    private static void deleteWithSidecars(String filename) {
+        File[] files = new File(".").listFiles((d, name) -> name.startsWith(filename));
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    // 辅助方法：测试数据一致性
+    private static void testDataConsistency() {
+        System.out.println("=== 数据一致性测试 ===");
+
+        BPlusTree tree = new BPlusTreeImpl();
+        String filename = "test_consistency.db";
+
+        try {
+            tree.create(filename, 4096);
+
+            // 插入有序数据
+            for (int i = 0; i < 1000; i++) {
+                String key = String.format("key_%04d", i);
+                String[] values = {"value_" + i};
+                tree.insert(key, values, "row_" + i);
+            }
+
+            // 验证查询结果
+            boolean allFound = true;
+            for (int i = 0; i < 1000; i++) {
+                String key = String.format("key_%04d", i);
+                String[][] results = tree.get(key);
+                if (results.length == 0 || !results[0][0].equals("value_" + i)) {
+                    allFound = false;
+                    break;
+                }
+            }
+
+            if (allFound) {
+                System.out.println("✓ 数据一致性测试通过");
+            } else {
+                System.out.println("✗ 数据一致性测试失败");
+            }
+
+            tree.close(filename);
+
+        } catch (Exception e) {
+            System.out.println("✗ 数据一致性测试异常: " + e.getMessage());
+        }
+    }
+}